@@ -0,0 +1,60 @@
+package com.chaoyue.redis.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试使用的数据
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 指定长度的 ASCII 文本 内容有一定重复，接近业务数据的压缩率
+     */
+    static String text(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (sb.length() < length) {
+            sb.append("chaoyue-").append(i++ % 97).append(',');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * 一个典型的业务对象 几个基本类型字段加一个嵌套列表
+     */
+    static Order order(int items) {
+        Order order = new Order();
+        order.id = 20181018L;
+        order.userName = "chaoyue";
+        order.amount = 128.5;
+        order.createTime = new Date(1539820800000L);
+        order.items = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("sku", "sku-" + i);
+            item.put("count", i % 5 + 1);
+            item.put("price", 9.9 * (i + 1));
+            order.items.add(item);
+        }
+        return order;
+    }
+
+    public static class Order implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public long id;
+        public String userName;
+        public double amount;
+        public Date createTime;
+        public List<Map<String, Object>> items;
+    }
+}
@@ -0,0 +1,58 @@
+package com.chaoyue.redis.benchmark;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基准测试入口 对每个线程数各运行一遍选中的基准测试，最后汇总输出
+ * 参数与 JMH 命令行相同(如 CacheManagerBenchmark.get -p items=2)，另外通过系统属性 jmh.threads 指定线程数列表
+ * mvn -Pbenchmark exec:exec -Djmh.threads=1,8 -Djmh.args="CacheManagerBenchmark -rf json"
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String threads = System.getProperty("jmh.threads", "1,4,16");
+        List<RunResult> results = new ArrayList<>();
+        for (String t : threads.split(",")) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(Integer.parseInt(t.trim()))
+                    .build();
+            Collection<RunResult> runResults = new Runner(options).run();
+            results.addAll(runResults);
+        }
+        System.out.println();
+        System.out.println("Summary (threads / benchmark / params / mode / score):");
+        for (RunResult result : results) {
+            System.out.println(String.format("%3d  %-40s %-30s %-6s %12.3f ± %.3f %s",
+                    result.getParams().getThreads(), shortName(result.getParams().getBenchmark()),
+                    params(result), result.getParams().getMode().shortLabel(),
+                    result.getPrimaryResult().getScore(), result.getPrimaryResult().getScoreError(),
+                    result.getPrimaryResult().getScoreUnit()));
+        }
+    }
+
+    private static String shortName(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        return benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1);
+    }
+
+    private static String params(RunResult result) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : result.getParams().getParamsKeys()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(key).append('=').append(result.getParams().getParam(key));
+        }
+        return sb.toString();
+    }
+}
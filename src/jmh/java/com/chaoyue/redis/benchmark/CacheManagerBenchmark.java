@@ -0,0 +1,127 @@
+package com.chaoyue.redis.benchmark;
+
+import com.chaoyue.redis.DbBoundJedisConnectionFactory;
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DefaultRedisCacheManager 常用读写的基准测试
+ * 连接进程内的 RespStubServer，结果反映客户端、连接池、序列化和本机网络栈的开销，与真实 redis 的服务端耗时无关
+ * get/set 读写 BenchmarkData.Order 对象，经过 Kryo 序列化，items 为 100 时超过 1024 字节会压缩
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheManagerBenchmark {
+
+    private static final int KEY_COUNT = 1024;
+
+    private static final int HASH_FIELDS = 32;
+
+    private static final int ZSET_SIZE = 1000;
+
+    /**
+     * 订单明细条数 决定对象大小
+     */
+    @Param({"2", "100"})
+    private int items;
+
+    private RespStubServer server;
+
+    private DbBoundJedisConnectionFactory connectionFactory;
+
+    private DefaultRedisCacheManager manager;
+
+    private String[] keys;
+
+    private BenchmarkData.Order value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new RespStubServer();
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(64);
+        poolConfig.setMaxIdle(64);
+        connectionFactory = new DbBoundJedisConnectionFactory(poolConfig);
+        connectionFactory.setHostName(server.getHost());
+        connectionFactory.setPort(server.getPort());
+        connectionFactory.afterPropertiesSet();
+
+        RedisTemplate<String, Serializable> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.afterPropertiesSet();
+
+        RedisSerializer<Object> serializer = SerializerBenchmark.create("kryo-deflate");
+
+        manager = new DefaultRedisCacheManager();
+        manager.setRedisTemplate(redisTemplate);
+        manager.setDefRedisSerializer(serializer);
+
+        value = BenchmarkData.order(items);
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "chaoyue:bench:value:" + i;
+            manager.set(keys[i], value);
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < HASH_FIELDS; i++) {
+            fields.put("field" + i, BenchmarkData.text(64));
+        }
+        manager.hMSet("chaoyue:bench:hash", fields);
+        for (int i = 0; i < ZSET_SIZE; i++) {
+            manager.zAdd("chaoyue:bench:zset", ("member" + i).getBytes(), i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connectionFactory.destroy();
+        server.close();
+    }
+
+    /**
+     * 每个线程各自轮询 key
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next(int bound) {
+            next = next + 1 == bound ? 0 : next + 1;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Object get(Cursor cursor) throws Exception {
+        return manager.get(keys[cursor.next(KEY_COUNT)]);
+    }
+
+    @Benchmark
+    public void set(Cursor cursor) throws Exception {
+        manager.set(keys[cursor.next(KEY_COUNT)], value);
+    }
+
+    @Benchmark
+    public Map<String, String> hGetAll() throws Exception {
+        return manager.hGetAll("chaoyue:bench:hash", String.class);
+    }
+
+    @Benchmark
+    public Set<byte[]> zRangeByScore(Cursor cursor) throws Exception {
+        int min = cursor.next(ZSET_SIZE - 50);
+        return manager.zRangeByScore("chaoyue:bench:zset", min, min + 50);
+    }
+}
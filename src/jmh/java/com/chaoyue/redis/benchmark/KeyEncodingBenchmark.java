@@ -0,0 +1,51 @@
+package com.chaoyue.redis.benchmark;
+
+import com.chaoyue.redis.KeyEncoder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * key 编码的基准测试
+ * RedisCache 每次调用先拼接前缀，再由 StringRedisSerializer 编码为 UTF-8
+ * 加 -prof gc 查看每次调用分配的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyEncodingBenchmark {
+
+    private static final String PREFIX = "chaoyue:";
+
+    @Param({"user:1024", "order:detail:20181018:0000000000000001:items", "商品:详情:1024"})
+    private String key;
+
+    private final StringRedisSerializer stringSerializer = new StringRedisSerializer();
+
+    private final KeyEncoder keyEncoder = new KeyEncoder(PREFIX);
+
+    /**
+     * 当前 RedisCache 的方式
+     */
+    @Benchmark
+    public byte[] concatAndSerialize() {
+        return stringSerializer.serialize(PREFIX + key);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return stringSerializer.serialize(key);
+    }
+
+    /**
+     * 前缀预先编码，key 为 ASCII 时逐字符复制
+     */
+    @Benchmark
+    public byte[] keyEncoder() {
+        return keyEncoder.encode(key);
+    }
+}
@@ -0,0 +1,450 @@
+package com.chaoyue.redis.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 进程内的 RESP 协议替身服务 只用于基准测试
+ * 实现 DefaultRedisCacheManager 基准测试用到的少量命令，数据保存在内存中，不处理过期时间
+ * 每个连接一个线程，支持管道(客户端缓冲区读空后才刷新输出)，测出的是客户端、序列化和本机网络栈的开销
+ */
+@Slf4j
+public class RespStubServer implements Closeable {
+
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] PONG = "+PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ConcurrentMap<Key, Object> data = new ConcurrentHashMap<>();
+
+    private final ServerSocket serverSocket;
+
+    private final List<Socket> clients = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * 在本机随机端口上启动
+     */
+    public RespStubServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "resp-stub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (clients) {
+                    clients.add(socket);
+                }
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "resp-stub-" + socket.getPort());
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("fail to accept resp stub connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+            while (!closed) {
+                byte[][] command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                if (!execute(command, out)) {
+                    out.flush();
+                    return;
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            // 客户端断开
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("fail to serve resp stub connection", e);
+            }
+        }
+    }
+
+    /**
+     * @return false 表示关闭连接
+     */
+    private boolean execute(byte[][] args, OutputStream out) throws IOException {
+        String name = new String(args[0], StandardCharsets.US_ASCII).toUpperCase();
+        switch (name) {
+            case "PING":
+                out.write(PONG);
+                break;
+            case "SELECT":
+                out.write(OK);
+                break;
+            case "QUIT":
+                out.write(OK);
+                return false;
+            case "FLUSHDB":
+            case "FLUSHALL":
+                data.clear();
+                out.write(OK);
+                break;
+            case "GET":
+                writeBulk(out, get(args[1], byte[].class));
+                break;
+            case "SET":
+                data.put(new Key(args[1]), args[2]);
+                out.write(OK);
+                break;
+            case "SETEX":
+                data.put(new Key(args[1]), args[3]);
+                out.write(OK);
+                break;
+            case "DEL": {
+                long removed = 0;
+                for (int i = 1; i < args.length; i++) {
+                    if (data.remove(new Key(args[i])) != null) {
+                        removed++;
+                    }
+                }
+                writeInteger(out, removed);
+                break;
+            }
+            case "EXISTS":
+                writeInteger(out, data.containsKey(new Key(args[1])) ? 1 : 0);
+                break;
+            case "HSET":
+            case "HMSET": {
+                Hash hash = getOrCreate(args[1], Hash.class);
+                long added = 0;
+                synchronized (hash) {
+                    for (int i = 2; i + 1 < args.length; i += 2) {
+                        if (hash.fields.put(new Key(args[i]), args[i + 1]) == null) {
+                            added++;
+                        }
+                    }
+                }
+                if ("HSET".equals(name)) {
+                    writeInteger(out, added);
+                } else {
+                    out.write(OK);
+                }
+                break;
+            }
+            case "HGET": {
+                Hash hash = get(args[1], Hash.class);
+                byte[] value = null;
+                if (hash != null) {
+                    synchronized (hash) {
+                        value = hash.fields.get(new Key(args[2]));
+                    }
+                }
+                writeBulk(out, value);
+                break;
+            }
+            case "HGETALL": {
+                Hash hash = get(args[1], Hash.class);
+                List<byte[]> reply = new ArrayList<>();
+                if (hash != null) {
+                    synchronized (hash) {
+                        for (Map.Entry<Key, byte[]> entry : hash.fields.entrySet()) {
+                            reply.add(entry.getKey().bytes);
+                            reply.add(entry.getValue());
+                        }
+                    }
+                }
+                writeArray(out, reply);
+                break;
+            }
+            case "ZADD": {
+                SortedSet zset = getOrCreate(args[1], SortedSet.class);
+                long added = 0;
+                synchronized (zset) {
+                    for (int i = 2; i + 1 < args.length; i += 2) {
+                        if (zset.add(parseScore(args[i]), new Key(args[i + 1]))) {
+                            added++;
+                        }
+                    }
+                }
+                writeInteger(out, added);
+                break;
+            }
+            case "ZRANGEBYSCORE": {
+                SortedSet zset = get(args[1], SortedSet.class);
+                List<byte[]> reply = new ArrayList<>();
+                if (zset != null) {
+                    synchronized (zset) {
+                        zset.range(args[2], args[3], reply);
+                    }
+                }
+                writeArray(out, reply);
+                break;
+            }
+            default:
+                out.write(("-ERR unknown command '" + name + "'\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(byte[] key, Class<T> type) {
+        Object value = data.get(new Key(key));
+        return type.isInstance(value) ? (T) value : null;
+    }
+
+    private <T> T getOrCreate(byte[] key, Class<T> type) {
+        Key k = new Key(key);
+        Object value = data.get(k);
+        if (!type.isInstance(value)) {
+            try {
+                T created = type.newInstance();
+                value = data.putIfAbsent(k, created);
+                if (!type.isInstance(value)) {
+                    data.put(k, created);
+                    value = created;
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return type.cast(value);
+    }
+
+    private static double parseScore(byte[] raw) {
+        String s = new String(raw, StandardCharsets.US_ASCII);
+        if (s.startsWith("(")) {
+            s = s.substring(1);
+        }
+        switch (s.toLowerCase()) {
+            case "+inf":
+            case "inf":
+                return Double.POSITIVE_INFINITY;
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(s);
+        }
+    }
+
+    private static byte[][] readCommand(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        if (b != '*') {
+            throw new IOException("only RESP arrays are supported, got '" + (char) b + "'");
+        }
+        int count = (int) readLong(in);
+        byte[][] args = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("bulk string expected");
+            }
+            int length = (int) readLong(in);
+            byte[] arg = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(arg, read, length - read);
+                if (n == -1) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            in.read();
+            in.read();
+            args[i] = arg;
+        }
+        return args;
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            if (b == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write(':');
+        out.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write(NULL_BULK);
+            return;
+        }
+        out.write('$');
+        out.write(Integer.toString(value.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(value);
+        out.write(CRLF);
+    }
+
+    private static void writeArray(OutputStream out, List<byte[]> values) throws IOException {
+        out.write('*');
+        out.write(Integer.toString(values.size()).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (byte[] value : values) {
+            writeBulk(out, value);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket socket : clients) {
+                socket.close();
+            }
+            clients.clear();
+        }
+        data.clear();
+    }
+
+    private static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+    }
+
+    public static final class Hash {
+        private final Map<Key, byte[]> fields = new HashMap<>();
+    }
+
+    public static final class SortedSet {
+        private final Map<Key, Double> scores = new HashMap<>();
+        private final NavigableSet<Member> members = new TreeSet<>();
+
+        private boolean add(double score, Key member) {
+            Double old = scores.put(member, score);
+            if (old != null) {
+                members.remove(new Member(old, member));
+            }
+            members.add(new Member(score, member));
+            return old == null;
+        }
+
+        private void range(byte[] rawMin, byte[] rawMax, List<byte[]> reply) {
+            boolean minExclusive = rawMin.length > 0 && rawMin[0] == '(';
+            boolean maxExclusive = rawMax.length > 0 && rawMax[0] == '(';
+            double min = parseScore(rawMin);
+            double max = parseScore(rawMax);
+            for (Member m : members) {
+                if (m.score < min || (minExclusive && m.score == min)) {
+                    continue;
+                }
+                if (m.score > max || (maxExclusive && m.score == max)) {
+                    break;
+                }
+                reply.add(m.member.bytes);
+            }
+        }
+    }
+
+    private static final class Member implements Comparable<Member> {
+        private final double score;
+        private final Key member;
+
+        private Member(double score, Key member) {
+            this.score = score;
+            this.member = member;
+        }
+
+        @Override
+        public int compareTo(Member o) {
+            int c = Double.compare(score, o.score);
+            if (c != 0) {
+                return c;
+            }
+            byte[] a = member.bytes;
+            byte[] b = o.member.bytes;
+            for (int i = 0; i < Math.min(a.length, b.length); i++) {
+                int d = (a[i] & 0xff) - (b[i] & 0xff);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
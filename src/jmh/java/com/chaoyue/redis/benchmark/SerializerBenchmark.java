@@ -0,0 +1,96 @@
+package com.chaoyue.redis.benchmark;
+
+import com.chaoyue.redis.CodecRedisSerializer;
+import com.chaoyue.redis.KryoValueCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * value 序列化器的基准测试
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    /**
+     * jdk: JdkSerializationRedisSerializer
+     * kryo: CodecRedisSerializer + KryoValueCodec
+     * kryo-deflate: 同上 超过 1024 字节时压缩
+     * jackson: GenericJackson2JsonRedisSerializer
+     */
+    @Param({"jdk", "kryo", "kryo-deflate", "jackson"})
+    private String serializer;
+
+    /**
+     * 订单明细条数 决定对象大小
+     */
+    @Param({"2", "100"})
+    private int items;
+
+    private RedisSerializer<Object> redisSerializer;
+
+    private BenchmarkData.Order order;
+
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        redisSerializer = create(serializer);
+        order = BenchmarkData.order(items);
+        encoded = redisSerializer.serialize(order);
+    }
+
+    static RedisSerializer<Object> create(String name) {
+        switch (name) {
+            case "jdk":
+                return new JdkSerializationRedisSerializer();
+            case "kryo":
+            case "kryo-deflate": {
+                KryoValueCodec codec = new KryoValueCodec();
+                codec.setRegisteredClasses(Arrays.<Class<?>>asList(BenchmarkData.Order.class));
+                CodecRedisSerializer codecSerializer = new CodecRedisSerializer();
+                codecSerializer.setCodec(codec);
+                if ("kryo-deflate".equals(name)) {
+                    codecSerializer.setCompressThreshold(1024);
+                }
+                return codecSerializer;
+            }
+            case "jackson":
+                return new GenericJackson2JsonRedisSerializer();
+            default:
+                throw new IllegalArgumentException("unknown serializer " + name);
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return redisSerializer.serialize(order);
+    }
+
+    /**
+     * 每个线程使用自己的编码结果 kryo 解码时会临时修改输入数组
+     */
+    @State(Scope.Thread)
+    public static class Encoded {
+        private byte[] bytes;
+
+        @Setup(Level.Trial)
+        public void setUp(SerializerBenchmark benchmark) {
+            bytes = benchmark.encoded.clone();
+        }
+    }
+
+    @Benchmark
+    public Object deserialize(Encoded encoded) {
+        return redisSerializer.deserialize(encoded.bytes);
+    }
+}
@@ -0,0 +1,135 @@
+package com.chaoyue.redis;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis 的异步缓存管理接口
+ * 与 RedisCacheManager 的方法一一对应，在独立的I/O线程池中执行，调用线程不会阻塞在 redis I/O 上
+ * 执行失败或线程池已满时返回的 CompletableFuture 以异常结束
+ */
+public interface AsyncRedisCacheManager {
+
+    /**
+     * 保存至缓存 byte[]
+     *
+     * @param timeout 单位秒
+     */
+    CompletableFuture<Void> set(String key, byte[] value, long timeout);
+
+    CompletableFuture<Void> set(String key, byte[] value);
+
+    /**
+     * 保存至缓存 object 序列化
+     *
+     * @param timeout 单位秒
+     */
+    CompletableFuture<Void> set(String key, Serializable object, long timeout);
+
+    CompletableFuture<Void> set(String key, Serializable object);
+
+    /**
+     * 保存至缓存 String类型
+     *
+     * @param timeout 单位秒
+     */
+    CompletableFuture<Void> set(String key, String value, long timeout);
+
+    CompletableFuture<Void> set(String key, String value);
+
+    CompletableFuture<Object> get(String key);
+
+    CompletableFuture<String> getString(String key);
+
+    <T> CompletableFuture<T> get(String key, Class<T> t);
+
+    CompletableFuture<Long> del(String key);
+
+    CompletableFuture<List<Object>> mGet(List<String> keys);
+
+    <T> CompletableFuture<List<T>> mGet(List<String> keys, Class<T> t);
+
+    /**
+     * 批量保存至缓存 object 序列化
+     *
+     * @param timeout 单位秒 如果<=0 则永不过期
+     */
+    CompletableFuture<Void> mSet(Map<String, ? extends Serializable> values, long timeout);
+
+    CompletableFuture<Set<String>> keys(String pattern);
+
+    /**
+     * 使用 SCAN 渐进式遍历匹配的key callback 在I/O线程中执行
+     */
+    CompletableFuture<Void> scan(String pattern, int count, ScanCallback<List<String>> callback);
+
+    CompletableFuture<Boolean> hSet(String key, String fieldKey, Serializable value);
+
+    <T extends Serializable> CompletableFuture<Void> hMSet(String key, Map<String, T> fieldMap);
+
+    CompletableFuture<Object> hGet(String key, String fieldKey);
+
+    CompletableFuture<Long> hDel(String key, String... fieldKeys);
+
+    <T> CompletableFuture<Map<String, T>> hGetAll(String key, Class<T> clazz);
+
+    <T> CompletableFuture<Map<String, T>> hMGet(String key, Class<T> clazz, String... fieldKeys);
+
+    <T> CompletableFuture<Void> hScan(String key, int count, Class<T> clazz, ScanCallback<Map<String, T>> callback);
+
+    CompletableFuture<byte[]> leftPop(String key);
+
+    CompletableFuture<Boolean> rightPush(String key, byte[] value);
+
+    CompletableFuture<Boolean> expire(String key, long timeout, TimeUnit unit);
+
+    /**
+     * 设置超时时间 单位秒
+     */
+    CompletableFuture<Boolean> expire(String key, long timeout);
+
+    CompletableFuture<Long> publish(String channel, String msg);
+
+    CompletableFuture<Long> zSize(String key);
+
+    CompletableFuture<Long> zCount(String key, double min, double max);
+
+    CompletableFuture<Set<byte[]>> zRangeByScore(String key, double min, double max, long offset, long count);
+
+    CompletableFuture<Long> zRemove(String key, byte[]... value);
+
+    CompletableFuture<Boolean> zAdd(String key, byte[] value, double score);
+
+    CompletableFuture<byte[]> getSet(String key, byte[] values, long time, TimeUnit timeUnit);
+
+    /**
+     * 获取并赋值 单位秒
+     */
+    CompletableFuture<byte[]> getSet(String key, byte[] values, long time);
+
+    CompletableFuture<Boolean> setIfAbsent(String key, byte[] value, long timeout, TimeUnit unit);
+
+    CompletableFuture<Boolean> deleteIfEquals(String key, byte[] expected);
+
+    CompletableFuture<Set<byte[]>> zRevRangeByScore(String key, double min, double max);
+
+    CompletableFuture<Set<byte[]>> zRevRangeByScore(String key, double min, double max, long offset, long count);
+
+    CompletableFuture<Set<byte[]>> zRangeByScore(String key, double min, double max);
+
+    CompletableFuture<Void> delete(List<String> keys);
+
+    CompletableFuture<Long> zRemoveRangeByScore(String key, double min, double max);
+
+    CompletableFuture<Long> increment(String key, Long delta);
+
+    CompletableFuture<Long> increment(String key, Long delta, long timeout, TimeUnit unit);
+
+    CompletableFuture<Long> listSize(String key);
+
+    CompletableFuture<Long> ttl(String key);
+}
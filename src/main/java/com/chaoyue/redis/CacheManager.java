@@ -1,6 +1,8 @@
 package com.chaoyue.redis;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 抽象的缓存管理接口
@@ -72,4 +74,22 @@ public interface CacheManager {
      */
     long del(String key) throws Exception;
 
+    /**
+     * 批量从缓存中读取 返回值与keys顺序一致 不存在的key对应null
+     */
+    List<Object> mGet(List<String> keys) throws Exception;
+
+    /**
+     * 批量从缓存中读取 到固定的对象 返回值与keys顺序一致 不存在的key对应null
+     */
+    <T> List<T> mGet(List<String> keys, Class<T> t) throws Exception;
+
+    /**
+     * 批量保存至缓存 object 序列化
+     *
+     * @param values  key-value
+     * @param timeout 单位秒 如果<=0 则永不过期
+     */
+    void mSet(Map<String, ? extends Serializable> values, long timeout) throws Exception;
+
 }
@@ -0,0 +1,140 @@
+package com.chaoyue.redis;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 value 头部选择编解码方式的 RedisSerializer
+ * 写入时使用 codec 编码，未设置 codec 时使用 JDK 序列化
+ * 读取时: 带头部的数据按格式编号交给对应的 ValueCodec，JDK 序列化的数据交给 JdkSerializationRedisSerializer，
+ * 其他数据(例如直接写入的 json 文本)原样返回 byte[]，整个过程不依赖异常判断格式
+ * 设置 compressThreshold 后，编码结果超过阈值的 value 会再压缩，读取时根据头部自动解压
+ */
+public class CodecRedisSerializer implements RedisSerializer<Object> {
+
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    private final ValueCodec[] decoders = new ValueCodec[256];
+
+    private ValueCodec codec;
+
+    private final DeflateCompressor compressor = new DeflateCompressor();
+
+    /**
+     * 压缩阈值 单位字节 <=0 表示不压缩
+     */
+    private int compressThreshold;
+
+    /**
+     * 设置写入使用的编码 同时用于读取
+     */
+    public void setCodec(ValueCodec codec) {
+        this.codec = codec;
+        addDecoder(codec);
+    }
+
+    /**
+     * 设置额外的解码器 用于读取以前使用其他编码写入的数据
+     */
+    public void setDecoders(List<ValueCodec> decoders) {
+        for (ValueCodec decoder : decoders) {
+            addDecoder(decoder);
+        }
+    }
+
+    public List<ValueCodec> getDecoders() {
+        List<ValueCodec> list = new ArrayList<>();
+        for (ValueCodec decoder : decoders) {
+            if (decoder != null) {
+                list.add(decoder);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @param compressThreshold 超过该大小(字节)的 value 压缩后保存 <=0 表示不压缩
+     */
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * @param maxDecompressedLength 解压后允许的最大长度(字节) 超过时按损坏的数据处理
+     */
+    public void setMaxDecompressedLength(int maxDecompressedLength) {
+        compressor.setMaxLength(maxDecompressedLength);
+    }
+
+    /**
+     * 压缩统计
+     */
+    public DeflateCompressor getCompressor() {
+        return compressor;
+    }
+
+    private void addDecoder(ValueCodec decoder) {
+        decoders[decoder.getFormat() & 0xFF] = decoder;
+    }
+
+    @Override
+    public byte[] serialize(Object object) throws SerializationException {
+        if (object == null) {
+            return EMPTY_ARRAY;
+        }
+        byte[] bytes;
+        if (codec == null) {
+            bytes = jdkSerializer.serialize(object);
+        } else {
+            try {
+                bytes = codec.encode(object);
+            } catch (RuntimeException e) {
+                throw new SerializationException("Cannot serialize " + object.getClass().getName(), e);
+            }
+        }
+        if (compressThreshold > 0 && bytes.length > compressThreshold) {
+            byte[] compressed = compressor.compress(bytes);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (DeflateCompressor.isCompressed(bytes)) {
+            try {
+                bytes = compressor.decompress(bytes);
+            } catch (RuntimeException e) {
+                throw new SerializationException("Cannot decompress value", e);
+            }
+        }
+        if (ValueHeader.hasHeader(bytes)) {
+            ValueCodec decoder = decoders[ValueHeader.format(bytes) & 0xFF];
+            if (decoder != null) {
+                try {
+                    return decoder.decode(bytes, ValueHeader.LENGTH);
+                } catch (RuntimeException e) {
+                    throw new SerializationException("Cannot deserialize format " + ValueHeader.format(bytes), e);
+                }
+            }
+        } else if (ValueHeader.isJdkSerialized(bytes)) {
+            return jdkSerializer.deserialize(bytes);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,239 @@
+package com.chaoyue.redis;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisNode;
+import org.springframework.data.redis.connection.RedisSentinelConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.util.Pool;
+
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池中的连接在创建时就已经 SELECT 到 database 的 JedisConnectionFactory
+ * 原生的 JedisConnectionFactory 在 database > 0 时每次借出连接都会 SELECT database，归还时再 SELECT 0
+ * 这里把 database 交给 JedisPool 在建立连接时选择一次，之后借出和归还都不再发送 SELECT
+ * 同时统计借出连接的等待时间，供 RedisPoolManager 调整连接池大小；借出时新建连接的耗时(connect、AUTH、SELECT)不计入等待
+ */
+public class DbBoundJedisConnectionFactory extends JedisConnectionFactory {
+
+    /**
+     * 当前线程借出连接时是否新建了连接 commons-pool 在借出的线程中新建连接
+     */
+    private static final ThreadLocal<boolean[]> CREATED = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private Pool<Jedis> boundPool;
+
+    private final LongAdder borrows = new LongAdder();
+
+    private final LongAdder borrowWaitNanos = new LongAdder();
+
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    public DbBoundJedisConnectionFactory() {
+        super();
+    }
+
+    public DbBoundJedisConnectionFactory(JedisPoolConfig poolConfig) {
+        super(poolConfig);
+    }
+
+    public DbBoundJedisConnectionFactory(RedisSentinelConfiguration sentinelConfig, JedisPoolConfig poolConfig) {
+        super(sentinelConfig, poolConfig);
+    }
+
+    /**
+     * 获取底层的连接池 未使用连接池时返回null
+     */
+    public Pool<Jedis> getPool() {
+        return boundPool;
+    }
+
+    @Override
+    protected Pool<Jedis> createRedisPool() {
+        boundPool = new BoundJedisPool(getPoolConfig(), getShardInfo().getHost(), getShardInfo().getPort(),
+                getTimeout(), getShardInfo().getPassword(), getDatabase(), null);
+        return boundPool;
+    }
+
+    @Override
+    protected Pool<Jedis> createRedisSentinelPool(RedisSentinelConfiguration config) {
+        Set<String> sentinels = new LinkedHashSet<>();
+        for (RedisNode node : config.getSentinels()) {
+            sentinels.add(node.asString());
+        }
+        boundPool = new BoundJedisSentinelPool(config.getMaster().getName(), sentinels,
+                getPoolConfig() != null ? getPoolConfig() : new JedisPoolConfig(), getTimeout(),
+                getShardInfo().getPassword(), getDatabase());
+        return boundPool;
+    }
+
+    @Override
+    public JedisConnection getConnection() {
+        if (boundPool == null) {
+            return super.getConnection();
+        }
+        boolean[] created = CREATED.get();
+        created[0] = false;
+        long start = System.nanoTime();
+        Jedis jedis;
+        try {
+            jedis = fetchJedisConnector();
+        } catch (RedisConnectionFailureException e) {
+            if (isExhausted(e)) {
+                exhausted.increment();
+            }
+            throw e;
+        }
+        long wait = System.nanoTime() - start;
+        borrows.increment();
+        // 新建连接说明没有等待空闲连接 耗时是建立连接而不是连接池不够
+        if (!created[0]) {
+            borrowWaitNanos.add(wait);
+            if (wait > maxBorrowWaitNanos.get()) {
+                maxBorrowWaitNanos.accumulateAndGet(wait, Math::max);
+            }
+        }
+        // 连接被其他人切换过 DB 时切回来
+        if (jedis.getDB() != getDatabase()) {
+            jedis.select(getDatabase());
+        }
+        // dbIndex 传 0 ，JedisConnection 就不会在借出和归还时 SELECT
+        JedisConnection connection = new JedisConnection(jedis, boundPool, 0);
+        connection.setConvertPipelineAndTxResults(getConvertPipelineAndTxResults());
+        return postProcessConnection(connection);
+    }
+
+    /**
+     * commons-pool 的连接池 可以在运行时调整大小；哨兵切换主节点后会换成新的实例
+     */
+    GenericObjectPool<Jedis> getInternalPool() {
+        if (boundPool instanceof BoundJedisPool) {
+            return ((BoundJedisPool) boundPool).internalPool();
+        }
+        if (boundPool instanceof BoundJedisSentinelPool) {
+            return ((BoundJedisSentinelPool) boundPool).internalPool();
+        }
+        return null;
+    }
+
+    /**
+     * 累计借出次数
+     */
+    long getBorrows() {
+        return borrows.sum();
+    }
+
+    /**
+     * 累计借出等待时间 不包括新建连接的借出 单位纳秒
+     */
+    long getBorrowWaitNanos() {
+        return borrowWaitNanos.sum();
+    }
+
+    /**
+     * 上次调用以来最长的借出等待时间 单位纳秒
+     */
+    long takeMaxBorrowWaitNanos() {
+        return maxBorrowWaitNanos.getAndSet(0);
+    }
+
+    /**
+     * 累计因连接池耗尽(等待超时)借不到连接的次数 不包括无法建立连接
+     */
+    long getExhausted() {
+        return exhausted.sum();
+    }
+
+    private static boolean isExhausted(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoSuchElementException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class BoundJedisPool extends JedisPool {
+        private BoundJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int timeout,
+                               String password, int database, String clientName) {
+            super(poolConfig, host, port, timeout, password, database, clientName);
+        }
+
+        @Override
+        public void initPool(GenericObjectPoolConfig poolConfig, PooledObjectFactory<Jedis> factory) {
+            super.initPool(poolConfig, new CreationTrackingFactory(factory));
+        }
+
+        private GenericObjectPool<Jedis> internalPool() {
+            return internalPool;
+        }
+    }
+
+    private static final class BoundJedisSentinelPool extends JedisSentinelPool {
+        private BoundJedisSentinelPool(String masterName, Set<String> sentinels, GenericObjectPoolConfig poolConfig,
+                                       int timeout, String password, int database) {
+            super(masterName, sentinels, poolConfig, timeout, password, database);
+        }
+
+        @Override
+        public void initPool(GenericObjectPoolConfig poolConfig, PooledObjectFactory<Jedis> factory) {
+            super.initPool(poolConfig, new CreationTrackingFactory(factory));
+        }
+
+        private GenericObjectPool<Jedis> internalPool() {
+            return internalPool;
+        }
+    }
+
+    /**
+     * 新建连接时标记当前线程 其余方法交给 JedisFactory
+     */
+    private static final class CreationTrackingFactory implements PooledObjectFactory<Jedis> {
+        private final PooledObjectFactory<Jedis> factory;
+
+        private CreationTrackingFactory(PooledObjectFactory<Jedis> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public PooledObject<Jedis> makeObject() throws Exception {
+            CREATED.get()[0] = true;
+            return factory.makeObject();
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Jedis> p) throws Exception {
+            factory.destroyObject(p);
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<Jedis> p) {
+            return factory.validateObject(p);
+        }
+
+        @Override
+        public void activateObject(PooledObject<Jedis> p) throws Exception {
+            factory.activateObject(p);
+        }
+
+        @Override
+        public void passivateObject(PooledObject<Jedis> p) throws Exception {
+            factory.passivateObject(p);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 RedisCacheManager 的异步实现
+ * 所有操作提交到有界的I/O线程池执行，队列满时不阻塞调用线程，直接返回以 RejectedExecutionException 结束的 future
+ * 线程数不宜超过连接池的 maxTotal，否则多出的线程只会等待借连接
+ */
+@Slf4j
+public class DefaultAsyncRedisCacheManager implements AsyncRedisCacheManager, InitializingBean, DisposableBean {
+
+    private RedisCacheManager redisCacheManager;
+
+    private ExecutorService executor;
+
+    private boolean ownExecutor;
+
+    private int threads = 8;
+
+    private int queueCapacity = 1024;
+
+    public void setRedisCacheManager(RedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    /**
+     * 使用外部的线程池 不设置时按 threads 和 queueCapacity 创建
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(redisCacheManager, "redisCacheManager is required");
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory("redis-async-"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            ownExecutor = true;
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (ownExecutor && executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("redis async executor did not terminate in 10 seconds");
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 在I/O线程池中执行
+     */
+    private <T> CompletableFuture<T> submit(final Callable<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String key, byte[] value, long timeout) {
+        return submit(() -> {
+            redisCacheManager.set(key, value, timeout);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String key, byte[] value) {
+        return submit(() -> {
+            redisCacheManager.set(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String key, Serializable object, long timeout) {
+        return submit(() -> {
+            redisCacheManager.set(key, object, timeout);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String key, Serializable object) {
+        return submit(() -> {
+            redisCacheManager.set(key, object);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String key, String value, long timeout) {
+        return submit(() -> {
+            redisCacheManager.set(key, value, timeout);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String key, String value) {
+        return submit(() -> {
+            redisCacheManager.set(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Object> get(String key) {
+        return submit(() -> redisCacheManager.get(key));
+    }
+
+    @Override
+    public CompletableFuture<String> getString(String key) {
+        return submit(() -> redisCacheManager.getString(key));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> get(String key, Class<T> t) {
+        return submit(() -> redisCacheManager.get(key, t));
+    }
+
+    @Override
+    public CompletableFuture<Long> del(String key) {
+        return submit(() -> redisCacheManager.del(key));
+    }
+
+    @Override
+    public CompletableFuture<List<Object>> mGet(List<String> keys) {
+        return submit(() -> redisCacheManager.mGet(keys));
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> mGet(List<String> keys, Class<T> t) {
+        return submit(() -> redisCacheManager.mGet(keys, t));
+    }
+
+    @Override
+    public CompletableFuture<Void> mSet(Map<String, ? extends Serializable> values, long timeout) {
+        return submit(() -> {
+            redisCacheManager.mSet(values, timeout);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> keys(String pattern) {
+        return submit(() -> redisCacheManager.keys(pattern));
+    }
+
+    @Override
+    public CompletableFuture<Void> scan(String pattern, int count, ScanCallback<List<String>> callback) {
+        return submit(() -> {
+            redisCacheManager.scan(pattern, count, callback);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hSet(String key, String fieldKey, Serializable value) {
+        return submit(() -> redisCacheManager.hSet(key, fieldKey, value));
+    }
+
+    @Override
+    public <T extends Serializable> CompletableFuture<Void> hMSet(String key, Map<String, T> fieldMap) {
+        return submit(() -> {
+            redisCacheManager.hMSet(key, fieldMap);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Object> hGet(String key, String fieldKey) {
+        return submit(() -> redisCacheManager.hGet(key, fieldKey));
+    }
+
+    @Override
+    public CompletableFuture<Long> hDel(String key, String... fieldKeys) {
+        return submit(() -> redisCacheManager.hDel(key, fieldKeys));
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<String, T>> hGetAll(String key, Class<T> clazz) {
+        return submit(() -> redisCacheManager.hGetAll(key, clazz));
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<String, T>> hMGet(String key, Class<T> clazz, String... fieldKeys) {
+        return submit(() -> redisCacheManager.hMGet(key, clazz, fieldKeys));
+    }
+
+    @Override
+    public <T> CompletableFuture<Void> hScan(String key, int count, Class<T> clazz,
+                                             ScanCallback<Map<String, T>> callback) {
+        return submit(() -> {
+            redisCacheManager.hScan(key, count, clazz, callback);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> leftPop(String key) {
+        return submit(() -> redisCacheManager.leftPop(key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> rightPush(String key, byte[] value) {
+        return submit(() -> redisCacheManager.rightPush(key, value));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> expire(String key, long timeout, TimeUnit unit) {
+        return submit(() -> redisCacheManager.expire(key, timeout, unit));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> expire(String key, long timeout) {
+        return submit(() -> redisCacheManager.expire(key, timeout));
+    }
+
+    @Override
+    public CompletableFuture<Long> publish(String channel, String msg) {
+        return submit(() -> redisCacheManager.publish(channel, msg));
+    }
+
+    @Override
+    public CompletableFuture<Long> zSize(String key) {
+        return submit(() -> redisCacheManager.zSize(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> zCount(String key, double min, double max) {
+        return submit(() -> redisCacheManager.zCount(key, min, max));
+    }
+
+    @Override
+    public CompletableFuture<Set<byte[]>> zRangeByScore(String key, double min, double max, long offset,
+                                                        long count) {
+        return submit(() -> redisCacheManager.zRangeByScore(key, min, max, offset, count));
+    }
+
+    @Override
+    public CompletableFuture<Long> zRemove(String key, byte[]... value) {
+        return submit(() -> redisCacheManager.zRemove(key, value));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> zAdd(String key, byte[] value, double score) {
+        return submit(() -> redisCacheManager.zAdd(key, value, score));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getSet(String key, byte[] values, long time, TimeUnit timeUnit) {
+        return submit(() -> redisCacheManager.getSet(key, values, time, timeUnit));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getSet(String key, byte[] values, long time) {
+        return submit(() -> redisCacheManager.getSet(key, values, time));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setIfAbsent(String key, byte[] value, long timeout, TimeUnit unit) {
+        return submit(() -> redisCacheManager.setIfAbsent(key, value, timeout, unit));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteIfEquals(String key, byte[] expected) {
+        return submit(() -> redisCacheManager.deleteIfEquals(key, expected));
+    }
+
+    @Override
+    public CompletableFuture<Set<byte[]>> zRevRangeByScore(String key, double min, double max) {
+        return submit(() -> redisCacheManager.zRevRangeByScore(key, min, max));
+    }
+
+    @Override
+    public CompletableFuture<Set<byte[]>> zRevRangeByScore(String key, double min, double max, long offset,
+                                                           long count) {
+        return submit(() -> redisCacheManager.zRevRangeByScore(key, min, max, offset, count));
+    }
+
+    @Override
+    public CompletableFuture<Set<byte[]>> zRangeByScore(String key, double min, double max) {
+        return submit(() -> redisCacheManager.zRangeByScore(key, min, max));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(List<String> keys) {
+        return submit(() -> {
+            redisCacheManager.delete(keys);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> zRemoveRangeByScore(String key, double min, double max) {
+        return submit(() -> redisCacheManager.zRemoveRangeByScore(key, min, max));
+    }
+
+    @Override
+    public CompletableFuture<Long> increment(String key, Long delta) {
+        return submit(() -> redisCacheManager.increment(key, delta));
+    }
+
+    @Override
+    public CompletableFuture<Long> increment(String key, Long delta, long timeout, TimeUnit unit) {
+        return submit(() -> redisCacheManager.increment(key, delta, timeout, unit));
+    }
+
+    @Override
+    public CompletableFuture<Long> listSize(String key) {
+        return submit(() -> redisCacheManager.listSize(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> ttl(String key) {
+        return submit(() -> redisCacheManager.ttl(key));
+    }
+
+    /**
+     * 带名称前缀的守护线程
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -3,17 +3,28 @@ package com.chaoyue.redis;
 import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.DefaultTuple;
 import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands;
 import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisConnectionUtils;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.TimeoutUtils;
 import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
-import redis.clients.jedis.BinaryClient;
+import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -25,6 +36,22 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class DefaultRedisCacheManager implements RedisCacheManager {
 
+    /**
+     * keys 遍历时每批 SCAN 的数量
+     */
+    private static final int DEFAULT_SCAN_COUNT = 1000;
+
+    /**
+     * 耗时取决于数据量或阻塞时间的操作 熔断器不按耗时判断
+     */
+    private static final Set<String> UNTIMED_OPERATIONS = new HashSet<>(Arrays.asList(
+            "scan", "hScan", "pipeline", "blockingLeftPop", "blockingRightPopLeftPush"));
+
+    /**
+     * 判断 key 的 serializer 是否为 UTF-8 编码
+     */
+    private static final String UTF8_PROBE = "k\u00e9\u4e2d\ud83d\ude00";
+
     private RedisTemplate<String, Serializable> redisTemplate;
 
     private RedisSerializer<Object> defRedisSerializer;
@@ -33,6 +60,39 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     private RedisCache redisCache;
 
+    private NearCache nearCache;
+
+    private RedisWriteBehindBuffer writeBehindBuffer;
+
+    private long loadLockTimeout;
+
+    private RedisMetricsSink metricsSink;
+
+    private HotKeyDetector hotKeyDetector;
+
+    private ReplicaReadRouter replicaReadRouter;
+
+    private RedisCircuitBreaker circuitBreaker;
+
+    private RedisCircuitBreaker replicaCircuitBreaker;
+
+    /**
+     * 单个命令等待响应的超时时间 单位毫秒 <=0 时使用连接工厂的 timeout
+     */
+    private int operationTimeout;
+
+    private Map<String, Integer> operationTimeouts = Collections.emptyMap();
+
+    /**
+     * 已确认编码为 UTF-8 的 key serializer
+     */
+    private volatile RedisSerializer<String> utf8KeySerializer;
+
+    /**
+     * 已确认编码不是 UTF-8 的 key serializer
+     */
+    private volatile RedisSerializer<String> checkedKeySerializer;
+
     /**
      * 设置 redisTemplate
      */
@@ -50,11 +110,12 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     /**
      * 获取DefaultSerializer
      *
-     * @return JdkSerializationRedisSerializer
+     * @return 未设置时返回 RedisTemplate 默认的 JdkSerializationRedisSerializer
      */
+    @SuppressWarnings("unchecked")
     public RedisSerializer<Object> getDefRedisSerializer() {
         if (defRedisSerializer == null) {
-            return (JdkSerializationRedisSerializer) redisTemplate.getDefaultSerializer();
+            return (RedisSerializer<Object>) redisTemplate.getDefaultSerializer();
         }
         return defRedisSerializer;
     }
@@ -68,6 +129,88 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
         return redisTemplate.getStringSerializer();
     }
 
+    /**
+     * 设置 RedisCache 使用的本地缓存 不设置则不启用
+     */
+    public void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * 设置 RedisCache 使用的写缓冲 不设置则同步写入
+     */
+    public void setWriteBehindBuffer(RedisWriteBehindBuffer writeBehindBuffer) {
+        this.writeBehindBuffer = writeBehindBuffer;
+    }
+
+    /**
+     * 设置 RedisCache 加载数据时分布式锁的超时时间 单位毫秒 <=0 表示不使用分布式锁
+     */
+    public void setLoadLockTimeout(long loadLockTimeout) {
+        this.loadLockTimeout = loadLockTimeout;
+    }
+
+    /**
+     * 设置指标接收者 为空时不记录指标
+     */
+    public void setMetricsSink(RedisMetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
+    }
+
+    public RedisMetricsSink getMetricsSink() {
+        return metricsSink;
+    }
+
+    /**
+     * 设置热点 key 探测 get 和 getString 的读取会被抽样统计 不设置则不启用
+     */
+    public void setHotKeyDetector(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    public HotKeyDetector getHotKeyDetector() {
+        return hotKeyDetector;
+    }
+
+    /**
+     * 设置从节点的读路由 不设置则读写都发送到主节点
+     */
+    public void setReplicaReadRouter(ReplicaReadRouter replicaReadRouter) {
+        this.replicaReadRouter = replicaReadRouter;
+    }
+
+    /**
+     * 设置熔断器 不设置则不熔断
+     */
+    public void setCircuitBreaker(RedisCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public RedisCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * 设置从节点读的熔断器 打开期间读操作直接发送到主节点 不设置则不熔断
+     */
+    public void setReplicaCircuitBreaker(RedisCircuitBreaker replicaCircuitBreaker) {
+        this.replicaCircuitBreaker = replicaCircuitBreaker;
+    }
+
+    /**
+     * @param operationTimeout 单位毫秒 只限制等待响应的时间，建立连接的超时仍为连接工厂的 timeout
+     */
+    public void setOperationTimeout(int operationTimeout) {
+        this.operationTimeout = operationTimeout;
+    }
+
+    /**
+     * 按操作名单独设置超时时间 单位毫秒 如 pipeline、eval:delayClaim
+     */
+    public void setOperationTimeouts(Map<String, Integer> operationTimeouts) {
+        this.operationTimeouts = operationTimeouts == null ? Collections.<String, Integer>emptyMap() : operationTimeouts;
+    }
+
     public int getDbIndex() {
         return dbIndex;
     }
@@ -77,24 +220,45 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     }
 
     public Set<String> keys(final String pattern) throws Exception {
-        return execute(new RedisCallback<Set<String>>() {
+        final Set<String> keySet = new HashSet<String>();
+        scan(pattern, DEFAULT_SCAN_COUNT, new ScanCallback<List<String>>() {
             @Override
-            public Set<String> doInRedis(RedisConnection connection) throws DataAccessException {
-                selectDb(connection);
-                byte[] patternBytes = getStringSerializer().serialize(pattern);
-                Set<byte[]> keysBytes = connection.keys(patternBytes);
-
-                if (keysBytes == null) {
-                    return Collections.emptySet();
-                }
-                Set<String> keySet = new HashSet<String>(keysBytes.size());
-                for (byte[] bytes : keysBytes) {
-                    keySet.add(getStringSerializer().deserialize(bytes));
-                }
-                return keySet;
+            public boolean doInScan(List<String> batch) {
+                keySet.addAll(batch);
+                return true;
             }
         });
+        return keySet;
+    }
 
+    @Override
+    public void scan(final String pattern, final int count, final ScanCallback<List<String>> callback)
+            throws Exception {
+        Assert.isTrue(count > 0, "count must be positive");
+        execute("scan", new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                BinaryJedis jedis = nativeJedis(connection);
+                ScanParams params = scanParams(pattern, count);
+                byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+                do {
+                    ScanResult<byte[]> result = jedis.scan(cursor, params);
+                    cursor = result.getCursorAsBytes();
+                    List<byte[]> keysBytes = result.getResult();
+                    if (keysBytes != null && !keysBytes.isEmpty()) {
+                        List<String> batch = new ArrayList<>(keysBytes.size());
+                        for (byte[] bytes : keysBytes) {
+                            batch.add(getStringSerializer().deserialize(bytes));
+                        }
+                        if (!callback.doInScan(batch)) {
+                            return null;
+                        }
+                    }
+                } while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+                return null;
+            }
+        });
     }
 
     /**
@@ -103,35 +267,14 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
      * @param timeout 单位秒
      */
     public void set(final String key, final byte[] value, final long timeout) throws Exception {
-        if (value != null) {
-            execute(new RedisCallback<Object>() {
-                @Override
-                public Object doInRedis(RedisConnection connection) throws DataAccessException {
-                    selectDb(connection);
-                    byte[] keyBytes = getStringSerializer().serialize(key);
-                    connection.setEx(keyBytes, timeout, value);
-                    return null;
-                }
-
-            });
-        }
+        setBytes(KeyEncoder.UTF8, key, value, timeout, true);
     }
 
     /**
      * 保存至缓存
      */
     public void set(final String key, final byte[] value) throws Exception {
-        if (value != null) {
-            execute(new RedisCallback<Object>() {
-                @Override
-                public Object doInRedis(RedisConnection connection) throws DataAccessException {
-                    selectDb(connection);
-                    byte[] bytes = getStringSerializer().serialize(key);
-                    connection.set(bytes, value);
-                    return null;
-                }
-            });
-        }
+        setBytes(KeyEncoder.UTF8, key, value, 0, false);
     }
 
     public void set(final String key, final Serializable object, final long timeout)
@@ -143,49 +286,215 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
         this.set(key, getDefRedisSerializer().serialize(object));
     }
 
+    /**
+     * 保存至缓存 key 为 prefix 的前缀加 key，由 prefix 直接编码，不拼接字符串
+     *
+     * @param timeout 单位秒 <=0 不过期
+     */
+    void set(KeyEncoder prefix, String key, Serializable object, long timeout) throws Exception {
+        setBytes(prefix, key, getDefRedisSerializer().serialize(object), timeout, timeout > 0);
+    }
+
+    /**
+     * @param timeout 单位秒 <=0 不过期
+     */
+    void set(KeyEncoder prefix, String key, String value, long timeout) throws Exception {
+        if (value != null) {
+            setBytes(prefix, key, getStringSerializer().serialize(value), timeout, timeout > 0);
+        }
+    }
+
+    private void setBytes(final KeyEncoder prefix, final String key, final byte[] value, final long timeout,
+                          final boolean expire) throws Exception {
+        if (value != null) {
+            final byte[] keyBytes = rawKey(prefix, key);
+            evictHotKey(keyBytes);
+            execute("set", new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    selectDb(connection);
+                    if (expire) {
+                        connection.setEx(keyBytes, timeout, value);
+                    } else {
+                        connection.set(keyBytes, value);
+                    }
+                    recordBytes("set", keyBytes.length + value.length, 0);
+                    return null;
+                }
+            });
+        }
+    }
+
     /**
      * 从缓存中读取
      */
     public Object get(final String key) throws Exception {
-        return execute(new RedisCallback<Object>() {
+        return get(KeyEncoder.UTF8, key);
+    }
+
+    public <T> T get(final String key, Class<T> t) throws Exception {
+        return convertValue(this.get(key), t);
+    }
+
+    <T> T get(KeyEncoder prefix, String key, Class<T> t) throws Exception {
+        return convertValue(get(prefix, key), t);
+    }
+
+    private Object get(final KeyEncoder prefix, final String key) throws Exception {
+        final byte[] keyBytes = rawKey(prefix, key);
+        if (hotKeyDetector != null) {
+            hotKeyDetector.record(keyBytes);
+            Object local = hotKeyDetector.getLocal(keyBytes, false);
+            if (local != null) {
+                return local;
+            }
+        }
+        Object value = read("get", new RedisCallback<Object>() {
             @Override
             public Object doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
                 byte[] valueBytes = connection.get(keyBytes);
-                Object o = null;
-                if (valueBytes != null) {
-                    try {
-                        o = getDefRedisSerializer().deserialize(valueBytes);
-                    } catch (Exception e) {
-                        // LOGGER.warn("不能反序列化，取原byte数组 key:" + key);
-                        o = valueBytes;
-                    }
+                recordBytes("get", keyBytes.length, valueBytes == null ? 0 : valueBytes.length);
+                return deserializeValue(getDefRedisSerializer(), valueBytes);
+            }
+        });
+        if (hotKeyDetector != null) {
+            hotKeyDetector.promote(keyBytes, value, false);
+        }
+        return value;
+    }
+
+    @Override
+    public List<Object> mGet(final List<String> keys) throws Exception {
+        if (CollectionUtils.isEmpty(keys)) {
+            return Collections.emptyList();
+        }
+        final byte[][] rawKeys = rawKeys(keys);
+        return read("mGet", new RedisCallback<List<Object>>() {
+            @Override
+            public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                List<byte[]> valuesBytes = connection.mGet(rawKeys);
+                List<Object> values = new ArrayList<>(rawKeys.length);
+                long requestBytes = 0;
+                long responseBytes = 0;
+                for (int i = 0; i < rawKeys.length; i++) {
+                    byte[] valueBytes = valuesBytes == null ? null : valuesBytes.get(i);
+                    requestBytes += rawKeys[i].length;
+                    responseBytes += valueBytes == null ? 0 : valueBytes.length;
+                    values.add(deserializeValue(getDefRedisSerializer(), valueBytes));
                 }
-                return o;
+                recordBytes("mGet", requestBytes, responseBytes);
+                return values;
             }
         });
     }
 
-    @SuppressWarnings("unchecked")
-    public <T> T get(final String key, Class<T> t) throws Exception {
-        Object object = this.get(key);
-        if (object instanceof byte[]) {
-            return JSON.parseObject(new String((byte[]) object), t);
+    @Override
+    public <T> List<T> mGet(List<String> keys, Class<T> t) throws Exception {
+        List<Object> objects = this.mGet(keys);
+        List<T> values = new ArrayList<>(objects.size());
+        for (Object object : objects) {
+            values.add(convertValue(object, t));
+        }
+        return values;
+    }
+
+    /**
+     * 批量保存至缓存 没有过期时间时使用 MSET，有过期时间时通过管道批量发送 SETEX
+     *
+     * @param timeout 单位秒 如果<=0 则永不过期
+     */
+    @Override
+    public void mSet(final Map<String, ? extends Serializable> values, final long timeout) throws Exception {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        final Map<byte[], byte[]> rawValues = new LinkedHashMap<>(values.size());
+        for (Map.Entry<String, ? extends Serializable> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                byte[] keyBytes = rawKey(entry.getKey());
+                evictHotKey(keyBytes);
+                rawValues.put(keyBytes, getDefRedisSerializer().serialize(entry.getValue()));
+            }
+        }
+        if (rawValues.isEmpty()) {
+            return;
+        }
+        long requestBytes = 0;
+        for (Map.Entry<byte[], byte[]> entry : rawValues.entrySet()) {
+            requestBytes += entry.getKey().length + entry.getValue().length;
+        }
+        recordBytes("mSet", requestBytes, 0);
+        if (timeout > 0) {
+            executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (Map.Entry<byte[], byte[]> entry : rawValues.entrySet()) {
+                        connection.setEx(entry.getKey(), timeout, entry.getValue());
+                    }
+                    return null;
+                }
+            });
         } else {
-            return (T) object;
+            execute("mSet", new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    selectDb(connection);
+                    connection.mSet(rawValues);
+                    return null;
+                }
+            });
         }
     }
 
+    /**
+     * 在同一个连接上以管道方式执行 action 中的所有命令，只需要一次网络往返
+     * action 中的命令返回值在管道中均为null，实际结果按命令顺序在返回的 List 中
+     *
+     * @param action 批量执行的命令 返回值必须为null
+     * @return 每条命令的执行结果
+     */
+    public List<Object> executePipelined(final RedisCallback<?> action) throws Exception {
+        return execute("pipeline", new RedisCallback<List<Object>>() {
+            @Override
+            public List<Object> doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                connection.openPipeline();
+                boolean pipelineClosed = false;
+                try {
+                    Object result = action.doInRedis(connection);
+                    if (result != null) {
+                        throw new InvalidDataAccessApiUsageException(
+                                "Callback cannot return a non-null value as it gets overwritten by the pipeline");
+                    }
+                    List<Object> results = connection.closePipeline();
+                    pipelineClosed = true;
+                    return results;
+                } finally {
+                    if (!pipelineClosed) {
+                        connection.closePipeline();
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * 从缓存中移除
      */
     public long del(final String key) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return del(KeyEncoder.UTF8, key);
+    }
+
+    long del(final KeyEncoder prefix, final String key) throws Exception {
+        final byte[] keyBytes = rawKey(prefix, key);
+        evictHotKey(keyBytes);
+        return execute("del", new RedisCallback<Long>() {
             @Override
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                return connection.del(getStringSerializer().serialize(key));
+                return connection.del(keyBytes);
             }
         });
     }
@@ -194,12 +503,15 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     public boolean hSet(final String key, final String fieldKey, final Serializable value)
             throws Exception {
         if (value != null) {
-            return execute(new RedisCallback<Boolean>() {
+            return execute("hSet", new RedisCallback<Boolean>() {
                 @Override
                 public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
                     selectDb(connection);
-                    return connection.hSet(getStringSerializer().serialize(key),
-                            getStringSerializer().serialize(fieldKey), getDefRedisSerializer().serialize(value));
+                    byte[] keyBytes = rawKey(key);
+                    byte[] fieldBytes = rawKey(fieldKey);
+                    byte[] valueBytes = getDefRedisSerializer().serialize(value);
+                    recordBytes("hSet", keyBytes.length + fieldBytes.length + valueBytes.length, 0);
+                    return connection.hSet(keyBytes, fieldBytes, valueBytes);
                 }
             });
         }
@@ -210,17 +522,17 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     public <T extends Serializable> void hMSet(final String key, final Map<String, T> fieldMap)
             throws Exception {
         if (fieldMap != null && !fieldMap.isEmpty()) {
-            execute(new RedisCallback<Object>() {
+            execute("hMSet", new RedisCallback<Object>() {
                 @Override
                 public Object doInRedis(RedisConnection connection) throws DataAccessException {
                     selectDb(connection);
                     Map<byte[], byte[]> cacheValue = new HashMap<>(fieldMap.size());
                     for (String fk : fieldMap.keySet()) {
-                        byte[] bk = getStringSerializer().serialize(fk);
+                        byte[] bk = rawKey(fk);
                         byte[] bv = getDefRedisSerializer().serialize(fieldMap.get(fk));
                         cacheValue.put(bk, bv);
                     }
-                    connection.hMSet(getStringSerializer().serialize(key), cacheValue);
+                    connection.hMSet(rawKey(key), cacheValue);
                     return null;
                 }
             });
@@ -229,12 +541,14 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public Object hGet(final String key, final String fieldKey) throws Exception {
-        return execute(new RedisCallback<Object>() {
+        return read("hGet", new RedisCallback<Object>() {
             @Override
             public Object doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] valueBytes = connection.hGet(getStringSerializer().serialize(key),
-                        getStringSerializer().serialize(fieldKey));
+                byte[] keyBytes = rawKey(key);
+                byte[] fieldBytes = rawKey(fieldKey);
+                byte[] valueBytes = connection.hGet(keyBytes, fieldBytes);
+                recordBytes("hGet", keyBytes.length + fieldBytes.length, valueBytes == null ? 0 : valueBytes.length);
                 if (valueBytes != null && valueBytes.length > 0) {
                     return getDefRedisSerializer().deserialize(valueBytes);
                 }
@@ -246,15 +560,15 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public long hDel(final String key, final String... fieldKeys) throws Exception {
         if (fieldKeys != null && fieldKeys.length > 0) {
-            return execute(new RedisCallback<Long>() {
+            return execute("hDel", new RedisCallback<Long>() {
                 @Override
                 public Long doInRedis(RedisConnection connection) throws DataAccessException {
                     selectDb(connection);
                     byte[][] fieldkeyBytes = new byte[fieldKeys.length][];
                     for (int i = 0; i < fieldKeys.length; i++) {
-                        fieldkeyBytes[i] = getStringSerializer().serialize(fieldKeys[i]);
+                        fieldkeyBytes[i] = rawKey(fieldKeys[i]);
                     }
-                    return connection.hDel(getStringSerializer().serialize(key), fieldkeyBytes);
+                    return connection.hDel(rawKey(key), fieldkeyBytes);
                 }
             });
         }
@@ -263,19 +577,23 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public <T> Map<String, T> hGetAll(final String key, Class<T> clazz) throws Exception {
-        return execute(new RedisCallback<Map<String, T>>() {
+        return read("hGetAll", new RedisCallback<Map<String, T>>() {
             @Override
             public Map<String, T> doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                Map<byte[], byte[]> byteMap = connection.hGetAll(getStringSerializer().serialize(key));
+                byte[] keyBytes = rawKey(key);
+                Map<byte[], byte[]> byteMap = connection.hGetAll(keyBytes);
                 if (byteMap != null && !byteMap.isEmpty()) {
                     Map<String, T> valueMap = new HashMap<>();
-                    for (byte[] bk : byteMap.keySet()) {
-                        String vk = getStringSerializer().deserialize(bk);
+                    long responseBytes = 0;
+                    for (Map.Entry<byte[], byte[]> entry : byteMap.entrySet()) {
+                        responseBytes += entry.getKey().length + entry.getValue().length;
+                        String vk = getStringSerializer().deserialize(entry.getKey());
                         @SuppressWarnings("unchecked")
-                        T vv = (T) getDefRedisSerializer().deserialize(byteMap.get(bk));
+                        T vv = (T) getDefRedisSerializer().deserialize(entry.getValue());
                         valueMap.put(vk, vv);
                     }
+                    recordBytes("hGetAll", keyBytes.length, responseBytes);
                     return valueMap;
                 }
                 return Collections.emptyMap();
@@ -283,12 +601,83 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
         });
     }
 
+    @Override
+    public <T> Map<String, T> hMGet(final String key, Class<T> clazz, final String... fieldKeys) throws Exception {
+        if (fieldKeys == null || fieldKeys.length == 0) {
+            return Collections.emptyMap();
+        }
+        return read("hMGet", new RedisCallback<Map<String, T>>() {
+            @Override
+            public Map<String, T> doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                byte[] keyBytes = rawKey(key);
+                byte[][] fieldsBytes = new byte[fieldKeys.length][];
+                long requestBytes = keyBytes.length;
+                for (int i = 0; i < fieldKeys.length; i++) {
+                    fieldsBytes[i] = rawKey(fieldKeys[i]);
+                    requestBytes += fieldsBytes[i].length;
+                }
+                List<byte[]> values = connection.hMGet(keyBytes, fieldsBytes);
+                Map<String, T> valueMap = new LinkedHashMap<>();
+                long responseBytes = 0;
+                for (int i = 0; values != null && i < values.size(); i++) {
+                    byte[] valueBytes = values.get(i);
+                    if (valueBytes != null && valueBytes.length > 0) {
+                        responseBytes += valueBytes.length;
+                        @SuppressWarnings("unchecked")
+                        T vv = (T) getDefRedisSerializer().deserialize(valueBytes);
+                        valueMap.put(fieldKeys[i], vv);
+                    }
+                }
+                recordBytes("hMGet", requestBytes, responseBytes);
+                return valueMap;
+            }
+        });
+    }
+
+    @Override
+    public <T> void hScan(final String key, final int count, Class<T> clazz,
+                          final ScanCallback<Map<String, T>> callback) throws Exception {
+        Assert.isTrue(count > 0, "count must be positive");
+        // 不经过从节点读路由 对冲读或失败后重读主节点都会把已回调的批次再回调一次
+        execute("hScan", new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                BinaryJedis jedis = nativeJedis(connection);
+                byte[] keyBytes = rawKey(key);
+                ScanParams params = scanParams(null, count);
+                byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+                do {
+                    ScanResult<Map.Entry<byte[], byte[]>> result = jedis.hscan(keyBytes, cursor, params);
+                    cursor = result.getCursorAsBytes();
+                    List<Map.Entry<byte[], byte[]>> entries = result.getResult();
+                    if (entries != null && !entries.isEmpty()) {
+                        Map<String, T> batch = new LinkedHashMap<>(entries.size() * 2);
+                        long responseBytes = 0;
+                        for (Map.Entry<byte[], byte[]> entry : entries) {
+                            responseBytes += entry.getKey().length + entry.getValue().length;
+                            @SuppressWarnings("unchecked")
+                            T vv = (T) getDefRedisSerializer().deserialize(entry.getValue());
+                            batch.put(getStringSerializer().deserialize(entry.getKey()), vv);
+                        }
+                        recordBytes("hScan", keyBytes.length, responseBytes);
+                        if (!callback.doInScan(batch)) {
+                            return null;
+                        }
+                    }
+                } while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+                return null;
+            }
+        });
+    }
+
     @Override
     public byte[] leftPop(final String key) throws Exception {
-        return execute(new RedisCallback<byte[]>() {
+        return execute("leftPop", new RedisCallback<byte[]>() {
             public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.lPop(keyBytes);
             }
         });
@@ -296,10 +685,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public boolean rightPush(final String key, final byte[] value) throws Exception {
-        execute(new RedisCallback<Long>() {
+        execute("rightPush", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.rPush(keyBytes, value);
             }
         });
@@ -307,13 +696,93 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     }
 
+    /**
+     * 一次 RPUSH 写入多个元素
+     *
+     * @return 写入后列表的长度
+     */
+    public long rightPushAll(final String key, final List<byte[]> values) throws Exception {
+        if (CollectionUtils.isEmpty(values)) {
+            return listSize(key);
+        }
+        return execute("rightPushAll", new RedisCallback<Long>() {
+            public Long doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                return connection.rPush(rawKey(key), values.toArray(new byte[values.size()][]));
+            }
+        });
+    }
+
+    /**
+     * 一次 LPUSH 写入多个元素 最后一个元素在列表头部
+     *
+     * @return 写入后列表的长度
+     */
+    public long leftPushAll(final String key, final List<byte[]> values) throws Exception {
+        if (CollectionUtils.isEmpty(values)) {
+            return listSize(key);
+        }
+        return execute("leftPushAll", new RedisCallback<Long>() {
+            public Long doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                return connection.lPush(rawKey(key), values.toArray(new byte[values.size()][]));
+            }
+        });
+    }
+
+    /**
+     * 从列表头部原子取出最多 count 个元素 一次网络往返
+     *
+     * @return 列表为空时返回空列表
+     */
+    public List<byte[]> leftPop(String key, int count) throws Exception {
+        Assert.isTrue(count > 0, "count must be positive");
+        List<byte[]> values = eval(LuaScripts.LIST_POP_BATCH, Collections.singletonList(key), count);
+        return values == null ? new ArrayList<byte[]>() : values;
+    }
+
+    /**
+     * BLPOP 列表为空时阻塞等待
+     * 等待期间占用一个连接，连接池的 maxTotal 需要大于同时阻塞的消费者数量
+     *
+     * @param timeout 单位秒 0 表示一直等待
+     * @return 超时返回null
+     */
+    public byte[] blockingLeftPop(final String key, final int timeout) throws Exception {
+        return execute("blockingLeftPop", new RedisCallback<byte[]>() {
+            public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                // 返回值为 [key, value]
+                List<byte[]> result = connection.bLPop(timeout, rawKey(key));
+                return CollectionUtils.isEmpty(result) ? null : result.get(1);
+            }
+        });
+    }
+
+    /**
+     * BRPOPLPUSH 从 source 尾部取出放入 destination 头部 source 为空时阻塞等待
+     * 等待期间占用一个连接，连接池的 maxTotal 需要大于同时阻塞的消费者数量
+     *
+     * @param timeout 单位秒 0 表示一直等待
+     * @return 超时返回null
+     */
+    public byte[] blockingRightPopLeftPush(final String source, final String destination, final int timeout)
+            throws Exception {
+        return execute("blockingRightPopLeftPush", new RedisCallback<byte[]>() {
+            public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                return connection.bRPopLPush(timeout, rawKey(source), rawKey(destination));
+            }
+        });
+    }
+
     @Override
     public boolean expire(final String key, long timeout, TimeUnit unit) throws Exception {
         final long rawTimeout = TimeoutUtils.toSeconds(timeout, unit);
-        return execute(new RedisCallback<Boolean>() {
+        return execute("expire", new RedisCallback<Boolean>() {
             public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] bytes = getStringSerializer().serialize(key);
+                byte[] bytes = rawKey(key);
                 return connection.expire(bytes, rawTimeout);
             }
         });
@@ -321,13 +790,13 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public long publish(final String channel, final String msg) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return execute("publish", new RedisCallback<Long>() {
             @Override
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
                 long ret = 0;
                 try {
-                    ret = connection.publish(getStringSerializer().serialize(channel),
+                    ret = connection.publish(rawKey(channel),
                             getStringSerializer().serialize(msg));
                 } catch (Exception ignored) {
                 }
@@ -339,10 +808,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public long zSize(final String key) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return read("zSize", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zCard(keyBytes);
             }
         });
@@ -350,10 +819,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public long zCount(final String key, final double min, final double max) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return read("zCount", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                return connection.zCount(getStringSerializer().serialize(key), min, max);
+                return connection.zCount(rawKey(key), min, max);
             }
         });
     }
@@ -361,10 +830,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public Set<byte[]> zRangeByScore(final String key, final double min, final double max,
                                      final long offset, final long count) throws Exception {
-        return execute(new RedisCallback<Set<byte[]>>() {
+        return read("zRangeByScore", new RedisCallback<Set<byte[]>>() {
             public Set<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zRangeByScore(keyBytes, min, max, offset, count);
             }
         });
@@ -372,21 +841,43 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
     @Override
     public long zRemove(final String key, final byte[]... value) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return execute("zRemove", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zRem(keyBytes, value);
             }
         }, true);
     }
 
+    /**
+     * 一次 ZADD 写入多个成员
+     *
+     * @param values 成员和分数
+     * @return 新增的成员数
+     */
+    public long zAddAll(final String key, final Map<byte[], Double> values) throws Exception {
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        final Set<RedisZSetCommands.Tuple> tuples = new LinkedHashSet<>(values.size());
+        for (Map.Entry<byte[], Double> entry : values.entrySet()) {
+            tuples.add(new DefaultTuple(entry.getKey(), entry.getValue()));
+        }
+        return execute("zAddAll", new RedisCallback<Long>() {
+            public Long doInRedis(RedisConnection connection) {
+                selectDb(connection);
+                return connection.zAdd(rawKey(key), tuples);
+            }
+        }, true);
+    }
+
     @Override
     public boolean zAdd(final String key, final byte[] value, final double score) throws Exception {
-        return execute(new RedisCallback<Boolean>() {
+        return execute("zAdd", new RedisCallback<Boolean>() {
             public Boolean doInRedis(RedisConnection connection) {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zAdd(keyBytes, score, value);
             }
         }, true);
@@ -396,15 +887,17 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     public byte[] getSet(final String key, final byte[] values, long time, TimeUnit timeUnit)
             throws Exception {
         final long rawTimeout = TimeoutUtils.toSeconds(time, timeUnit);
-        return execute(new RedisCallback<byte[]>() {
+        if (rawTimeout > 0) {
+            return eval(LuaScripts.GET_SET_EXPIRE, Collections.singletonList(key), values, rawTimeout);
+        }
+        final byte[] keyBytes = rawKey(key);
+        evictHotKey(keyBytes);
+        return execute("getSet", new RedisCallback<byte[]>() {
             public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
-                byte[] returnValue = connection.getSet(keyBytes, values);
-                if (rawTimeout > 0) {
-                    connection.expire(keyBytes, rawTimeout);
-                }
-                return returnValue;
+                byte[] oldValue = connection.getSet(keyBytes, values);
+                recordBytes("getSet", keyBytes.length + (values == null ? 0 : values.length), oldValue == null ? 0 : oldValue.length);
+                return oldValue;
             }
         });
     }
@@ -412,10 +905,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public Set<byte[]> zRevRangeByScore(final String key, final double min, final double max)
             throws Exception {
-        return execute(new RedisCallback<Set<byte[]>>() {
+        return read("zRevRangeByScore", new RedisCallback<Set<byte[]>>() {
             public Set<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zRevRangeByScore(keyBytes, min, max);
             }
         });
@@ -424,10 +917,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public Set<byte[]> zRevRangeByScore(final String key, final double min, final double max,
                                         final long offset, final long count) throws Exception {
-        return execute(new RedisCallback<Set<byte[]>>() {
+        return read("zRevRangeByScore", new RedisCallback<Set<byte[]>>() {
             public Set<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zRevRangeByScore(keyBytes, min, max, offset, count);
             }
         });
@@ -436,10 +929,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public Set<byte[]> zRangeByScore(final String key, final double min, final double max)
             throws Exception {
-        return execute(new RedisCallback<Set<byte[]>>() {
+        return read("zRangeByScore", new RedisCallback<Set<byte[]>>() {
             public Set<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zRangeByScore(keyBytes, min, max);
             }
         });
@@ -451,7 +944,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
             return;
         }
         final byte[][] rawKeys = rawKeys(keys);
-        execute(new RedisCallback<Object>() {
+        for (byte[] rawKey : rawKeys) {
+            evictHotKey(rawKey);
+        }
+        execute("delete", new RedisCallback<Object>() {
 
             public Object doInRedis(RedisConnection connection) {
                 selectDb(connection);
@@ -465,10 +961,10 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public long zRemoveRangeByScore(final String key, final double min, final double max)
             throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return execute("zRemoveRangeByScore", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.zRemRangeByScore(keyBytes, min, max);
             }
         });
@@ -477,7 +973,8 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public long increment(final String key, final Long delta) throws Exception {
         final byte[] rawKey = rawKey(key);
-        return execute(new RedisCallback<Long>() {
+        evictHotKey(rawKey);
+        return execute("increment", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) {
                 selectDb(connection);
                 return connection.incrBy(rawKey, delta);
@@ -485,12 +982,146 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
         }, true);
     }
 
+    @Override
+    public long increment(String key, Long delta, long timeout, TimeUnit unit) throws Exception {
+        Long count = eval(LuaScripts.INCR_BY_PEXPIRE, Collections.singletonList(key), delta,
+                TimeoutUtils.toMillis(timeout, unit));
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, byte[] value, long timeout, TimeUnit unit) throws Exception {
+        Long result = eval(LuaScripts.SET_NX_PX, Collections.singletonList(key), value,
+                TimeoutUtils.toMillis(timeout, unit));
+        return result != null && result == 1;
+    }
+
+    @Override
+    public boolean deleteIfEquals(String key, byte[] expected) throws Exception {
+        Long result = eval(LuaScripts.COMPARE_AND_DELETE, Collections.singletonList(key), expected);
+        return result != null && result > 0;
+    }
+
+    /**
+     * 在服务端原子执行 Lua 脚本
+     * 优先使用 EVALSHA 只发送脚本的SHA1，服务端没有缓存该脚本时退回 EVAL
+     *
+     * @param script 脚本
+     * @param keys   KEYS 参数
+     * @param args   ARGV 参数 byte[] 原样传递，其他类型转为字符串
+     * @return 脚本返回值 类型由 script 的 ReturnType 决定
+     */
+    public <T> T eval(final LuaScript script, final List<String> keys, final Object... args) throws Exception {
+        final int numKeys = keys == null ? 0 : keys.size();
+        final byte[][] keysAndArgs = new byte[numKeys + args.length][];
+        for (int i = 0; i < numKeys; i++) {
+            keysAndArgs[i] = rawKey(keys.get(i));
+            // 脚本可能修改 key 清除热点 key 的本地副本
+            evictHotKey(keysAndArgs[i]);
+        }
+        for (int i = 0; i < args.length; i++) {
+            keysAndArgs[numKeys + i] = rawArg(args[i]);
+        }
+        if (metricsSink != null) {
+            long requestBytes = 0;
+            for (byte[] keyOrArg : keysAndArgs) {
+                requestBytes += keyOrArg.length;
+            }
+            metricsSink.recordBytes(script.getOperation(), requestBytes, 0);
+        }
+        return execute(script.getOperation(), new RedisCallback<T>() {
+            @Override
+            public T doInRedis(RedisConnection connection) throws DataAccessException {
+                selectDb(connection);
+                try {
+                    return connection.evalSha(script.getSha1(), script.getReturnType(), numKeys, keysAndArgs);
+                } catch (RuntimeException e) {
+                    if (!isNoScriptError(e)) {
+                        throw e;
+                    }
+                    log.info("script " + script + " not cached on redis, fall back to eval");
+                    return connection.eval(script.getScriptBytes(), script.getReturnType(), numKeys, keysAndArgs);
+                }
+            }
+        });
+    }
+
+    /**
+     * 本进程写入时按编码后的 key 清除热点 key 的本地副本
+     */
+    void evictHotKey(byte[] rawKey) {
+        if (hotKeyDetector != null) {
+            hotKeyDetector.evict(rawKey);
+        }
+    }
+
+    /**
+     * key 的序列化器不是 UTF-8 时才拼接完整的 key
+     */
+    private static String fullKey(KeyEncoder prefix, String key) {
+        return prefix.getPrefix().isEmpty() ? key : prefix.getPrefix() + key;
+    }
+
+    private void recordBytes(String operation, long requestBytes, long responseBytes) {
+        if (metricsSink != null) {
+            metricsSink.recordBytes(operation, requestBytes, responseBytes);
+        }
+    }
+
+    private byte[] rawArg(Object arg) {
+        Assert.notNull(arg, "non null script arg required");
+        if (arg instanceof byte[]) {
+            return (byte[]) arg;
+        }
+        return getStringSerializer().serialize(String.valueOf(arg));
+    }
+
+    private boolean isNoScriptError(Throwable e) {
+        Throwable current = e;
+        while (current != null) {
+            String message = current.getMessage();
+            if (message != null && message.contains("NOSCRIPT")) {
+                return true;
+            }
+            current = current.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * key 的 StringRedisSerializer 为 UTF-8 时由 KeyEncoder 编码 不经过 String.getBytes
+     */
     byte[] rawKey(String key) {
+        return rawKey(KeyEncoder.UTF8, key);
+    }
+
+    /**
+     * 编码 prefix 的前缀加 key StringRedisSerializer 为 UTF-8 时直接写入缓存的前缀字节，不拼接字符串
+     */
+    byte[] rawKey(KeyEncoder prefix, String key) {
         Assert.notNull(key, "non null key required");
-        if (this.redisTemplate.getStringSerializer() == null) {
-            return key.getBytes();
+        RedisSerializer<String> serializer = this.redisTemplate.getStringSerializer();
+        if (serializer != null && isUtf8(serializer)) {
+            return prefix.encode(key);
+        }
+        String fullKey = fullKey(prefix, key);
+        return serializer == null ? fullKey.getBytes() : serializer.serialize(fullKey);
+    }
+
+    private boolean isUtf8(RedisSerializer<String> serializer) {
+        if (serializer == utf8KeySerializer) {
+            return true;
+        }
+        if (serializer == checkedKeySerializer) {
+            return false;
         }
-        return this.redisTemplate.getStringSerializer().serialize(key);
+        if (serializer instanceof StringRedisSerializer
+                && Arrays.equals(serializer.serialize(UTF8_PROBE), UTF8_PROBE.getBytes(StandardCharsets.UTF_8))) {
+            utf8KeySerializer = serializer;
+            return true;
+        }
+        checkedKeySerializer = serializer;
+        return false;
     }
 
     private byte[][] rawKeys(Collection<String> keys) {
@@ -498,22 +1129,76 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
 
         int i = 0;
         for (String key : keys) {
-            rawKeys[i++] = getStringSerializer().serialize(key);
+            rawKeys[i++] = rawKey(key);
         }
 
         return rawKeys;
     }
 
     /**
-     * 切换DB
+     * 获取底层的 Jedis 连接
+     * spring-data-redis 1.6 的 scan 系列方法与 jedis 2.9 不兼容，SCAN 相关命令直接使用 Jedis 执行
+     */
+    private BinaryJedis nativeJedis(RedisConnection connection) {
+        Object nativeConnection = connection.getNativeConnection();
+        if (nativeConnection instanceof BinaryJedis) {
+            return (BinaryJedis) nativeConnection;
+        }
+        throw new InvalidDataAccessApiUsageException("scan requires a jedis connection but was "
+                + (nativeConnection == null ? null : nativeConnection.getClass().getName()));
+    }
+
+    private ScanParams scanParams(String pattern, int count) {
+        ScanParams params = new ScanParams().count(count);
+        if (pattern != null) {
+            params.match(rawKey(pattern));
+        }
+        return params;
+    }
+
+    /**
+     * 反序列化 value 不能反序列化时返回原byte数组
+     * JDK 序列化根据 0xACED 判断，其他序列化方式依靠异常判断；
+     * CodecRedisSerializer 根据头部判断格式，碰巧以头部开头的原始数据或类已不存在的旧数据解码失败时同样返回原byte数组
+     */
+    static Object deserializeValue(RedisSerializer<Object> serializer, byte[] valueBytes) {
+        Object o = null;
+        if (valueBytes != null) {
+            if (serializer instanceof JdkSerializationRedisSerializer && !ValueHeader.isJdkSerialized(valueBytes)) {
+                return valueBytes;
+            }
+            try {
+                o = serializer.deserialize(valueBytes);
+            } catch (Exception e) {
+                // LOGGER.warn("不能反序列化，取原byte数组 key:" + key);
+                o = valueBytes;
+            }
+        }
+        return o;
+    }
+
+    /**
+     * 转换为固定的对象 原byte数组按json解析
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T convertValue(Object object, Class<T> t) {
+        if (object instanceof byte[]) {
+            return JSON.parseObject(new String((byte[]) object), t);
+        } else {
+            return (T) object;
+        }
+    }
+
+    /**
+     * 切换DB 底层 Jedis 连接已经在目标DB上时不再发送 SELECT
      *
      * @param connection
      */
     private void selectDb(RedisConnection connection) {
         if (connection != null) {
-            if (connection instanceof BinaryClient) {
-                BinaryClient binaryClient = (BinaryClient) connection;
-                if (binaryClient.getDB() == dbIndex) {
+            Object nativeConnection = connection.getNativeConnection();
+            if (nativeConnection instanceof BinaryJedis) {
+                if (((BinaryJedis) nativeConnection).getDB() == dbIndex) {
                     return;
                 }
             }
@@ -522,16 +1207,42 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     }
 
     /**
-     * 执行redis
+     * 执行redis 配置了 metricsSink 时记录耗时和是否出错
      *
+     * @param operation 操作名 用于指标
      * @param action
      * @return T
      * @throws Exception
      */
-    private <T> T execute(RedisCallback<T> action) throws Exception {
+    private <T> T execute(String operation, RedisCallback<T> action) throws Exception {
+        return execute(operation, action, redisTemplate.isExposeConnection());
+    }
+
+    /**
+     * 执行redis 配置了 metricsSink 时记录耗时和是否出错
+     * 配置了 circuitBreaker 时熔断器打开期间直接抛出 RedisCircuitOpenException
+     *
+     * @param operation 操作名 用于指标
+     * @param action
+     * @return T
+     */
+    private <T> T execute(String operation, RedisCallback<T> action, boolean expose) {
+        RedisCircuitBreaker.State admitted = null;
+        if (circuitBreaker != null) {
+            admitted = circuitBreaker.tryAcquire();
+            if (admitted == RedisCircuitBreaker.State.OPEN) {
+                throw new RedisCircuitOpenException("redis circuit breaker is open, reject " + operation);
+            }
+        }
+        long start = System.nanoTime();
+        boolean error = false;
+        boolean failure = false;
         try {
-            return redisTemplate.execute(action);
-        } catch (Exception e) {
+            int soTimeout = soTimeout(operation);
+            return soTimeout > 0 ? executeWithTimeout(action, soTimeout) : redisTemplate.execute(action, expose);
+        } catch (RuntimeException e) {
+            error = true;
+            failure = RedisCircuitBreaker.isFailure(e);
             log.error("执行redis发生异常:" + e.getMessage(), e);
             if (e instanceof DataAccessException) {
                 DataAccessException de = (DataAccessException) e;
@@ -543,42 +1254,135 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
                 }
             }
             throw e;
+        } finally {
+            long latency = System.nanoTime() - start;
+            if (metricsSink != null) {
+                metricsSink.recordCommand(operation, latency, error);
+            }
+            if (admitted != null) {
+                circuitBreaker.onComplete(admitted, latency, failure, !UNTIMED_OPERATIONS.contains(operation));
+            }
         }
     }
 
     /**
-     * 执行redis
-     *
-     * @param action
-     * @return T
+     * 操作的读超时 单位毫秒 <=0 表示使用连接工厂的 timeout
      */
-    private <T> T execute(RedisCallback<T> action, boolean expose) {
+    private int soTimeout(String operation) {
+        Integer timeout = operationTimeouts.get(operation);
+        return timeout != null ? timeout : operationTimeout;
+    }
+
+    /**
+     * 自己获取连接 执行前把连接的读超时改为该操作的超时时间，执行后恢复，不需要为每次调用包装 RedisCallback
+     * 获取和释放连接与 RedisTemplate.execute 相同(未开启事务支持)，本类的 callback 不会关闭连接，不需要 exposeConnection 的代理
+     * 阻塞命令由 jedis 在执行期间取消读超时，不受影响
+     */
+    private <T> T executeWithTimeout(RedisCallback<T> action, int soTimeout) {
+        RedisConnectionFactory factory = redisTemplate.getConnectionFactory();
+        RedisConnection connection = RedisConnectionUtils.getConnection(factory);
         try {
-            return redisTemplate.execute(action, expose);
-        } catch (Exception e) {
-            log.error("执行redis发生异常:" + e.getMessage(), e);
-            if (e instanceof DataAccessException) {
-                DataAccessException de = (DataAccessException) e;
-                if (de.getCause() != null) {
-                    log.error("执行redis发生DataAccessException.Cause" + de.getCause().getMessage(),
-                            de.getCause());
-                } else {
-                    log.error("执行redis发生DataAccessException:" + de.getMessage(), de);
-                }
+            return doWithTimeout(connection, action, soTimeout);
+        } finally {
+            RedisConnectionUtils.releaseConnection(connection, factory);
+        }
+    }
+
+    private <T> T doWithTimeout(RedisConnection connection, RedisCallback<T> action, int soTimeout) {
+        Object nativeConnection = connection.getNativeConnection();
+        if (!(nativeConnection instanceof BinaryJedis)) {
+            return action.doInRedis(connection);
+        }
+        Client client = ((BinaryJedis) nativeConnection).getClient();
+        int original = client.getSoTimeout();
+        if (original == soTimeout) {
+            return action.doInRedis(connection);
+        }
+        setSoTimeout(client, soTimeout);
+        try {
+            return action.doInRedis(connection);
+        } finally {
+            // 超时后连接已损坏 不再恢复，连接池销毁它时发送的 QUIT 同样只等待该超时时间
+            if (!client.isBroken()) {
+                setSoTimeout(client, original);
+            }
+        }
+    }
+
+    /**
+     * 从节点读由 replicaReadRouter 获取连接 只能包装 RedisCallback 设置读超时
+     */
+    private <T> RedisCallback<T> withTimeout(String operation, final RedisCallback<T> action) {
+        final int soTimeout = soTimeout(operation);
+        if (soTimeout <= 0) {
+            return action;
+        }
+        return new RedisCallback<T>() {
+            @Override
+            public T doInRedis(RedisConnection connection) throws DataAccessException {
+                return doWithTimeout(connection, action, soTimeout);
+            }
+        };
+    }
+
+    private void setSoTimeout(Client client, int soTimeout) {
+        client.setSoTimeout(soTimeout);
+        if (client.isConnected()) {
+            client.rollbackTimeout();
+        }
+    }
+
+    /**
+     * 执行读操作 配置了 replicaReadRouter 时发送到从节点，从节点连接失败或 replicaCircuitBreaker 打开时改为读取主节点
+     * 从节点读同样使用 operationTimeout
+     *
+     * @param operation 操作名 用于指标
+     */
+    private <T> T read(String operation, RedisCallback<T> action) throws Exception {
+        if (replicaReadRouter == null) {
+            return execute(operation, action);
+        }
+        RedisCircuitBreaker.State admitted = null;
+        if (replicaCircuitBreaker != null) {
+            admitted = replicaCircuitBreaker.tryAcquire();
+            if (admitted == RedisCircuitBreaker.State.OPEN) {
+                return execute(operation, action);
             }
+        }
+        long start = System.nanoTime();
+        boolean error = false;
+        boolean failure = false;
+        try {
+            return replicaReadRouter.execute(withTimeout(operation, action));
+        } catch (DataAccessResourceFailureException e) {
+            error = true;
+            failure = true;
+            log.warn("从节点读取失败 改为读取主节点:" + e.getMessage());
+        } catch (RuntimeException e) {
+            error = true;
+            failure = RedisCircuitBreaker.isFailure(e);
             throw e;
+        } finally {
+            long latency = System.nanoTime() - start;
+            if (metricsSink != null) {
+                metricsSink.recordCommand(operation, latency, error);
+            }
+            if (admitted != null) {
+                replicaCircuitBreaker.onComplete(admitted, latency, failure, !UNTIMED_OPERATIONS.contains(operation));
+            }
         }
+        return execute(operation, action);
     }
 
     @Override
     public long listSize(final String key) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return read("listSize", new RedisCallback<Long>() {
             public Long doInRedis(RedisConnection connection) {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.lLen(keyBytes);
             }
-        }, true);
+        });
     }
 
     @Override
@@ -594,58 +1398,57 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     @Override
     public void set(final String key, final String value, final long timeout) throws Exception {
         if (value != null) {
-            execute(new RedisCallback<Object>() {
-                @Override
-                public Object doInRedis(RedisConnection connection) throws DataAccessException {
-                    selectDb(connection);
-                    byte[] keybytes = getStringSerializer().serialize(key);
-                    connection.setEx(keybytes, timeout, getStringSerializer().serialize(value));
-                    return null;
-                }
-
-            });
+            setBytes(KeyEncoder.UTF8, key, getStringSerializer().serialize(value), timeout, true);
         }
     }
 
     @Override
     public void set(final String key, final String value) throws Exception {
         if (value != null) {
-            execute(new RedisCallback<String>() {
-                @Override
-                public String doInRedis(RedisConnection connection) throws DataAccessException {
-                    selectDb(connection);
-                    byte[] bytes = getStringSerializer().serialize(key);
-                    connection.set(bytes, getStringSerializer().serialize(value));
-                    return null;
-                }
-            });
+            setBytes(KeyEncoder.UTF8, key, getStringSerializer().serialize(value), 0, false);
         }
     }
 
     @Override
     public String getString(final String key) throws Exception {
-        return execute(new RedisCallback<String>() {
+        return getString(KeyEncoder.UTF8, key);
+    }
+
+    String getString(final KeyEncoder prefix, final String key) throws Exception {
+        final byte[] keyBytes = rawKey(prefix, key);
+        if (hotKeyDetector != null) {
+            hotKeyDetector.record(keyBytes);
+            Object local = hotKeyDetector.getLocal(keyBytes, true);
+            if (local != null) {
+                return (String) local;
+            }
+        }
+        String value = read("getString", new RedisCallback<String>() {
             @Override
             public String doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
                 // if(connection.exists(keyBytes)){
                 byte[] valueBytes = connection.get(keyBytes);
+                recordBytes("getString", keyBytes.length, valueBytes == null ? 0 : valueBytes.length);
                 String o = getStringSerializer().deserialize(valueBytes);
                 return o;
                 // }
                 // return null;
             }
         });
+        if (hotKeyDetector != null) {
+            hotKeyDetector.promote(keyBytes, value, true);
+        }
+        return value;
     }
 
     @Override
     public long ttl(final String key) throws Exception {
-        return execute(new RedisCallback<Long>() {
+        return read("ttl", new RedisCallback<Long>() {
             @Override
             public Long doInRedis(RedisConnection connection) throws DataAccessException {
                 selectDb(connection);
-                byte[] keyBytes = getStringSerializer().serialize(key);
+                byte[] keyBytes = rawKey(key);
                 return connection.ttl(keyBytes);
             }
         });
@@ -655,6 +1458,9 @@ public class DefaultRedisCacheManager implements RedisCacheManager {
     public RedisCache getRedisCache() {
         if (redisCache == null) {
             redisCache = new RedisCache(this);
+            redisCache.setNearCache(nearCache);
+            redisCache.setWriteBehindBuffer(writeBehindBuffer);
+            redisCache.setLoadLockTimeout(loadLockTimeout);
         }
         return redisCache;
     }
@@ -0,0 +1,191 @@
+package com.chaoyue.redis;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于 Deflate 的 value 压缩 使用最快的压缩级别
+ * 压缩后的格式 [MAGIC, FORMAT_DEFLATE, 原始长度(4字节)] + deflate数据
+ * 同时统计压缩率和压缩、解压耗费的CPU时间
+ */
+public class DeflateCompressor {
+
+    private static final int HEADER_LENGTH = ValueHeader.LENGTH + 4;
+
+    /**
+     * 解压后允许的最大长度 单位字节，头部记录的长度超过该值或为负数时不分配内存直接判为损坏
+     */
+    private int maxLength = 64 * 1024 * 1024;
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final LongAdder compressedCount = new LongAdder();
+
+    private final LongAdder skippedCount = new LongAdder();
+
+    private final LongAdder bytesBeforeCompression = new LongAdder();
+
+    private final LongAdder bytesAfterCompression = new LongAdder();
+
+    private final LongAdder compressNanos = new LongAdder();
+
+    private final LongAdder decompressedCount = new LongAdder();
+
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * @param maxLength 解压后允许的最大长度 单位字节
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * 压缩
+     *
+     * @return 压缩后的数据 压缩后没有变小时返回null
+     */
+    public byte[] compress(byte[] bytes) {
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            // 输出缓冲区和原始数据一样大，放不下说明压缩没有收益
+            byte[] buffer = new byte[bytes.length];
+            writeHeader(buffer, bytes.length);
+            int length = HEADER_LENGTH;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                skippedCount.increment();
+                return null;
+            }
+            compressedCount.increment();
+            bytesBeforeCompression.add(bytes.length);
+            bytesAfterCompression.add(length);
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.reset();
+            compressNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 是否为压缩后的数据
+     */
+    public static boolean isCompressed(byte[] bytes) {
+        return ValueHeader.hasHeader(bytes) && ValueHeader.format(bytes) == ValueHeader.FORMAT_DEFLATE
+                && bytes.length >= HEADER_LENGTH;
+    }
+
+    /**
+     * 解压 调用前需要先判断 isCompressed
+     */
+    public byte[] decompress(byte[] bytes) {
+        long start = System.nanoTime();
+        Inflater inflater = inflaters.get();
+        try {
+            int expected = readLength(bytes);
+            if (expected < 0 || expected > maxLength) {
+                throw new IllegalStateException("corrupted compressed value, invalid length " + expected
+                        + " (max " + maxLength + ")");
+            }
+            byte[] result = new byte[expected];
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            int length = 0;
+            while (length < result.length && !inflater.finished()) {
+                int n = inflater.inflate(result, length, result.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != result.length) {
+                throw new IllegalStateException("corrupted compressed value, expect " + result.length
+                        + " bytes but was " + length);
+            }
+            decompressedCount.increment();
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupted compressed value", e);
+        } finally {
+            inflater.reset();
+            decompressNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void writeHeader(byte[] buffer, int length) {
+        buffer[0] = ValueHeader.MAGIC;
+        buffer[1] = ValueHeader.FORMAT_DEFLATE;
+        buffer[2] = (byte) (length >>> 24);
+        buffer[3] = (byte) (length >>> 16);
+        buffer[4] = (byte) (length >>> 8);
+        buffer[5] = (byte) length;
+    }
+
+    private int readLength(byte[] bytes) {
+        return ((bytes[2] & 0xFF) << 24) | ((bytes[3] & 0xFF) << 16) | ((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF);
+    }
+
+    /**
+     * 压缩的次数
+     */
+    public long getCompressedCount() {
+        return compressedCount.sum();
+    }
+
+    /**
+     * 超过阈值但压缩后没有变小 按原数据保存的次数
+     */
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long getDecompressedCount() {
+        return decompressedCount.sum();
+    }
+
+    /**
+     * 压缩率 压缩后大小/压缩前大小
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.sum();
+        return before == 0 ? 1.0 : (double) bytesAfterCompression.sum() / before;
+    }
+
+    /**
+     * 压缩耗费的时间 包含没有收益而放弃的压缩 单位纳秒
+     */
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    /**
+     * 解压耗费的时间 单位纳秒
+     */
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+}
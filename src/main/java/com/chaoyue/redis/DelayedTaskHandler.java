@@ -0,0 +1,15 @@
+package com.chaoyue.redis;
+
+import java.util.List;
+
+/**
+ * RedisDelayQueue 到期任务的处理回调
+ */
+public interface DelayedTaskHandler {
+
+    /**
+     * 处理一批到期的任务
+     * 设置了 visibilityTimeout 时正常返回后才确认，抛出异常的任务在超时后重新投递
+     */
+    void handle(List<byte[]> tasks) throws Exception;
+}
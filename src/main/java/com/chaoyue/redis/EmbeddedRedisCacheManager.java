@@ -0,0 +1,1127 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的 RedisCacheManager 实现 不访问网络，用于边缘节点的本地模式和集成测试
+ * 支持 string、hash、list、sorted set 四种类型，命令语义与 redis 一致(类型不符时抛出 WRONGTYPE 异常，空集合自动删除)
+ * string、hash 和 list 的 value 保存在堆外的 slab 中，堆内只保留索引和 sorted set 的成员
+ * 过期时间由分层时间轮统一调度，读取时也会检查过期，时间轮只负责回收内存
+ * 同一个 key 的操作由分段读写锁保证原子性，publish 同步投递给本进程内注册的 messageListeners
+ */
+@Slf4j
+public class EmbeddedRedisCacheManager implements RedisCacheManager, InitializingBean, DisposableBean {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final int DEFAULT_SCAN_COUNT = 1000;
+
+    private static final String WRONG_TYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    private RedisSerializer<Object> defRedisSerializer = new JdkSerializationRedisSerializer();
+
+    private final RedisSerializer<String> stringSerializer = new StringRedisSerializer();
+
+    /**
+     * 最多使用的堆外内存 单位字节
+     */
+    private long maxMemory = 256L * 1024 * 1024;
+
+    /**
+     * slab page 大小 单位字节 超过的 value 单独分配
+     */
+    private int pageSize = 1024 * 1024;
+
+    /**
+     * 时间轮的精度 单位毫秒
+     */
+    private long tickMs = 10;
+
+    private Map<MessageListener, Collection<? extends Topic>> messageListeners = Collections.emptyMap();
+
+    private final ConcurrentMap<String, Entry> data = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+
+    private OffHeapSlabAllocator allocator;
+
+    private TimingWheel timingWheel;
+
+    private ScheduledExecutorService ticker;
+
+    private RedisCache redisCache;
+
+    public EmbeddedRedisCacheManager() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public void setDefRedisSerializer(RedisSerializer<Object> defRedisSerializer) {
+        this.defRedisSerializer = defRedisSerializer;
+    }
+
+    /**
+     * @param maxMemory 单位字节
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * @param pageSize 单位字节 必须是 2 的幂
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param tickMs 单位毫秒
+     */
+    public void setTickMs(long tickMs) {
+        this.tickMs = tickMs;
+    }
+
+    /**
+     * 本地订阅 与 RedisMessageListenerContainer 的 messageListeners 相同
+     */
+    public void setMessageListeners(Map<MessageListener, Collection<? extends Topic>> messageListeners) {
+        this.messageListeners = messageListeners == null
+                ? Collections.<MessageListener, Collection<? extends Topic>>emptyMap() : messageListeners;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.isTrue(tickMs > 0, "tickMs must be positive");
+        allocator = new OffHeapSlabAllocator(pageSize, maxMemory);
+        timingWheel = new TimingWheel(tickMs, 4, System.currentTimeMillis());
+        ticker = Executors.newSingleThreadScheduledExecutor(
+                new DefaultAsyncRedisCacheManager.NamedThreadFactory("embedded-redis-expire-"));
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                expireDue();
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        for (String key : data.keySet()) {
+            Lock lock = writeLock(key);
+            try {
+                Entry entry = data.remove(key);
+                if (entry != null) {
+                    entry.free(allocator);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 当前的 key 数量 包含已过期尚未回收的
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * value 占用的堆外内存 单位字节
+     */
+    public long getUsedMemory() {
+        return allocator.getUsedMemory();
+    }
+
+    /**
+     * 已申请的堆外内存 单位字节
+     */
+    public long getAllocatedMemory() {
+        return allocator.getAllocatedMemory();
+    }
+
+    // singleton
+    public RedisCache getRedisCache() {
+        if (redisCache == null) {
+            redisCache = new RedisCache(this);
+        }
+        return redisCache;
+    }
+
+    @Override
+    public RedisSerializer<Object> getDefRedisSerializer() {
+        return defRedisSerializer;
+    }
+
+    @Override
+    public RedisSerializer<String> getStringSerializer() {
+        return stringSerializer;
+    }
+
+    // ---------------------------------------------------------------- keys
+
+    @Override
+    public Set<String> keys(String pattern) throws Exception {
+        final Set<String> keys = new HashSet<>();
+        scan(pattern, DEFAULT_SCAN_COUNT, new ScanCallback<List<String>>() {
+            @Override
+            public boolean doInScan(List<String> batch) {
+                keys.addAll(batch);
+                return true;
+            }
+        });
+        return keys;
+    }
+
+    @Override
+    public void scan(String pattern, int count, ScanCallback<List<String>> callback) throws Exception {
+        Assert.notNull(callback, "callback is required");
+        Assert.isTrue(count > 0, "count must be positive");
+        long now = System.currentTimeMillis();
+        List<String> batch = new ArrayList<>();
+        int examined = 0;
+        for (Map.Entry<String, Entry> e : data.entrySet()) {
+            if (!e.getValue().isExpired(now) && GlobPattern.matches(pattern, e.getKey())) {
+                batch.add(e.getKey());
+            }
+            if (++examined == count) {
+                examined = 0;
+                if (!batch.isEmpty()) {
+                    if (!callback.doInScan(batch)) {
+                        return;
+                    }
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            callback.doInScan(batch);
+        }
+    }
+
+    @Override
+    public long del(String key) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            Entry entry = liveForWrite(key);
+            if (entry == null) {
+                return 0;
+            }
+            remove(key, entry);
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> keys) throws Exception {
+        if (!CollectionUtils.isEmpty(keys)) {
+            for (String key : keys) {
+                del(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean expire(String key, long timeout, TimeUnit unit) throws Exception {
+        long millis = unit.toMillis(timeout);
+        Lock lock = writeLock(key);
+        try {
+            Entry entry = liveForWrite(key);
+            if (entry == null) {
+                return false;
+            }
+            if (millis <= 0) {
+                remove(key, entry);
+            } else {
+                setExpireAt(key, entry, System.currentTimeMillis() + millis);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean expire(String key, long timeout) throws Exception {
+        return expire(key, timeout, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public long ttl(String key) throws Exception {
+        Lock lock = readLock(key);
+        try {
+            Entry entry = live(key);
+            if (entry == null) {
+                return -2;
+            }
+            long expireAt = entry.expireAt;
+            if (expireAt == 0) {
+                return -1;
+            }
+            return (expireAt - System.currentTimeMillis() + 500) / 1000;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- string
+
+    @Override
+    public void set(String key, byte[] value, long timeout) throws Exception {
+        if (value != null) {
+            if (timeout <= 0) {
+                throw new InvalidDataAccessApiUsageException("ERR invalid expire time in setex");
+            }
+            setBytes(key, value, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout));
+        }
+    }
+
+    @Override
+    public void set(String key, byte[] value) throws Exception {
+        if (value != null) {
+            setBytes(key, value, 0);
+        }
+    }
+
+    @Override
+    public void set(String key, Serializable object, long timeout) throws Exception {
+        set(key, defRedisSerializer.serialize(object), timeout);
+    }
+
+    @Override
+    public void set(String key, Serializable object) throws Exception {
+        set(key, defRedisSerializer.serialize(object));
+    }
+
+    @Override
+    public void set(String key, String value, long timeout) throws Exception {
+        if (value != null) {
+            set(key, stringSerializer.serialize(value), timeout);
+        }
+    }
+
+    @Override
+    public void set(String key, String value) throws Exception {
+        if (value != null) {
+            set(key, stringSerializer.serialize(value));
+        }
+    }
+
+    @Override
+    public Object get(String key) throws Exception {
+        return DefaultRedisCacheManager.deserializeValue(defRedisSerializer, getBytes(key));
+    }
+
+    @Override
+    public <T> T get(String key, Class<T> t) throws Exception {
+        return DefaultRedisCacheManager.convertValue(get(key), t);
+    }
+
+    @Override
+    public String getString(String key) throws Exception {
+        return stringSerializer.deserialize(getBytes(key));
+    }
+
+    @Override
+    public List<Object> mGet(List<String> keys) throws Exception {
+        if (CollectionUtils.isEmpty(keys)) {
+            return Collections.emptyList();
+        }
+        List<Object> values = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Lock lock = readLock(key);
+            try {
+                Entry entry = live(key);
+                // MGET 对非 string 类型返回 null
+                byte[] bytes = entry instanceof StringEntry ? ((StringEntry) entry).value.read() : null;
+                values.add(DefaultRedisCacheManager.deserializeValue(defRedisSerializer, bytes));
+            } finally {
+                lock.unlock();
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public <T> List<T> mGet(List<String> keys, Class<T> t) throws Exception {
+        List<Object> objects = mGet(keys);
+        List<T> values = new ArrayList<>(objects.size());
+        for (Object object : objects) {
+            values.add(DefaultRedisCacheManager.convertValue(object, t));
+        }
+        return values;
+    }
+
+    @Override
+    public void mSet(Map<String, ? extends Serializable> values, long timeout) throws Exception {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        long expireAt = timeout > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout) : 0;
+        for (Map.Entry<String, ? extends Serializable> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                setBytes(entry.getKey(), defRedisSerializer.serialize(entry.getValue()), expireAt);
+            }
+        }
+    }
+
+    @Override
+    public byte[] getSet(String key, byte[] values, long time, TimeUnit timeUnit) throws Exception {
+        long millis = timeUnit.toMillis(time);
+        Lock lock = writeLock(key);
+        try {
+            StringEntry old = typed(liveForWrite(key), StringEntry.class);
+            byte[] oldBytes = old == null ? null : old.value.read();
+            replace(key, old, new StringEntry(allocator.allocate(values)),
+                    millis > 0 ? System.currentTimeMillis() + millis : 0);
+            return oldBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] getSet(String key, byte[] values, long time) throws Exception {
+        return getSet(key, values, time, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, byte[] value, long timeout, TimeUnit unit) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            if (liveForWrite(key) != null) {
+                return false;
+            }
+            long millis = unit.toMillis(timeout);
+            replace(key, null, new StringEntry(allocator.allocate(value)),
+                    millis > 0 ? System.currentTimeMillis() + millis : 0);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteIfEquals(String key, byte[] expected) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            Entry entry = liveForWrite(key);
+            if (entry instanceof StringEntry && ((StringEntry) entry).value.contentEquals(expected)) {
+                remove(key, entry);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long increment(String key, Long delta) throws Exception {
+        return increment(key, delta, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long increment(String key, Long delta, long timeout, TimeUnit unit) throws Exception {
+        long millis = unit.toMillis(timeout);
+        Lock lock = writeLock(key);
+        try {
+            StringEntry old = typed(liveForWrite(key), StringEntry.class);
+            long value = 0;
+            if (old != null) {
+                try {
+                    value = Long.parseLong(stringSerializer.deserialize(old.value.read()));
+                } catch (NumberFormatException e) {
+                    throw new InvalidDataAccessApiUsageException("ERR value is not an integer or out of range");
+                }
+            }
+            value += delta;
+            // INCRBY 保留原有的过期时间
+            long expireAt = millis > 0 ? System.currentTimeMillis() + millis : (old == null ? 0 : old.expireAt);
+            replace(key, old, new StringEntry(allocator.allocate(stringSerializer.serialize(Long.toString(value)))),
+                    expireAt);
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setBytes(String key, byte[] value, long expireAt) {
+        Lock lock = writeLock(key);
+        try {
+            replace(key, liveForWrite(key), new StringEntry(allocator.allocate(value)), expireAt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] getBytes(String key) {
+        Lock lock = readLock(key);
+        try {
+            StringEntry entry = typed(live(key), StringEntry.class);
+            return entry == null ? null : entry.value.read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- hash
+
+    @Override
+    public boolean hSet(String key, String fieldKey, Serializable value) throws Exception {
+        if (value == null) {
+            return false;
+        }
+        byte[] bytes = defRedisSerializer.serialize(value);
+        Lock lock = writeLock(key);
+        try {
+            HashEntry hash = getOrCreate(key, HashEntry.class, HashEntry::new);
+            OffHeapSlabAllocator.Chunk old = hash.fields.put(fieldKey, allocator.allocate(bytes));
+            allocator.free(old);
+            return old == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T extends Serializable> void hMSet(String key, Map<String, T> fieldMap) throws Exception {
+        if (fieldMap == null || fieldMap.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> serialized = new LinkedHashMap<>(fieldMap.size());
+        for (Map.Entry<String, T> field : fieldMap.entrySet()) {
+            serialized.put(field.getKey(), defRedisSerializer.serialize(field.getValue()));
+        }
+        Lock lock = writeLock(key);
+        try {
+            HashEntry hash = getOrCreate(key, HashEntry.class, HashEntry::new);
+            for (Map.Entry<String, byte[]> field : serialized.entrySet()) {
+                allocator.free(hash.fields.put(field.getKey(), allocator.allocate(field.getValue())));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object hGet(String key, String fieldKey) throws Exception {
+        byte[] bytes;
+        Lock lock = readLock(key);
+        try {
+            HashEntry hash = typed(live(key), HashEntry.class);
+            OffHeapSlabAllocator.Chunk chunk = hash == null ? null : hash.fields.get(fieldKey);
+            bytes = chunk == null ? null : chunk.read();
+        } finally {
+            lock.unlock();
+        }
+        if (bytes != null && bytes.length > 0) {
+            return defRedisSerializer.deserialize(bytes);
+        }
+        return null;
+    }
+
+    @Override
+    public long hDel(String key, String... fieldKeys) throws Exception {
+        if (fieldKeys == null || fieldKeys.length == 0) {
+            return -1L;
+        }
+        Lock lock = writeLock(key);
+        try {
+            HashEntry hash = typed(liveForWrite(key), HashEntry.class);
+            if (hash == null) {
+                return 0;
+            }
+            long removed = 0;
+            for (String fieldKey : fieldKeys) {
+                OffHeapSlabAllocator.Chunk chunk = hash.fields.remove(fieldKey);
+                if (chunk != null) {
+                    allocator.free(chunk);
+                    removed++;
+                }
+            }
+            if (hash.fields.isEmpty()) {
+                remove(key, hash);
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> hGetAll(String key, Class<T> clazz) throws Exception {
+        Map<String, byte[]> raw = new HashMap<>();
+        Lock lock = readLock(key);
+        try {
+            HashEntry hash = typed(live(key), HashEntry.class);
+            if (hash == null) {
+                return Collections.emptyMap();
+            }
+            for (Map.Entry<String, OffHeapSlabAllocator.Chunk> field : hash.fields.entrySet()) {
+                raw.put(field.getKey(), field.getValue().read());
+            }
+        } finally {
+            lock.unlock();
+        }
+        Map<String, T> valueMap = new HashMap<>(raw.size());
+        for (Map.Entry<String, byte[]> field : raw.entrySet()) {
+            valueMap.put(field.getKey(), (T) defRedisSerializer.deserialize(field.getValue()));
+        }
+        return valueMap;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> hMGet(String key, Class<T> clazz, String... fieldKeys) throws Exception {
+        if (fieldKeys == null || fieldKeys.length == 0) {
+            return Collections.emptyMap();
+        }
+        byte[][] raw = new byte[fieldKeys.length][];
+        Lock lock = readLock(key);
+        try {
+            HashEntry hash = typed(live(key), HashEntry.class);
+            if (hash == null) {
+                return Collections.emptyMap();
+            }
+            for (int i = 0; i < fieldKeys.length; i++) {
+                OffHeapSlabAllocator.Chunk chunk = hash.fields.get(fieldKeys[i]);
+                raw[i] = chunk == null ? null : chunk.read();
+            }
+        } finally {
+            lock.unlock();
+        }
+        Map<String, T> valueMap = new LinkedHashMap<>();
+        for (int i = 0; i < fieldKeys.length; i++) {
+            if (raw[i] != null && raw[i].length > 0) {
+                valueMap.put(fieldKeys[i], (T) defRedisSerializer.deserialize(raw[i]));
+            }
+        }
+        return valueMap;
+    }
+
+    /**
+     * 先复制字段名 再按批读取字段值，每批只在读取期间持有锁
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void hScan(String key, int count, Class<T> clazz, ScanCallback<Map<String, T>> callback)
+            throws Exception {
+        Assert.notNull(callback, "callback is required");
+        Assert.isTrue(count > 0, "count must be positive");
+        List<String> fieldKeys;
+        Lock lock = readLock(key);
+        try {
+            HashEntry hash = typed(live(key), HashEntry.class);
+            if (hash == null) {
+                return;
+            }
+            fieldKeys = new ArrayList<>(hash.fields.keySet());
+        } finally {
+            lock.unlock();
+        }
+        for (int from = 0; from < fieldKeys.size(); from += count) {
+            List<String> page = fieldKeys.subList(from, Math.min(from + count, fieldKeys.size()));
+            Map<String, T> batch = hMGet(key, clazz, page.toArray(new String[page.size()]));
+            if (!batch.isEmpty() && !callback.doInScan(batch)) {
+                return;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- list
+
+    @Override
+    public byte[] leftPop(String key) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            ListEntry list = typed(liveForWrite(key), ListEntry.class);
+            if (list == null) {
+                return null;
+            }
+            OffHeapSlabAllocator.Chunk chunk = list.elements.pollFirst();
+            byte[] bytes = chunk.read();
+            allocator.free(chunk);
+            if (list.elements.isEmpty()) {
+                remove(key, list);
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean rightPush(String key, byte[] value) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            getOrCreate(key, ListEntry.class, ListEntry::new).elements.addLast(allocator.allocate(value));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long listSize(String key) throws Exception {
+        Lock lock = readLock(key);
+        try {
+            ListEntry list = typed(live(key), ListEntry.class);
+            return list == null ? 0 : list.elements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- sorted set
+
+    @Override
+    public boolean zAdd(String key, byte[] value, double score) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            return getOrCreate(key, ZSetEntry.class, ZSetEntry::new).add(value, score);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long zRemove(String key, byte[]... value) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            ZSetEntry zset = typed(liveForWrite(key), ZSetEntry.class);
+            if (zset == null) {
+                return 0;
+            }
+            long removed = 0;
+            for (byte[] member : value) {
+                if (zset.remove(member)) {
+                    removed++;
+                }
+            }
+            if (zset.scores.isEmpty()) {
+                remove(key, zset);
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long zRemoveRangeByScore(String key, double min, double max) throws Exception {
+        Lock lock = writeLock(key);
+        try {
+            ZSetEntry zset = typed(liveForWrite(key), ZSetEntry.class);
+            if (zset == null) {
+                return 0;
+            }
+            List<byte[]> members = new ArrayList<>(zset.range(min, max, 0, -1, false));
+            for (byte[] member : members) {
+                zset.remove(member);
+            }
+            if (zset.scores.isEmpty()) {
+                remove(key, zset);
+            }
+            return members.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long zSize(String key) throws Exception {
+        Lock lock = readLock(key);
+        try {
+            ZSetEntry zset = typed(live(key), ZSetEntry.class);
+            return zset == null ? 0 : zset.scores.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long zCount(String key, double min, double max) throws Exception {
+        return zRange(key, min, max, 0, -1, false).size();
+    }
+
+    @Override
+    public Set<byte[]> zRangeByScore(String key, double min, double max) throws Exception {
+        return zRange(key, min, max, 0, -1, false);
+    }
+
+    @Override
+    public Set<byte[]> zRangeByScore(String key, double min, double max, long offset, long count)
+            throws Exception {
+        return zRange(key, min, max, offset, count, false);
+    }
+
+    @Override
+    public Set<byte[]> zRevRangeByScore(String key, double min, double max) throws Exception {
+        return zRange(key, min, max, 0, -1, true);
+    }
+
+    @Override
+    public Set<byte[]> zRevRangeByScore(String key, double min, double max, long offset, long count)
+            throws Exception {
+        return zRange(key, min, max, offset, count, true);
+    }
+
+    private Set<byte[]> zRange(String key, double min, double max, long offset, long count, boolean reverse) {
+        Lock lock = readLock(key);
+        try {
+            ZSetEntry zset = typed(live(key), ZSetEntry.class);
+            if (zset == null) {
+                return Collections.emptySet();
+            }
+            return zset.range(min, max, offset, count, reverse);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- pub/sub
+
+    @Override
+    public long publish(String channel, String msg) throws Exception {
+        byte[] rawChannel = stringSerializer.serialize(channel);
+        byte[] body = stringSerializer.serialize(msg);
+        long receivers = 0;
+        for (Map.Entry<MessageListener, Collection<? extends Topic>> listener : messageListeners.entrySet()) {
+            for (Topic topic : listener.getValue()) {
+                byte[] pattern = null;
+                if (topic instanceof PatternTopic) {
+                    if (!GlobPattern.matches(topic.getTopic(), channel)) {
+                        continue;
+                    }
+                    pattern = stringSerializer.serialize(topic.getTopic());
+                } else if (!(topic instanceof ChannelTopic) || !topic.getTopic().equals(channel)) {
+                    continue;
+                }
+                try {
+                    listener.getKey().onMessage(new DefaultMessage(rawChannel, body), pattern);
+                } catch (RuntimeException e) {
+                    log.error("embedded redis message listener error, channel:" + channel, e);
+                }
+                receivers++;
+            }
+        }
+        return receivers;
+    }
+
+    // ---------------------------------------------------------------- internal
+
+    private Lock readLock(String key) {
+        Lock lock = lockFor(key).readLock();
+        lock.lock();
+        return lock;
+    }
+
+    private Lock writeLock(String key) {
+        Lock lock = lockFor(key).writeLock();
+        lock.lock();
+        return lock;
+    }
+
+    private ReentrantReadWriteLock lockFor(String key) {
+        Assert.notNull(key, "non null key required");
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * 读锁下获取未过期的条目 过期的条目留给时间轮回收
+     */
+    private Entry live(String key) {
+        Entry entry = data.get(key);
+        return entry == null || entry.isExpired(System.currentTimeMillis()) ? null : entry;
+    }
+
+    /**
+     * 写锁下获取未过期的条目 过期的条目立即回收
+     */
+    private Entry liveForWrite(String key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private <E extends Entry> E typed(Entry entry, Class<E> type) {
+        if (entry == null) {
+            return null;
+        }
+        if (!type.isInstance(entry)) {
+            throw new InvalidDataAccessApiUsageException(WRONG_TYPE);
+        }
+        return type.cast(entry);
+    }
+
+    private <E extends Entry> E getOrCreate(String key, Class<E> type, Supplier<E> factory) {
+        E entry = typed(liveForWrite(key), type);
+        if (entry == null) {
+            entry = factory.get();
+            data.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 写锁下用新条目替换旧条目 并设置过期时间
+     */
+    private void replace(String key, Entry old, Entry entry, long expireAt) {
+        data.put(key, entry);
+        if (old != null) {
+            old.free(allocator);
+        }
+        setExpireAt(key, entry, expireAt);
+    }
+
+    private void remove(String key, Entry entry) {
+        if (data.remove(key, entry)) {
+            entry.free(allocator);
+        }
+    }
+
+    private void setExpireAt(String key, Entry entry, long expireAt) {
+        entry.expireAt = expireAt;
+        if (expireAt > 0 && !timingWheel.add(key, expireAt)) {
+            // 时间轮的当前 tick 已经超过 expireAt 读取时会视为过期，这里直接回收
+            if (entry.isExpired(System.currentTimeMillis())) {
+                remove(key, entry);
+            } else {
+                timingWheel.add(key, expireAt + tickMs);
+            }
+        }
+    }
+
+    private void expireDue() {
+        try {
+            List<TimingWheel.Timeout> expired = timingWheel.advance(System.currentTimeMillis());
+            if (expired == null) {
+                return;
+            }
+            for (TimingWheel.Timeout timeout : expired) {
+                Lock lock = writeLock(timeout.key);
+                try {
+                    Entry entry = data.get(timeout.key);
+                    // key 被覆盖或重新设置过期时间后 旧的到期条目失效
+                    if (entry != null && entry.expireAt == timeout.expireAt
+                            && entry.isExpired(System.currentTimeMillis())) {
+                        remove(timeout.key, entry);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("embedded redis expire error", e);
+        }
+    }
+
+    /**
+     * 一个 key 的数据
+     */
+    private abstract static class Entry {
+        /**
+         * 过期时间 0 表示永不过期
+         */
+        volatile long expireAt;
+
+        boolean isExpired(long now) {
+            long e = expireAt;
+            return e != 0 && e <= now;
+        }
+
+        abstract void free(OffHeapSlabAllocator allocator);
+    }
+
+    private static final class StringEntry extends Entry {
+        private final OffHeapSlabAllocator.Chunk value;
+
+        private StringEntry(OffHeapSlabAllocator.Chunk value) {
+            this.value = value;
+        }
+
+        @Override
+        void free(OffHeapSlabAllocator allocator) {
+            allocator.free(value);
+        }
+    }
+
+    private static final class HashEntry extends Entry {
+        private final Map<String, OffHeapSlabAllocator.Chunk> fields = new HashMap<>();
+
+        @Override
+        void free(OffHeapSlabAllocator allocator) {
+            for (OffHeapSlabAllocator.Chunk chunk : fields.values()) {
+                allocator.free(chunk);
+            }
+            fields.clear();
+        }
+    }
+
+    private static final class ListEntry extends Entry {
+        private final ArrayDeque<OffHeapSlabAllocator.Chunk> elements = new ArrayDeque<>();
+
+        @Override
+        void free(OffHeapSlabAllocator allocator) {
+            for (OffHeapSlabAllocator.Chunk chunk : elements) {
+                allocator.free(chunk);
+            }
+            elements.clear();
+        }
+    }
+
+    /**
+     * sorted set 成员需要参与排序和查找 保存在堆内
+     */
+    private static final class ZSetEntry extends Entry {
+        private final Map<Member, Double> scores = new HashMap<>();
+        private final TreeSet<ScoredMember> ordered = new TreeSet<>();
+
+        private boolean add(byte[] value, double score) {
+            Member member = new Member(value);
+            Double old = scores.put(member, score);
+            if (old != null) {
+                ordered.remove(new ScoredMember(old, member));
+            }
+            ordered.add(new ScoredMember(score, member));
+            return old == null;
+        }
+
+        private boolean remove(byte[] value) {
+            Member member = new Member(value);
+            Double old = scores.remove(member);
+            if (old == null) {
+                return false;
+            }
+            ordered.remove(new ScoredMember(old, member));
+            return true;
+        }
+
+        private Set<byte[]> range(double min, double max, long offset, long count, boolean reverse) {
+            Set<byte[]> result = new LinkedHashSet<>();
+            NavigableSet<ScoredMember> view = ordered.subSet(ScoredMember.lowest(min), true,
+                    ScoredMember.highest(max), true);
+            if (reverse) {
+                view = view.descendingSet();
+            }
+            long skipped = 0;
+            for (ScoredMember scored : view) {
+                if (skipped++ < offset) {
+                    continue;
+                }
+                if (count >= 0 && result.size() >= count) {
+                    break;
+                }
+                result.add(scored.member.bytes);
+            }
+            return result;
+        }
+
+        @Override
+        void free(OffHeapSlabAllocator allocator) {
+            scores.clear();
+            ordered.clear();
+        }
+    }
+
+    private static final class Member {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Member(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Member && Arrays.equals(bytes, ((Member) o).bytes);
+        }
+    }
+
+    /**
+     * 按 score 排序 score 相同时按成员的字节序排序，与 redis 一致
+     */
+    private static final class ScoredMember implements Comparable<ScoredMember> {
+        private static final Member LOWEST = new Member(new byte[0]);
+
+        private final double score;
+        private final Member member;
+
+        private ScoredMember(double score, Member member) {
+            this.score = score;
+            this.member = member;
+        }
+
+        private static ScoredMember lowest(double score) {
+            return new ScoredMember(score, LOWEST);
+        }
+
+        private static ScoredMember highest(double score) {
+            return new ScoredMember(score, null);
+        }
+
+        @Override
+        public int compareTo(ScoredMember o) {
+            int c = Double.compare(score, o.score);
+            if (c != 0) {
+                return c;
+            }
+            // member 为 null 表示该 score 下的最大值
+            if (member == null || o.member == null) {
+                return member == o.member ? 0 : (member == null ? 1 : -1);
+            }
+            byte[] a = member.bytes;
+            byte[] b = o.member.bytes;
+            for (int i = 0; i < Math.min(a.length, b.length); i++) {
+                int d = (a[i] & 0xff) - (b[i] & 0xff);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
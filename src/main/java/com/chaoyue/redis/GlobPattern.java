@@ -0,0 +1,105 @@
+package com.chaoyue.redis;
+
+/**
+ * redis KEYS/SCAN 的 glob 匹配规则
+ * 支持 * ? [abc] [^a] [a-z] 以及 \ 转义，与 redis 的 stringmatchlen 行为一致
+ */
+final class GlobPattern {
+
+    private GlobPattern() {
+    }
+
+    /**
+     * pattern 为null时匹配所有
+     */
+    static boolean matches(String pattern, String text) {
+        return pattern == null || matches(pattern, 0, text, 0);
+    }
+
+    private static boolean matches(String p, int pi, String s, int si) {
+        int plen = p.length();
+        int slen = s.length();
+        while (pi < plen) {
+            char c = p.charAt(pi);
+            if (c == '\\' && pi + 1 < plen) {
+                // 转义的字符按普通字符比较 末尾单独的 \ 按普通字符处理
+                pi++;
+                if (si >= slen || s.charAt(si) != p.charAt(pi)) {
+                    return false;
+                }
+                si++;
+                pi++;
+                continue;
+            }
+            switch (c) {
+                case '*':
+                    while (pi + 1 < plen && p.charAt(pi + 1) == '*') {
+                        pi++;
+                    }
+                    if (pi + 1 == plen) {
+                        return true;
+                    }
+                    for (int i = si; i <= slen; i++) {
+                        if (matches(p, pi + 1, s, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case '?':
+                    if (si >= slen) {
+                        return false;
+                    }
+                    si++;
+                    break;
+                case '[': {
+                    if (si >= slen) {
+                        return false;
+                    }
+                    pi++;
+                    boolean not = pi < plen && p.charAt(pi) == '^';
+                    if (not) {
+                        pi++;
+                    }
+                    boolean match = false;
+                    char sc = s.charAt(si);
+                    while (pi < plen && p.charAt(pi) != ']') {
+                        char pc = p.charAt(pi);
+                        if (pc == '\\' && pi + 1 < plen) {
+                            pi++;
+                            match |= p.charAt(pi) == sc;
+                        } else if (pi + 2 < plen && p.charAt(pi + 1) == '-' && p.charAt(pi + 2) != ']') {
+                            char start = pc;
+                            char end = p.charAt(pi + 2);
+                            if (start > end) {
+                                char t = start;
+                                start = end;
+                                end = t;
+                            }
+                            match |= sc >= start && sc <= end;
+                            pi += 2;
+                        } else {
+                            match |= pc == sc;
+                        }
+                        pi++;
+                    }
+                    if (not) {
+                        match = !match;
+                    }
+                    if (!match) {
+                        return false;
+                    }
+                    si++;
+                    break;
+                }
+                default:
+                    if (si >= slen || s.charAt(si) != c) {
+                        return false;
+                    }
+                    si++;
+                    break;
+            }
+            pi++;
+        }
+        return si == slen;
+    }
+}
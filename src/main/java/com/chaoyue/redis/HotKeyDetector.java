@@ -0,0 +1,510 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点 key 探测
+ * 读操作按 1/sampleRate 抽样计入 count-min sketch，滑动窗口由 slices 个 sketch 轮转组成，估计值为窗口内各 sketch 之和
+ * 估计值最大的 topK 个 key 为跟踪中的 key，其中估计值达到 hotThreshold 的为热点 key；
+ * 跟踪中的 key 不加锁只更新估计值，其他 key 的估计值超过跟踪中的最小值时才加锁替换最小的一个
+ * key 按编码后的字节计数，读写路径直接使用已编码的 key，不再拼接字符串
+ * promote 默认关闭，开启时热点 key 的读取结果在本地保留 localTtl 毫秒，key 不再是热点后本地副本随之清除
+ * 每次调用的开销固定，内存占用只与 width、depth、slices、topK 有关，与 key 的数量无关
+ * 本地副本只在本进程的写操作时清除，其他节点的写入最多延迟 localTtl 可见
+ */
+@Slf4j
+public class HotKeyDetector {
+
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xD3A2646C,
+            0xFD7046C5, 0xB55A4F09};
+
+    /**
+     * 抽样比例 每 sampleRate 次读取记录一次
+     */
+    private int sampleRate = 8;
+
+    /**
+     * sketch 每行的计数器个数 必须是 2 的幂
+     */
+    private int width = 2048;
+
+    /**
+     * sketch 的行数 最大 8
+     */
+    private int depth = 4;
+
+    /**
+     * 滑动窗口长度 单位毫秒
+     */
+    private long windowMillis = 10000;
+
+    /**
+     * 滑动窗口分片数
+     */
+    private int slices = 5;
+
+    /**
+     * 跟踪的 key 数量
+     */
+    private int topK = 32;
+
+    /**
+     * 窗口内估计读取次数达到该值才算热点
+     */
+    private long hotThreshold = 10000;
+
+    /**
+     * 是否在本地保留热点 key 的副本
+     */
+    private boolean promote = false;
+
+    /**
+     * 本地副本的存活时间 单位毫秒
+     */
+    private long localTtl = 1000;
+
+    private AtomicIntegerArray[] sketches;
+
+    private long sliceMillis;
+
+    private volatile long currentSlice;
+
+    /**
+     * 跟踪中的 key 只在持有锁时增删
+     */
+    private final ConcurrentMap<Key, Candidate> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * 跟踪中的 key 的最小估计值 未满 topK 时为0；已跟踪的 key 的估计值不加锁更新，该值可能偏小，只会多走一次 offer
+     */
+    private volatile long trackedMin;
+
+    private volatile Set<Key> hotKeys = Collections.emptySet();
+
+    private volatile Set<String> hotKeyNames = Collections.emptySet();
+
+    private final ConcurrentMap<Key, LocalCopy> localCopies = new ConcurrentHashMap<>();
+
+    private final LongAdder localHits = new LongAdder();
+
+    public HotKeyDetector() {
+        init();
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    public void setWidth(int width) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("width must be a power of two but was " + width);
+        }
+        this.width = width;
+        init();
+    }
+
+    public void setDepth(int depth) {
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("depth must be between 1 and " + SEEDS.length);
+        }
+        this.depth = depth;
+        init();
+    }
+
+    /**
+     * @param windowMillis 单位毫秒
+     */
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+        init();
+    }
+
+    public void setSlices(int slices) {
+        this.slices = Math.max(1, slices);
+        init();
+    }
+
+    public void setTopK(int topK) {
+        this.topK = Math.max(1, topK);
+    }
+
+    public void setHotThreshold(long hotThreshold) {
+        this.hotThreshold = hotThreshold;
+    }
+
+    public void setPromote(boolean promote) {
+        this.promote = promote;
+        if (!promote) {
+            localCopies.clear();
+        }
+    }
+
+    /**
+     * @param localTtl 单位毫秒
+     */
+    public void setLocalTtl(long localTtl) {
+        this.localTtl = localTtl;
+    }
+
+    private synchronized void init() {
+        sketches = new AtomicIntegerArray[slices];
+        for (int i = 0; i < slices; i++) {
+            sketches[i] = new AtomicIntegerArray(width * depth);
+        }
+        sliceMillis = Math.max(1, windowMillis / slices);
+        currentSlice = System.currentTimeMillis() / sliceMillis;
+        candidates.clear();
+        trackedMin = 0;
+        hotKeys = Collections.emptySet();
+        hotKeyNames = Collections.emptySet();
+        localCopies.clear();
+    }
+
+    /**
+     * 记录一次读取 按 sampleRate 抽样
+     */
+    public void record(String key) {
+        record(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 记录一次读取 key 为编码后的字节，抽样命中时才创建 Key
+     */
+    void record(byte[] rawKey) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        Key key = new Key(rawKey);
+        long slice = System.currentTimeMillis() / sliceMillis;
+        if (slice != currentSlice) {
+            rotate(slice);
+        }
+        AtomicIntegerArray[] sketches = this.sketches;
+        AtomicIntegerArray current = sketches[(int) (slice % sketches.length)];
+        int hash = spread(key.hash);
+        for (int row = 0; row < depth; row++) {
+            current.addAndGet(index(hash, row), sampleRate);
+        }
+        long estimate = estimate(sketches, hash);
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            candidate.count = estimate;
+            // 时间片内估计值只增不减 变为热点只需检查一次
+            if (estimate >= hotThreshold && !hotKeys.contains(key)) {
+                refreshHotKeys();
+            }
+        } else if (estimate > trackedMin) {
+            offer(key, estimate);
+        }
+    }
+
+    /**
+     * 是否为热点 key
+     */
+    public boolean isHot(String key) {
+        return hotKeyNames.contains(key);
+    }
+
+    /**
+     * 窗口内的估计读取次数
+     */
+    public long estimate(String key) {
+        return estimate(sketches, spread(Arrays.hashCode(key.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * 当前跟踪的 key 按估计读取次数从高到低排列
+     */
+    public synchronized List<HotKey> getTopKeys() {
+        List<HotKey> keys = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates.values()) {
+            keys.add(new HotKey(candidate.key.toString(), candidate.count, candidate.count >= hotThreshold));
+        }
+        Collections.sort(keys, new Comparator<HotKey>() {
+            @Override
+            public int compare(HotKey o1, HotKey o2) {
+                return Long.compare(o2.getCount(), o1.getCount());
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * 当前的热点 key
+     */
+    public Set<String> getHotKeys() {
+        return hotKeyNames;
+    }
+
+    /**
+     * 读取热点 key 的本地副本
+     *
+     * @param string 是否为 getString 的结果
+     * @return 没有副本或已过期时返回null
+     */
+    Object getLocal(byte[] rawKey, boolean string) {
+        if (!promote || hotKeys.isEmpty()) {
+            return null;
+        }
+        Key key = new Key(rawKey);
+        if (!hotKeys.contains(key)) {
+            return null;
+        }
+        LocalCopy copy = localCopies.get(key);
+        if (copy == null || copy.string != string) {
+            return null;
+        }
+        if (copy.expireAt <= System.currentTimeMillis()) {
+            localCopies.remove(key, copy);
+            return null;
+        }
+        localHits.increment();
+        return copy.value;
+    }
+
+    /**
+     * 热点 key 的读取结果保存为本地副本
+     */
+    void promote(byte[] rawKey, Object value, boolean string) {
+        if (!promote || value == null || hotKeys.isEmpty()) {
+            return;
+        }
+        Key key = new Key(rawKey);
+        if (hotKeys.contains(key)) {
+            localCopies.put(key, new LocalCopy(value, string, System.currentTimeMillis() + localTtl));
+        }
+    }
+
+    /**
+     * 本进程写入 key 时清除本地副本
+     */
+    void evict(byte[] rawKey) {
+        if (!localCopies.isEmpty()) {
+            localCopies.remove(new Key(rawKey));
+        }
+    }
+
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    public int getLocalCopies() {
+        return localCopies.size();
+    }
+
+    private long estimate(AtomicIntegerArray[] sketches, int hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = index(hash, row);
+            long sum = 0;
+            for (AtomicIntegerArray sketch : sketches) {
+                sum += sketch.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 尝试跟踪新的 key 已满 topK 时替换估计值最小的 key
+     */
+    private synchronized void offer(Key key, long estimate) {
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            // 其他线程已加入
+            candidate.count = estimate;
+        } else {
+            boolean evictedHot = false;
+            if (candidates.size() >= topK) {
+                Candidate min = minCandidate();
+                if (estimate <= min.count) {
+                    trackedMin = min.count;
+                    return;
+                }
+                candidates.remove(min.key);
+                evictedHot = hotKeys.contains(min.key);
+            }
+            candidates.put(key, new Candidate(key, estimate));
+            updateTrackedMin();
+            if (evictedHot) {
+                refreshHotKeys();
+                return;
+            }
+        }
+        if (estimate >= hotThreshold && !hotKeys.contains(key)) {
+            refreshHotKeys();
+        }
+    }
+
+    private Candidate minCandidate() {
+        Candidate min = null;
+        for (Candidate candidate : candidates.values()) {
+            if (min == null || candidate.count < min.count) {
+                min = candidate;
+            }
+        }
+        return min;
+    }
+
+    private void updateTrackedMin() {
+        trackedMin = candidates.size() < topK ? 0 : minCandidate().count;
+    }
+
+    /**
+     * 进入新的时间片 清空最旧的 sketch 并重新估计跟踪中的 key
+     */
+    private synchronized void rotate(long slice) {
+        long last = currentSlice;
+        if (slice <= last) {
+            return;
+        }
+        AtomicIntegerArray[] sketches = this.sketches;
+        long steps = Math.min(slice - last, sketches.length);
+        for (long s = 1; s <= steps; s++) {
+            AtomicIntegerArray sketch = sketches[(int) ((last + s) % sketches.length)];
+            for (int i = 0; i < sketch.length(); i++) {
+                sketch.set(i, 0);
+            }
+        }
+        currentSlice = slice;
+        for (Candidate candidate : candidates.values()) {
+            candidate.count = estimate(sketches, spread(candidate.key.hash));
+        }
+        updateTrackedMin();
+        refreshHotKeys();
+    }
+
+    private synchronized void refreshHotKeys() {
+        Set<Key> hot = new HashSet<>();
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.count >= hotThreshold) {
+                hot.add(candidate.key);
+            }
+        }
+        if (hot.equals(hotKeys)) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        for (Key key : hot) {
+            names.add(key.toString());
+            if (!hotKeys.contains(key)) {
+                log.info("hot key detected:" + key + " estimated reads in window:" + candidates.get(key).count);
+            }
+        }
+        localCopies.keySet().retainAll(hot);
+        hotKeys = hot;
+        hotKeyNames = Collections.unmodifiableSet(names);
+    }
+
+    private int index(int hash, int row) {
+        return row * width + (spread(hash ^ SEEDS[row]) & (width - 1));
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 编码后的 key 按内容比较
+     */
+    private static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Candidate {
+        private final Key key;
+        private volatile long count;
+
+        private Candidate(Key key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    private static final class LocalCopy {
+        private final Object value;
+        private final boolean string;
+        private final long expireAt;
+
+        private LocalCopy(Object value, boolean string, long expireAt) {
+            this.value = value;
+            this.string = string;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 热点 key 报告
+     */
+    public static final class HotKey {
+        private final String key;
+        private final long count;
+        private final boolean hot;
+
+        private HotKey(String key, long count, boolean hot) {
+            this.key = key;
+            this.count = count;
+            this.hot = hot;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 窗口内的估计读取次数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public boolean isHot() {
+            return hot;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + (hot ? "(hot)" : "");
+        }
+    }
+}
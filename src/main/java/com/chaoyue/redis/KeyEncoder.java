@@ -0,0 +1,100 @@
+package com.chaoyue.redis;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * key 的 UTF-8 编码 结果与 StringRedisSerializer 一致
+ * 前缀在构造时编码一次；key 为 ASCII 时逐字符写入，只分配结果数组本身，
+ * 含非 ASCII 字符时先计算编码后的长度再写入，同样只分配一个大小正好的数组
+ * String.getBytes 每次会创建 CharsetEncoder 和一个按最大长度分配的临时数组
+ */
+public final class KeyEncoder {
+
+    /**
+     * 没有前缀
+     */
+    public static final KeyEncoder UTF8 = new KeyEncoder("");
+
+    private final String prefix;
+
+    private final byte[] prefixBytes;
+
+    public KeyEncoder(String prefix) {
+        this.prefix = prefix == null ? "" : prefix;
+        this.prefixBytes = this.prefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * 编码 prefix + key
+     */
+    public byte[] encode(String key) {
+        int offset = prefixBytes.length;
+        int length = key.length();
+        byte[] bytes = new byte[offset + length];
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                return encodeNonAscii(key, i);
+            }
+            bytes[offset + i] = (byte) c;
+        }
+        System.arraycopy(prefixBytes, 0, bytes, 0, offset);
+        return bytes;
+    }
+
+    /**
+     * @param from 第一个非 ASCII 字符的位置 之前的字符都是 ASCII
+     */
+    private byte[] encodeNonAscii(String key, int from) {
+        int length = key.length();
+        int size = prefixBytes.length + from;
+        for (int i = from; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(key.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符 与 String.getBytes 一样替换为 '?'
+                size += 1;
+            } else {
+                size += 3;
+            }
+        }
+        byte[] bytes = new byte[size];
+        System.arraycopy(prefixBytes, 0, bytes, 0, prefixBytes.length);
+        int pos = prefixBytes.length;
+        for (int i = 0; i < from; i++) {
+            bytes[pos++] = (byte) key.charAt(i);
+        }
+        for (int i = from; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xc0 | c >> 6);
+                bytes[pos++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(key.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, key.charAt(++i));
+                bytes[pos++] = (byte) (0xf0 | cp >> 18);
+                bytes[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                bytes[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                bytes[pos++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                bytes[pos++] = '?';
+            } else {
+                bytes[pos++] = (byte) (0xe0 | c >> 12);
+                bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,100 @@
+package com.chaoyue.redis;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于 kryo 的紧凑二进制编码
+ * 注册过的类只写入一个整数编号，未注册的类写入完整类名
+ * 注册的顺序决定编号，所有读写同一份数据的节点必须使用相同的注册列表，只能在末尾追加
+ */
+public class KryoValueCodec implements ValueCodec {
+
+    /**
+     * 注册编号的起始值 小于该值的编号 kryo 留给基本类型
+     */
+    private static final int FIRST_REGISTRATION_ID = 100;
+
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
+
+    /**
+     * 线程缓存的 Output 缓冲区超过该大小后丢弃 大对象仍可编码，但扩容后的缓冲区不会一直占用线程的内存
+     */
+    private static final int MAX_CACHED_BUFFER_SIZE = 64 * 1024;
+
+    private List<Class<?>> registeredClasses = Collections.emptyList();
+
+    private final KryoPool kryoPool = new KryoPool.Builder(new KryoFactory() {
+        @Override
+        public Kryo create() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(false);
+            // 没有无参构造函数的类也可以反序列化
+            kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+            int id = FIRST_REGISTRATION_ID;
+            for (Class<?> clazz : registeredClasses) {
+                kryo.register(clazz, id++);
+            }
+            return kryo;
+        }
+    }).softReferences().build();
+
+    private final ThreadLocal<Output> outputs = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output(OUTPUT_BUFFER_SIZE, -1);
+        }
+    };
+
+    /**
+     * 设置需要注册的类 需要在第一次编解码之前设置
+     */
+    public void setRegisteredClasses(List<Class<?>> registeredClasses) {
+        this.registeredClasses = new ArrayList<>(registeredClasses);
+    }
+
+    @Override
+    public byte getFormat() {
+        return ValueHeader.FORMAT_KRYO;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Kryo kryo = kryoPool.borrow();
+        Output output = outputs.get();
+        try {
+            output.clear();
+            output.writeByte(ValueHeader.MAGIC);
+            output.writeByte(getFormat());
+            kryo.writeClassAndObject(output, value);
+            return output.toBytes();
+        } finally {
+            if (output.getBuffer().length > MAX_CACHED_BUFFER_SIZE) {
+                outputs.remove();
+            }
+            kryoPool.release(kryo);
+        }
+    }
+
+    /**
+     * kryo 读取 ASCII 字符串时会临时修改 bytes 中的内容，同一个数组不能被多个线程同时解码
+     * 从 redis 读取的数组每次都是新的，不受影响
+     */
+    @Override
+    public Object decode(byte[] bytes, int offset) {
+        Kryo kryo = kryoPool.borrow();
+        try {
+            return kryo.readClassAndObject(new Input(bytes, offset, bytes.length - offset));
+        } finally {
+            kryoPool.release(kryo);
+        }
+    }
+}
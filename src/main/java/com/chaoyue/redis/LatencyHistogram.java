@@ -0,0 +1,114 @@
+package com.chaoyue.redis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图 单位微秒
+ * 桶按 2 的幂分段，每段再等分为 16 个子桶，相对误差不超过 1/16，记录时只做一次数组下标计算和原子自增，不分配对象
+ * 能记录的最大值约 19 小时，超出的记入最后一个桶
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_SHIFT = 32;
+
+    private static final long MAX_VALUE = (1L << (MAX_SHIFT + SUB_BUCKET_BITS + 1)) - 1;
+
+    private static final int BUCKET_COUNT = (MAX_SHIFT + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder totalMicros = new LongAdder();
+
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(bucketIndex(Math.min(micros, MAX_VALUE)));
+        totalMicros.add(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    /**
+     * 记录次数
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * 百分位耗时 单位微秒 返回所在桶的上界
+     *
+     * @param percentile 0 到 100 之间 如 99.9
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totalMicros.sum() / count;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        totalMicros.reset();
+        maxMicros.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < (SUB_BUCKET_COUNT << 1)) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < (SUB_BUCKET_COUNT << 1)) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long sub = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,68 @@
+package com.chaoyue.redis;
+
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.script.DigestUtils;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * redis 服务端执行的 Lua 脚本
+ * SHA1 在创建时计算一次，执行时优先使用 EVALSHA，服务端没有缓存该脚本(NOSCRIPT)时退回 EVAL 并由服务端缓存
+ * 脚本对象不可变，一般定义为常量复用 见 LuaScripts
+ */
+public class LuaScript {
+
+    private final String name;
+
+    private final byte[] scriptBytes;
+
+    private final String sha1;
+
+    private final ReturnType returnType;
+
+    private final String operation;
+
+    /**
+     * @param name       脚本名称 用于日志
+     * @param script     脚本内容
+     * @param returnType 返回值类型 INTEGER 对应 Long，VALUE 对应 byte[]，MULTI 对应 List
+     */
+    public LuaScript(String name, String script, ReturnType returnType) {
+        Assert.hasText(script, "script must not be empty");
+        Assert.notNull(returnType, "returnType must not be null");
+        this.name = name;
+        this.scriptBytes = script.getBytes(StandardCharsets.UTF_8);
+        this.sha1 = DigestUtils.sha1DigestAsHex(script);
+        this.returnType = returnType;
+        this.operation = "eval:" + name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getScriptBytes() {
+        return scriptBytes;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    public ReturnType getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * 指标中使用的操作名
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + sha1 + ")";
+    }
+}
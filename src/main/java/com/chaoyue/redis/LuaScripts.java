@@ -0,0 +1,218 @@
+package com.chaoyue.redis;
+
+import org.springframework.data.redis.connection.ReturnType;
+
+/**
+ * 常用的组合操作脚本 每个脚本在服务端原子执行，只需要一次网络往返
+ */
+public final class LuaScripts {
+
+    /**
+     * INCRBY 后设置毫秒过期时间
+     * KEYS[1] key ARGV[1] 增量 ARGV[2] 过期时间(毫秒)
+     */
+    public static final LuaScript INCR_BY_PEXPIRE = new LuaScript("incrByPexpire",
+            "local count = redis.call('INCRBY', KEYS[1], ARGV[1]) "
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[2]) "
+                    + "return count",
+            ReturnType.INTEGER);
+
+    /**
+     * GETSET 后设置过期时间
+     * KEYS[1] key ARGV[1] 新值 ARGV[2] 过期时间(秒)
+     */
+    public static final LuaScript GET_SET_EXPIRE = new LuaScript("getSetExpire",
+            "local old = redis.call('GETSET', KEYS[1], ARGV[1]) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[2]) "
+                    + "return old",
+            ReturnType.VALUE);
+
+    /**
+     * key 不存在时赋值并设置毫秒过期时间 (SET NX PX)
+     * KEYS[1] key ARGV[1] 值 ARGV[2] 过期时间(毫秒) 返回1表示成功
+     */
+    public static final LuaScript SET_NX_PX = new LuaScript("setNxPx",
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 else return 0 end",
+            ReturnType.INTEGER);
+
+    /**
+     * 值等于期望值时删除
+     * KEYS[1] key ARGV[1] 期望值 返回删除的数量
+     */
+    public static final LuaScript COMPARE_AND_DELETE = new LuaScript("compareAndDelete",
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end",
+            ReturnType.INTEGER);
+
+    /**
+     * 从列表头部取出最多 N 个元素
+     * KEYS[1] key ARGV[1] 最多取出的数量 返回取出的元素
+     */
+    public static final LuaScript LIST_POP_BATCH = new LuaScript("listPopBatch",
+            "local items = redis.call('LRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1) "
+                    + "if #items > 0 then redis.call('LTRIM', KEYS[1], #items, -1) end "
+                    + "return items",
+            ReturnType.MULTI);
+
+    /**
+     * 可靠队列领取 从队列尾部 RPOPLPUSH 到处理中列表，并在截止时间集合中记录处理截止时间
+     * KEYS[1] 队列 KEYS[2] 处理中列表 KEYS[3] 截止时间集合 ARGV[1] 最多领取的数量 ARGV[2] 截止时间(毫秒时间戳)
+     * 返回领取的元素
+     */
+    public static final LuaScript QUEUE_CLAIM = new LuaScript("queueClaim",
+            "local items = {} "
+                    + "for i = 1, tonumber(ARGV[1]) do "
+                    + "local v = redis.call('RPOPLPUSH', KEYS[1], KEYS[2]) "
+                    + "if not v then break end "
+                    + "redis.call('ZADD', KEYS[3], ARGV[2], v) "
+                    + "items[#items + 1] = v "
+                    + "end "
+                    + "return items",
+            ReturnType.MULTI);
+
+    /**
+     * 可靠队列确认 从处理中列表和截止时间集合中移除
+     * KEYS[1] 处理中列表 KEYS[2] 截止时间集合 ARGV 要确认的元素 返回确认成功的数量
+     */
+    public static final LuaScript QUEUE_ACK = new LuaScript("queueAck",
+            "local acked = 0 "
+                    + "for i, v in ipairs(ARGV) do "
+                    + "acked = acked + redis.call('LREM', KEYS[1], -1, v) "
+                    + "redis.call('ZREM', KEYS[2], v) "
+                    + "end "
+                    + "return acked",
+            ReturnType.INTEGER);
+
+    /**
+     * 可靠队列回收 超过截止时间的元素放回队列尾部重新投递
+     * 处理中列表尾部(最早领取)没有截止时间的元素(BRPOPLPUSH 后消费者未来得及记录截止时间)补记截止时间
+     * KEYS[1] 队列 KEYS[2] 处理中列表 KEYS[3] 截止时间集合 ARGV[1] 当前时间(毫秒时间戳) ARGV[2] 每次最多处理的数量
+     * ARGV[3] 补记的截止时间 返回重新投递的数量
+     */
+    public static final LuaScript QUEUE_REAP = new LuaScript("queueReap",
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[3], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) "
+                    + "local requeued = 0 "
+                    + "for i, v in ipairs(expired) do "
+                    + "if redis.call('LREM', KEYS[2], -1, v) > 0 then "
+                    + "redis.call('RPUSH', KEYS[1], v) "
+                    + "requeued = requeued + 1 "
+                    + "end "
+                    + "redis.call('ZREM', KEYS[3], v) "
+                    + "end "
+                    + "for i, v in ipairs(redis.call('LRANGE', KEYS[2], -tonumber(ARGV[2]), -1)) do "
+                    + "if not redis.call('ZSCORE', KEYS[3], v) then redis.call('ZADD', KEYS[3], ARGV[3], v) end "
+                    + "end "
+                    + "return requeued",
+            ReturnType.INTEGER);
+
+    /**
+     * 延迟队列领取 取出最多 N 个到期的成员，visibility 模式下移入处理中集合并记录截止时间
+     * KEYS[1] 延迟队列 KEYS[2] 处理中集合 ARGV[1] 当前时间(毫秒时间戳) ARGV[2] 最多领取的数量 ARGV[3] 截止时间 0 表示领取后直接删除
+     * 返回值第一个元素为剩余成员中最早的到期时间(没有时为空串)，之后为领取的成员
+     */
+    public static final LuaScript DELAY_CLAIM = new LuaScript("delayClaim",
+            "local items = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) "
+                    + "local deadline = tonumber(ARGV[3]) "
+                    + "for i, v in ipairs(items) do "
+                    + "redis.call('ZREM', KEYS[1], v) "
+                    + "if deadline > 0 then redis.call('ZADD', KEYS[2], deadline, v) end "
+                    + "end "
+                    + "local head = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') "
+                    + "local result = {head[2] or ''} "
+                    + "for i, v in ipairs(items) do result[#result + 1] = v end "
+                    + "return result",
+            ReturnType.MULTI);
+
+    /**
+     * 延迟队列回收 处理中集合里超过截止时间的成员放回延迟队列立即到期
+     * KEYS[1] 延迟队列 KEYS[2] 处理中集合 ARGV[1] 当前时间(毫秒时间戳) ARGV[2] 每次最多处理的数量 返回放回的数量
+     */
+    public static final LuaScript DELAY_REAP = new LuaScript("delayReap",
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) "
+                    + "for i, v in ipairs(expired) do "
+                    + "redis.call('ZREM', KEYS[2], v) "
+                    + "redis.call('ZADD', KEYS[1], ARGV[1], v) "
+                    + "end "
+                    + "return #expired",
+            ReturnType.INTEGER);
+
+    /**
+     * 滑动窗口限流 用当前窗口和上一个窗口的计数按时间比例估算最近一个窗口内的请求数
+     * KEYS[1] key ARGV[1] 当前时间(毫秒时间戳) ARGV[2] 窗口(毫秒) ARGV[3] 窗口内的上限 ARGV[4] 最多获取的许可数
+     * ARGV[5] 最少获取的许可数 返回获取到的许可数 不足最少数量时为0
+     */
+    public static final LuaScript SLIDING_WINDOW_ACQUIRE = new LuaScript("slidingWindowAcquire",
+            "local now = tonumber(ARGV[1]) local window = tonumber(ARGV[2]) "
+                    + "local w = math.floor(now / window) "
+                    + "local d = redis.call('HMGET', KEYS[1], 'w', 'c', 'p') "
+                    + "local cw = tonumber(d[1]) local c = tonumber(d[2]) or 0 local p = tonumber(d[3]) or 0 "
+                    + "if cw ~= w then if cw == w - 1 then p = c else p = 0 end c = 0 end "
+                    + "local free = math.floor(tonumber(ARGV[3]) - c - p * (window - now % window) / window) "
+                    + "local grant = math.min(tonumber(ARGV[4]), free) "
+                    + "if grant < tonumber(ARGV[5]) then grant = 0 end "
+                    + "if grant > 0 or cw ~= w then "
+                    + "redis.call('HMSET', KEYS[1], 'w', w, 'c', c + grant, 'p', p) "
+                    + "redis.call('PEXPIRE', KEYS[1], window * 2) "
+                    + "end "
+                    + "return grant",
+            ReturnType.INTEGER);
+
+    /**
+     * 令牌桶限流 按上次访问以来的时间补充令牌 桶满后 key 过期，不存在的 key 视为满桶
+     * KEYS[1] key ARGV[1] 当前时间(毫秒时间戳) ARGV[2] 桶容量 ARGV[3] 每毫秒补充的令牌数 ARGV[4] 最多获取的令牌数
+     * ARGV[5] 最少获取的令牌数 返回获取到的令牌数 不足最少数量时为0
+     */
+    public static final LuaScript TOKEN_BUCKET_ACQUIRE = new LuaScript("tokenBucketAcquire",
+            "local now = tonumber(ARGV[1]) local capacity = tonumber(ARGV[2]) local rate = tonumber(ARGV[3]) "
+                    + "local d = redis.call('HMGET', KEYS[1], 't', 'ts') "
+                    + "local t = tonumber(d[1]) local ts = tonumber(d[2]) "
+                    + "if not t then t = capacity ts = now end "
+                    + "if now > ts then t = math.min(capacity, t + (now - ts) * rate) ts = now end "
+                    + "local grant = math.min(tonumber(ARGV[4]), math.floor(t)) "
+                    + "if grant < tonumber(ARGV[5]) then grant = 0 end "
+                    + "if grant > 0 then "
+                    + "t = t - grant "
+                    + "redis.call('HMSET', KEYS[1], 't', t, 'ts', ts) "
+                    + "redis.call('PEXPIRE', KEYS[1], math.ceil((capacity - t) / rate) + 1) "
+                    + "end "
+                    + "return grant",
+            ReturnType.INTEGER);
+
+    /**
+     * 加锁 SET NX PX 成功后递增 fencing 计数
+     * KEYS[1] 锁 KEYS[2] fencing 计数 ARGV[1] 持有者 ARGV[2] 租期(毫秒)
+     * 成功返回新的 fencing token(>0)，失败返回锁剩余租期的相反数(<=0)
+     */
+    public static final LuaScript LOCK_ACQUIRE = new LuaScript("lockAcquire",
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then "
+                    + "return redis.call('INCR', KEYS[2]) "
+                    + "end "
+                    + "local ttl = redis.call('PTTL', KEYS[1]) "
+                    + "if ttl < 0 then ttl = 0 end "
+                    + "return -ttl",
+            ReturnType.INTEGER);
+
+    /**
+     * 续租 持有者相同时重新设置租期
+     * KEYS[1] 锁 ARGV[1] 持有者 ARGV[2] 租期(毫秒) 返回1表示成功
+     */
+    public static final LuaScript LOCK_RENEW = new LuaScript("lockRenew",
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end "
+                    + "return 0",
+            ReturnType.INTEGER);
+
+    /**
+     * 解锁 持有者相同时删除并发布通知
+     * KEYS[1] 锁 ARGV[1] 持有者 ARGV[2] 通知的 channel ARGV[3] 通知内容 返回1表示成功
+     */
+    public static final LuaScript LOCK_RELEASE = new LuaScript("lockRelease",
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('PUBLISH', ARGV[2], ARGV[3]) "
+                    + "return 1 "
+                    + "end "
+                    + "return 0",
+            ReturnType.INTEGER);
+
+    private LuaScripts() {
+    }
+}
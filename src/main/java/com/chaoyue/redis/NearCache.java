@@ -0,0 +1,318 @@
+package com.chaoyue.redis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的本地缓存(L1) 放在 RedisCache 前面缓存少量读多写少的热点数据
+ * 按容量做 LRU 淘汰，同时每个条目有存活时间，过期后重新从 redis 读取
+ * 数据分段存放以降低锁竞争，多节点之间依赖 redis 的发布订阅进行失效通知 见 NearCacheInvalidationListener
+ * 从 redis 读取前取 readStamp，读取后通过 put(key, value, stamp) 写入，读取期间 key 被 invalidate 过时不写入，
+ * 避免在写入或其他节点的失效通知之后缓存读到的旧值；每个分段记录最近 TOMBSTONES_PER_SEGMENT 个被 invalidate 的 key
+ * 设置 staleTtl 后过期的条目再保留 staleTtl，redis 不可用时 RedisCache 通过 getStale 读取，恢复后的读取会刷新这些条目
+ * 注意: 命中时返回的是缓存中的同一个对象实例，调用方不应修改返回的对象
+ */
+public class NearCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final int TOMBSTONES_PER_SEGMENT = 64;
+
+    private final Segment[] segments;
+
+    /**
+     * invalidate 的序号
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder staleHitCount = new LongAdder();
+
+    /**
+     * 最大缓存条目数
+     */
+    private volatile int maxSize = 10000;
+
+    /**
+     * 条目存活时间 单位毫秒
+     */
+    private volatile long ttl = 60000;
+
+    /**
+     * 过期后仍可作为旧值读取的时间 单位毫秒
+     */
+    private volatile long staleTtl;
+
+    /**
+     * 失效通知的渠道
+     */
+    private String invalidationChannel = "chaoyue:near_cache:invalidate";
+
+    public NearCache() {
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl 单位毫秒
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getStaleTtl() {
+        return staleTtl;
+    }
+
+    /**
+     * @param staleTtl 单位毫秒 0 表示过期即删除
+     */
+    public void setStaleTtl(long staleTtl) {
+        this.staleTtl = staleTtl;
+    }
+
+    public String getInvalidationChannel() {
+        return invalidationChannel;
+    }
+
+    public void setInvalidationChannel(String invalidationChannel) {
+        this.invalidationChannel = invalidationChannel;
+    }
+
+    /**
+     * 从本地缓存中读取
+     *
+     * @return 未命中或已过期时返回null
+     */
+    public Object get(String key) {
+        Segment segment = segmentFor(key);
+        Object value = null;
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null) {
+                long now = System.currentTimeMillis();
+                if (entry.expireAt > now) {
+                    value = entry.value;
+                } else if (entry.expireAt + staleTtl <= now) {
+                    segment.remove(key);
+                }
+            }
+        }
+        if (value == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 从本地缓存中读取 到固定的对象 类型不匹配时视为未命中
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Class<T> t) {
+        Object value = get(key);
+        if (t.isInstance(value)) {
+            return (T) value;
+        }
+        return null;
+    }
+
+    /**
+     * 读取旧值 包括已过期但未超过 staleTtl 的条目 用于 redis 不可用时降级
+     *
+     * @return 没有或类型不匹配时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getStale(String key, Class<T> t) {
+        Segment segment = segmentFor(key);
+        Object value = null;
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null && entry.expireAt + staleTtl > System.currentTimeMillis()) {
+                value = entry.value;
+            }
+        }
+        if (t.isInstance(value)) {
+            staleHitCount.increment();
+            return (T) value;
+        }
+        return null;
+    }
+
+    /**
+     * 保存至本地缓存
+     */
+    public void put(String key, Object value) {
+        if (key == null || value == null) {
+            return;
+        }
+        Segment segment = segmentFor(key);
+        Entry entry = new Entry(value, System.currentTimeMillis() + ttl);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    /**
+     * 从 redis 读取前调用 读取到的值通过 put(key, value, stamp) 写入
+     */
+    public long readStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * 保存从 redis 读取到的值 取得 stamp 之后 key 被 invalidate 过时不保存
+     *
+     * @param stamp 读取前 readStamp 的返回值
+     * @return 是否保存
+     */
+    public boolean put(String key, Object value, long stamp) {
+        if (key == null || value == null) {
+            return false;
+        }
+        Segment segment = segmentFor(key);
+        Entry entry = new Entry(value, System.currentTimeMillis() + ttl);
+        synchronized (segment) {
+            if (segment.tombstones.invalidatedSince(key, stamp)) {
+                return false;
+            }
+            segment.put(key, entry);
+        }
+        return true;
+    }
+
+    /**
+     * 从本地缓存中移除
+     */
+    public void invalidate(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+            segment.tombstones.remove(key);
+            segment.tombstones.put(key, invalidations.incrementAndGet());
+        }
+    }
+
+    /**
+     * 清空本地缓存
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.tombstones.clear();
+                segment.tombstones.floor = invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * getStale 返回旧值的次数
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.sum();
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 按访问顺序排列的 LinkedHashMap 超出分段容量时淘汰最久未访问的条目
+     */
+    private final class Segment extends LinkedHashMap<String, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Tombstones tombstones = new Tombstones();
+
+        private Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > Math.max(1, maxSize / SEGMENT_COUNT);
+        }
+    }
+
+    /**
+     * 分段内最近被 invalidate 的 key 及其序号 超出数量时淘汰最早的，淘汰的序号记入 floor
+     */
+    private static final class Tombstones extends LinkedHashMap<String, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * 已淘汰的 key 中最大的序号 不再记得具体的 key，stamp 小于它的读取都不保存
+         */
+        private long floor;
+
+        private boolean invalidatedSince(String key, long stamp) {
+            if (floor > stamp) {
+                return true;
+            }
+            Long invalidation = get(key);
+            return invalidation != null && invalidation > stamp;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() > TOMBSTONES_PER_SEGMENT) {
+                floor = Math.max(floor, eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.chaoyue.redis;
+
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 本地缓存失效通知的监听
+ * RedisCache 写入或删除时会在 NearCache 的失效渠道上发布 key，每个节点收到后移除本地缓存中对应的条目
+ */
+@Slf4j
+public class NearCacheInvalidationListener implements MessageListener {
+    @Autowired
+    private RedisSerializer<String> stringRedisSerializer;
+
+    private NearCache nearCache;
+
+    public void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = stringRedisSerializer.deserialize(message.getBody());
+        if (key != null && nearCache != null) {
+            nearCache.invalidate(key);
+            if (log.isDebugEnabled()) {
+                log.debug("near cache invalidate key:" + key);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.chaoyue.redis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外内存的 slab 分配器
+ * 内存按 pageSize 为单位从 direct ByteBuffer 申请，每个 page 只切分为一种大小的 chunk，chunk 大小从 64 字节起按 2 的倍数增长
+ * 释放的 chunk 放回对应大小的空闲列表复用，value 存放在堆外，GC 只需要扫描很少的句柄对象
+ * 超过 pageSize 的 value 单独申请一块 direct 内存
+ * 达到 maxMemory 后分配失败抛出 IllegalStateException
+ */
+class OffHeapSlabAllocator {
+
+    private static final int MIN_CHUNK_BITS = 6;
+
+    private final int pageSize;
+
+    private final long maxMemory;
+
+    private final SizeClass[] sizeClasses;
+
+    private final List<ByteBuffer> pages = new ArrayList<>();
+
+    private final AtomicLong allocatedMemory = new AtomicLong();
+
+    private final AtomicLong usedMemory = new AtomicLong();
+
+    /**
+     * @param pageSize  每个 page 的大小 必须是 2 的幂且不小于 64
+     * @param maxMemory 最多申请的堆外内存
+     */
+    OffHeapSlabAllocator(int pageSize, long maxMemory) {
+        if (Integer.bitCount(pageSize) != 1 || pageSize < (1 << MIN_CHUNK_BITS)) {
+            throw new IllegalArgumentException("pageSize must be a power of two >= 64 but was " + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.maxMemory = maxMemory;
+        int classes = Integer.numberOfTrailingZeros(pageSize) - MIN_CHUNK_BITS + 1;
+        this.sizeClasses = new SizeClass[classes];
+        for (int i = 0; i < classes; i++) {
+            sizeClasses[i] = new SizeClass(1 << (MIN_CHUNK_BITS + i));
+        }
+    }
+
+    /**
+     * 把 value 复制到堆外
+     */
+    Chunk allocate(byte[] value) {
+        int length = value.length;
+        Chunk chunk;
+        if (length > pageSize) {
+            reserve(length);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            chunk = new Chunk(buffer, 0, length, -1);
+        } else {
+            int index = sizeClassIndex(length);
+            chunk = sizeClasses[index].allocate(length, index);
+        }
+        ByteBuffer target = chunk.buffer.duplicate();
+        target.position(chunk.offset);
+        target.put(value);
+        usedMemory.addAndGet(length);
+        return chunk;
+    }
+
+    /**
+     * 释放 chunk 释放后不能再读取
+     */
+    void free(Chunk chunk) {
+        if (chunk == null) {
+            return;
+        }
+        usedMemory.addAndGet(-chunk.length);
+        if (chunk.sizeClass < 0) {
+            // 单独申请的内存由 GC 回收 direct buffer
+            allocatedMemory.addAndGet(-chunk.length);
+        } else {
+            sizeClasses[chunk.sizeClass].free(chunk);
+        }
+    }
+
+    /**
+     * 已向系统申请的堆外内存
+     */
+    long getAllocatedMemory() {
+        return allocatedMemory.get();
+    }
+
+    /**
+     * value 实际占用的字节数
+     */
+    long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    private int sizeClassIndex(int length) {
+        if (length <= (1 << MIN_CHUNK_BITS)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_CHUNK_BITS;
+    }
+
+    private void reserve(long bytes) {
+        while (true) {
+            long current = allocatedMemory.get();
+            if (current + bytes > maxMemory) {
+                throw new IllegalStateException("off-heap memory exhausted, max " + maxMemory + " allocated "
+                        + current + " requested " + bytes);
+            }
+            if (allocatedMemory.compareAndSet(current, current + bytes)) {
+                return;
+            }
+        }
+    }
+
+    private ByteBuffer newPage() {
+        reserve(pageSize);
+        ByteBuffer page = ByteBuffer.allocateDirect(pageSize);
+        synchronized (pages) {
+            pages.add(page);
+        }
+        return page;
+    }
+
+    /**
+     * 一种 chunk 大小的空闲列表
+     */
+    private final class SizeClass {
+        private final int chunkSize;
+        private final List<Chunk> freeChunks = new ArrayList<>();
+        private ByteBuffer currentPage;
+        private int nextOffset;
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private synchronized Chunk allocate(int length, int index) {
+            Chunk free = freeChunks.isEmpty() ? null : freeChunks.remove(freeChunks.size() - 1);
+            if (free != null) {
+                return new Chunk(free.buffer, free.offset, length, index);
+            }
+            if (currentPage == null || nextOffset + chunkSize > pageSize) {
+                currentPage = newPage();
+                nextOffset = 0;
+            }
+            Chunk chunk = new Chunk(currentPage, nextOffset, length, index);
+            nextOffset += chunkSize;
+            return chunk;
+        }
+
+        private synchronized void free(Chunk chunk) {
+            freeChunks.add(chunk);
+        }
+    }
+
+    /**
+     * 一段堆外内存
+     */
+    static final class Chunk {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        private final int sizeClass;
+
+        private Chunk(ByteBuffer buffer, int offset, int length, int sizeClass) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.sizeClass = sizeClass;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * 复制到堆内
+         */
+        byte[] read() {
+            byte[] bytes = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset);
+            source.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * 与 bytes 的内容是否相同 不复制到堆内
+         */
+        boolean contentEquals(byte[] bytes) {
+            if (bytes == null || bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(offset + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.chaoyue.redis;
+
+import java.util.List;
+
+/**
+ * RedisMessageDispatcher 批量处理消息的回调
+ * worker 每次从队列取出最多 batchSize 条消息，其中属于该 handler 的消息一次交给 handle，顺序与收到的顺序一致
+ */
+public interface RedisBatchMessageHandler {
+
+    /**
+     * 处理一批消息 抛出异常时整批记为失败
+     */
+    void handle(List<RedisMessage> messages) throws Exception;
+}
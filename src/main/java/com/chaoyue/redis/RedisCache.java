@@ -4,19 +4,74 @@ package com.chaoyue.redis;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 public class RedisCache {
 
+    /**
+     * 未设置 loadLockTimeout 时等待本进程内其他线程加载的最长时间 单位毫秒
+     */
+    private static final long DEFAULT_LOAD_WAIT_TIMEOUT = 5000;
 
-    private DefaultRedisCacheManager redisManager;
+    private RedisCacheManager redisManager;
 
     private String prefix = "chaoyue:";
 
-    RedisCache(DefaultRedisCacheManager redisManager) {
+    /**
+     * 缓存 prefix 编码后的字节 redisManager 为 DefaultRedisCacheManager 时读写不再拼接 prefix + key
+     */
+    private final KeyEncoder keyEncoder = new KeyEncoder(prefix);
+
+    /**
+     * redisManager 为 DefaultRedisCacheManager 时不为null
+     */
+    private final DefaultRedisCacheManager encodingManager;
+
+    /**
+     * 可选的本地缓存 为null时不启用
+     */
+    private NearCache nearCache;
+
+    /**
+     * 可选的写缓冲 设置后 put、putString、delete 异步批量写入
+     */
+    private RedisWriteBehindBuffer writeBehindBuffer;
+
+    /**
+     * 加载数据时分布式锁的超时时间 单位毫秒 <=0 表示只在本进程内合并加载
+     */
+    private long loadLockTimeout;
+
+    /**
+     * 正在加载的 key 同一个 key 的并发加载共享同一个结果
+     */
+    private final ConcurrentMap<String, CompletableFuture<Object>> loadings = new ConcurrentHashMap<>();
+
+    RedisCache(RedisCacheManager redisManager) {
         super();
         this.redisManager = redisManager;
+        this.encodingManager = redisManager instanceof DefaultRedisCacheManager
+                ? (DefaultRedisCacheManager) redisManager : null;
+    }
+
+    void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    void setWriteBehindBuffer(RedisWriteBehindBuffer writeBehindBuffer) {
+        this.writeBehindBuffer = writeBehindBuffer;
+    }
+
+    void setLoadLockTimeout(long loadLockTimeout) {
+        this.loadLockTimeout = loadLockTimeout;
     }
 
 //    RedisCache(DefaultRedisCacheManager redisManager, String prefix) {
@@ -36,13 +91,18 @@ public class RedisCache {
     @SuppressWarnings("Duplicates")
     public Serializable put(String key, Serializable value, int seconds) {
         try {
-            if (seconds > 0) {
+            if (writeBehindBuffer != null) {
+                writeBehindBuffer.set(prefix + key, value, seconds);
+            } else if (encodingManager != null) {
+                encodingManager.set(keyEncoder, key, value, seconds);
+            } else if (seconds > 0) {
                 redisManager.set(prefix + key, value, seconds);
             } else {
                 redisManager.set(prefix + key, value);
             }
+            invalidate(key);
         } catch (Exception e) {
-            log.error("fail to put.", e);
+            logError("fail to put.", e);
         }
         return value;
     }
@@ -56,13 +116,18 @@ public class RedisCache {
     @SuppressWarnings("Duplicates")
     public String putString(String key, String value, int seconds) {
         try {
-            if (seconds > 0) {
+            if (writeBehindBuffer != null) {
+                writeBehindBuffer.set(prefix + key, value, seconds);
+            } else if (encodingManager != null) {
+                encodingManager.set(keyEncoder, key, value, seconds);
+            } else if (seconds > 0) {
                 redisManager.set(prefix + key, value, seconds);
             } else {
                 redisManager.set(prefix + key, value);
             }
+            invalidate(key);
         } catch (Exception e) {
-            log.error("fail to put.", e);
+            logError("fail to put.", e);
         }
         return value;
     }
@@ -72,32 +137,156 @@ public class RedisCache {
      *
      * @param key key
      * @param t   转换的类型
-     * @return 类型装换后的值
+     * @return 类型装换后的值 redis 不可用时返回本地缓存中的旧值，没有时返回null
      */
     public <T> T get(String key, Class<T> t) {
         try {
+            if (nearCache != null) {
+                T value = nearCache.get(key, t);
+                if (value != null) {
+                    return value;
+                }
+            }
+            long stamp = nearCache == null ? 0 : nearCache.readStamp();
+            T value = encodingManager != null
+                    ? encodingManager.get(keyEncoder, key, t) : redisManager.get(prefix + key, t);
+            if (nearCache != null) {
+                nearCache.put(key, value, stamp);
+            }
+            return value;
+        } catch (Exception e) {
+            logError("fail to get.", e);
+            return stale(key, t);
+        }
+    }
+
+    /**
+     * 根据key 获取相应的值 缓存中没有时通过 loader 加载并写入缓存
+     * 本进程内同一个 key 同时只有一个线程执行 loader，其他线程等待并共享加载结果，加载结果不是 t 的实例时自己加载
+     * 设置了 loadLockTimeout 时还会通过 redis 锁避免多个节点同时加载，没有拿到锁的节点等待其他节点写入缓存，
+     * 超时仍未写入时自己加载；等待本进程内其他线程的时间同样以 loadLockTimeout 为上限，超时后自己加载
+     *
+     * @param key     key
+     * @param t       转换的类型
+     * @param loader  缓存中没有时的加载方式
+     * @param seconds 过期时间 如果<0 则永不过期
+     * @return 缓存或加载的值 loader 返回null时不写入缓存
+     * @throws Exception loader 抛出的异常 等待同一次加载的线程收到相同的异常
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T get(String key, Class<T> t, Loader<T> loader, int seconds) throws Exception {
+        T value = get(key, t);
+        if (value != null) {
+            return value;
+        }
+        CompletableFuture<Object> loading = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loadings.putIfAbsent(key, loading);
+        if (existing != null) {
+            long waitTimeout = loadLockTimeout > 0 ? loadLockTimeout : DEFAULT_LOAD_WAIT_TIMEOUT;
+            Object result;
+            try {
+                result = existing.get(waitTimeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            } catch (TimeoutException e) {
+                log.warn("wait for loading timeout after " + waitTimeout + "ms, load by self, key: " + key);
+                return load(key, t, loader, seconds);
+            }
+            if (result == null || t.isInstance(result)) {
+                return (T) result;
+            }
+            // 同一个 key 正在以其他类型加载 结果不能共享，自己加载
+            return load(key, t, loader, seconds);
+        }
+        try {
+            value = load(key, t, loader, seconds);
+            loading.complete(value);
+            return value;
+        } catch (Exception e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(key, loading);
+        }
+    }
 
-            return redisManager.get(prefix + key, t);
+    private <T extends Serializable> T load(String key, Class<T> t, Loader<T> loader, int seconds)
+            throws Exception {
+        // 拿到加载权之前可能已经有线程写入
+        T value = get(key, t);
+        if (value != null) {
+            return value;
+        }
+        if (loadLockTimeout <= 0) {
+            return loadAndPut(key, loader, seconds);
+        }
+        String lockKey = prefix + "load_lock:" + key;
+        byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        boolean locked;
+        try {
+            locked = redisManager.setIfAbsent(lockKey, token, loadLockTimeout, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            log.error("fail to get.", e);
+            log.error("fail to lock for load, key: " + key, e);
+            return loadAndPut(key, loader, seconds);
+        }
+        if (locked) {
+            try {
+                return loadAndPut(key, loader, seconds);
+            } finally {
+                try {
+                    redisManager.deleteIfEquals(lockKey, token);
+                } catch (Exception e) {
+                    log.error("fail to unlock for load, key: " + key, e);
+                }
+            }
+        }
+        // 其他节点正在加载 等待其写入缓存
+        long deadline = System.currentTimeMillis() + loadLockTimeout;
+        long interval = Math.max(10, Math.min(100, loadLockTimeout / 10));
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(interval);
+            value = get(key, t);
+            if (value != null) {
+                return value;
+            }
+        }
+        return loadAndPut(key, loader, seconds);
+    }
+
+    private <T extends Serializable> T loadAndPut(String key, Loader<T> loader, int seconds) throws Exception {
+        T value = loader.load(key);
+        if (value != null) {
+            put(key, value, seconds);
         }
-        return null;
+        return value;
     }
 
     /**
      * 根据key 获取String类型的值
      *
      * @param key key
-     * @return String类型的值
+     * @return String类型的值 redis 不可用时返回本地缓存中的旧值，没有时返回null
      */
     public String getString(String key) {
         try {
-
-            return redisManager.getString(prefix + key);
+            if (nearCache != null) {
+                String value = nearCache.get(key, String.class);
+                if (value != null) {
+                    return value;
+                }
+            }
+            long stamp = nearCache == null ? 0 : nearCache.readStamp();
+            String value = encodingManager != null
+                    ? encodingManager.getString(keyEncoder, key) : redisManager.getString(prefix + key);
+            if (nearCache != null) {
+                nearCache.put(key, value, stamp);
+            }
+            return value;
         } catch (Exception e) {
-            log.error("fail to get.", e);
+            logError("fail to get.", e);
+            return stale(key, String.class);
         }
-        return null;
     }
 
     /**
@@ -107,7 +296,14 @@ public class RedisCache {
      */
     public void delete(String key) {
         try {
-            redisManager.del(key);
+            if (writeBehindBuffer != null) {
+                writeBehindBuffer.delete(prefix + key);
+            } else if (encodingManager != null) {
+                encodingManager.del(keyEncoder, key);
+            } else {
+                redisManager.del(prefix + key);
+            }
+            invalidate(key);
         } catch (Exception e) {
             log.error("delete redis error key : " + key);
         }
@@ -116,6 +312,7 @@ public class RedisCache {
     /**
      * 为 key 添加 delta 的计数 并返回 key当前的计数
      * 该方法主要用来给key进行短时间的应用计数，并在业务逻辑上控制加锁
+     * 每次调用都会重新设置过期时间，持续调用时计数不会归零，限流请使用 RedisRateLimiter
      *
      * @param key   key
      * @param delta 增量 一般为1
@@ -132,14 +329,55 @@ public class RedisCache {
                 // 默认为100毫秒失效
                 ms = 100;
             }
-            count = redisManager.increment(key, delta);
-            redisManager.expire(key, ms, TimeUnit.MILLISECONDS);
+            count = redisManager.increment(key, delta, ms, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            log.error("fail to increment", e);
+            logError("fail to increment", e);
         }
         return count;
     }
 
+    /**
+     * redis 不可用时的降级 返回本地缓存中的旧值，没有时返回null
+     */
+    private <T> T stale(String key, Class<T> t) {
+        return nearCache == null ? null : nearCache.getStale(key, t);
+    }
+
+    /**
+     * 熔断期间的失败不逐条记录异常栈 熔断器打开时已记录
+     */
+    private void logError(String msg, Exception e) {
+        if (e instanceof RedisCircuitOpenException) {
+            log.debug(msg + " " + e.getMessage());
+        } else {
+            log.error(msg, e);
+        }
+    }
+
+    /**
+     * 移除本地缓存 并通知其他节点移除
+     * 使用写缓冲时通知和写操作在同一个管道中发送，保证其他节点收到通知时数据已经写入
+     */
+    private void invalidate(String key) throws Exception {
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+            if (writeBehindBuffer != null) {
+                writeBehindBuffer.publish(nearCache.getInvalidationChannel(), key);
+            } else {
+                redisManager.publish(nearCache.getInvalidationChannel(), key);
+            }
+        }
+    }
+
+    /**
+     * 把写缓冲中的数据立即写入 redis 未使用写缓冲时不做任何事
+     */
+    public void flush() {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.flush();
+        }
+    }
+
     /**
      * 向渠道发布消息
      *
@@ -154,4 +392,20 @@ public class RedisCache {
         }
     }
 
+    /**
+     * 缓存中没有数据时的加载方式
+     *
+     * @param <T> 数据类型
+     */
+    public interface Loader<T> {
+
+        /**
+         * 加载数据 一般从数据库中读取
+         *
+         * @param key 不带前缀的key
+         * @return 数据 返回null时不写入缓存
+         */
+        T load(String key) throws Exception;
+    }
+
 }
@@ -15,12 +15,23 @@ public interface RedisCacheManager extends CacheManager {
 
     /**
      * 模糊查询，获取匹配的key
+     * 内部使用 SCAN 遍历不会阻塞redis，但会把所有匹配的key放入内存，key较多时使用 scan
      *
      * @param pattern 匹配的正则表达式
      * @return keys
      */
     Set<String> keys(final String pattern) throws Exception;
 
+    /**
+     * 使用 SCAN 渐进式遍历匹配的key 每次 SCAN 返回的一批key交给 callback 处理
+     * 内存占用只和 count 有关，与key的总数无关；遍历期间新增或删除的key可能返回也可能不返回，同一个key可能返回多次
+     *
+     * @param pattern  匹配的正则表达式
+     * @param count    SCAN 的 COUNT 参数 每批key的数量大约为该值
+     * @param callback 每批key的处理 返回false时停止遍历
+     */
+    void scan(String pattern, int count, ScanCallback<List<String>> callback) throws Exception;
+
     /**
      * hash 添加
      */
@@ -46,6 +57,22 @@ public interface RedisCacheManager extends CacheManager {
      */
     <T> Map<String, T> hGetAll(String key, Class<T> clazz) throws Exception;
 
+    /**
+     * 获取hash中的多个字段 一次网络往返，不存在的字段不在返回的map中
+     *
+     * @return 按 fieldKeys 的顺序
+     */
+    <T> Map<String, T> hMGet(String key, Class<T> clazz, String... fieldKeys) throws Exception;
+
+    /**
+     * 使用 HSCAN 渐进式遍历hash 每取到一批字段反序列化后交给 callback 处理
+     * 内存占用只和 count 有关，与字段总数无关，大hash代替 hGetAll 使用；遍历期间修改的字段可能返回也可能不返回
+     *
+     * @param count    HSCAN 的 COUNT 参数 每批字段的数量大约为该值
+     * @param callback 每批字段的处理 返回false时停止遍历
+     */
+    <T> void hScan(String key, int count, Class<T> clazz, ScanCallback<Map<String, T>> callback) throws Exception;
+
     /**
      * 队列移出
      */
@@ -95,7 +122,7 @@ public interface RedisCacheManager extends CacheManager {
     boolean zAdd(String key, byte[] value, double score) throws Exception;
 
     /**
-     * 获取并赋值
+     * 获取并赋值 time>0 时同时设置过期时间，两个操作原子执行
      */
     byte[] getSet(String key, byte[] values, long time, TimeUnit timeUnit) throws Exception;
 
@@ -104,6 +131,20 @@ public interface RedisCacheManager extends CacheManager {
      */
     byte[] getSet(String key, byte[] values, long time) throws Exception;
 
+    /**
+     * key 不存在时赋值并设置过期时间 两个操作原子执行
+     *
+     * @return 是否赋值成功
+     */
+    boolean setIfAbsent(String key, byte[] value, long timeout, TimeUnit unit) throws Exception;
+
+    /**
+     * 值等于 expected 时删除 比较和删除原子执行
+     *
+     * @return 是否删除
+     */
+    boolean deleteIfEquals(String key, byte[] expected) throws Exception;
+
     /**
      * 获取值在min到max直接的key，且倒序排列
      */
@@ -139,6 +180,17 @@ public interface RedisCacheManager extends CacheManager {
      */
     long increment(String key, Long delta) throws Exception;
 
+    /**
+     * 计算下一个递增key值 并重新设置过期时间 两个操作原子执行
+     *
+     * @param key     key
+     * @param delta   增量
+     * @param timeout 过期时间
+     * @param unit    时间单位
+     * @return 递增值
+     */
+    long increment(String key, Long delta, long timeout, TimeUnit unit) throws Exception;
+
     /**
      * 获取队列长度
      *
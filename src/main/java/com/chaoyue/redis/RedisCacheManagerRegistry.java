@@ -0,0 +1,140 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.util.Assert;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多 DB 的缓存管理器注册表
+ * 每个 dbIndex 拥有独立的连接池，池中的连接在创建时就已经选择好 DB，执行命令时不需要再发送 SELECT
+ */
+@Slf4j
+public class RedisCacheManagerRegistry implements InitializingBean, DisposableBean {
+
+    private String hostName = "localhost";
+
+    private int port = 6379;
+
+    private String password;
+
+    private int timeout = 2000;
+
+    private JedisPoolConfig poolConfig;
+
+    private List<Integer> dbIndexes = Collections.singletonList(0);
+
+    private RedisSerializer<Object> defRedisSerializer;
+
+    private RedisMetricsSink metricsSink;
+
+    private final Map<Integer, DefaultRedisCacheManager> managers = new LinkedHashMap<>();
+
+    private final List<DbBoundJedisConnectionFactory> connectionFactories = new ArrayList<>();
+
+    public void setHostName(String hostName) {
+        this.hostName = hostName;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * @param timeout 单位毫秒
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * 每个 DB 的连接池都使用这份配置
+     */
+    public void setPoolConfig(JedisPoolConfig poolConfig) {
+        this.poolConfig = poolConfig;
+    }
+
+    public void setDbIndexes(List<Integer> dbIndexes) {
+        this.dbIndexes = dbIndexes;
+    }
+
+    public void setDefRedisSerializer(RedisSerializer<Object> defRedisSerializer) {
+        this.defRedisSerializer = defRedisSerializer;
+    }
+
+    /**
+     * 所有 DB 的缓存管理器共用的指标接收者
+     */
+    public void setMetricsSink(RedisMetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notEmpty(dbIndexes, "dbIndexes is required");
+        for (Integer dbIndex : dbIndexes) {
+            DbBoundJedisConnectionFactory connectionFactory = poolConfig == null
+                    ? new DbBoundJedisConnectionFactory() : new DbBoundJedisConnectionFactory(poolConfig);
+            connectionFactory.setHostName(hostName);
+            connectionFactory.setPort(port);
+            connectionFactory.setPassword(password);
+            connectionFactory.setTimeout(timeout);
+            connectionFactory.setUsePool(true);
+            connectionFactory.setDatabase(dbIndex);
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+
+            RedisTemplate<String, Serializable> redisTemplate = new RedisTemplate<>();
+            redisTemplate.setConnectionFactory(connectionFactory);
+            redisTemplate.afterPropertiesSet();
+
+            DefaultRedisCacheManager manager = new DefaultRedisCacheManager();
+            manager.setRedisTemplate(redisTemplate);
+            manager.setDbIndex(dbIndex);
+            manager.setMetricsSink(metricsSink);
+            if (defRedisSerializer != null) {
+                manager.setDefRedisSerializer(defRedisSerializer);
+            }
+            managers.put(dbIndex, manager);
+        }
+    }
+
+    /**
+     * 获取指定 DB 的缓存管理器
+     */
+    public DefaultRedisCacheManager getCacheManager(int dbIndex) {
+        DefaultRedisCacheManager manager = managers.get(dbIndex);
+        if (manager == null) {
+            throw new IllegalArgumentException("db " + dbIndex + " is not configured, configured dbs: "
+                    + managers.keySet());
+        }
+        return manager;
+    }
+
+    @Override
+    public void destroy() {
+        for (DbBoundJedisConnectionFactory connectionFactory : connectionFactories) {
+            try {
+                connectionFactory.destroy();
+            } catch (Exception e) {
+                log.warn("fail to destroy redis connection factory db " + connectionFactory.getDatabase(), e);
+            }
+        }
+        connectionFactories.clear();
+        managers.clear();
+    }
+}
@@ -0,0 +1,279 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DefaultRedisCacheManager 执行命令的熔断器
+ * 最近 window 毫秒(分为 BUCKETS 个时间段滚动)内至少有 minimumCalls 次调用，且失败率达到 failureRateThreshold
+ * 或耗时超过 slowCallThreshold 毫秒的比例达到 slowCallRateThreshold 时打开，打开期间直接抛出 RedisCircuitOpenException 不访问 redis
+ * 打开 openDuration 毫秒后进入半开状态，最多放行 halfOpenProbes 个调用试探，全部成功后关闭，任何一个失败或过慢时重新打开
+ * 只有连接失败、超时和连接池耗尽计为失败，redis 返回的错误(如 WRONGTYPE)说明服务端正常，不计为失败
+ */
+@Slf4j
+public class RedisCircuitBreaker {
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int BUCKETS = 10;
+
+    /**
+     * 单位毫秒
+     */
+    private long window = 10000;
+
+    private int minimumCalls = 20;
+
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * 单位毫秒
+     */
+    private long slowCallThreshold = 1000;
+
+    private double slowCallRateThreshold = 0.8;
+
+    /**
+     * 单位毫秒
+     */
+    private long openDuration = 5000;
+
+    private int halfOpenProbes = 3;
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+
+    private volatile State state = State.CLOSED;
+
+    private volatile long openedAt;
+
+    private final AtomicInteger probesInFlight = new AtomicInteger();
+
+    private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder opened = new LongAdder();
+
+    public RedisCircuitBreaker() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * @param window 统计失败率的时间范围 单位毫秒
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * 时间范围内调用次数少于该值时不打开
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @param slowCallThreshold 单位毫秒 <=0 不按耗时打开
+     */
+    public void setSlowCallThreshold(long slowCallThreshold) {
+        this.slowCallThreshold = slowCallThreshold;
+    }
+
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * @param openDuration 单位毫秒
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 打开期间拒绝的调用次数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * 打开的次数
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    /**
+     * 调用前获取许可
+     *
+     * @return 放行时返回放行时的状态 CLOSED 或 HALF_OPEN，需要在调用结束后传给 onComplete；拒绝时返回 OPEN
+     */
+    public State tryAcquire() {
+        State current = state;
+        if (current == State.CLOSED) {
+            return State.CLOSED;
+        }
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                rejected.increment();
+                return State.OPEN;
+            }
+            halfOpen();
+        }
+        if (probesInFlight.incrementAndGet() > halfOpenProbes) {
+            probesInFlight.decrementAndGet();
+            rejected.increment();
+            return State.OPEN;
+        }
+        // 获取许可的同时已被其他试探重新打开或关闭
+        if (state != State.HALF_OPEN) {
+            probesInFlight.decrementAndGet();
+            return tryAcquire();
+        }
+        return State.HALF_OPEN;
+    }
+
+    /**
+     * 调用结束后记录结果
+     *
+     * @param admitted     tryAcquire 的返回值
+     * @param latencyNanos 耗时 单位纳秒
+     * @param failure      是否失败 见 isFailure
+     * @param timed        是否按耗时判断 阻塞命令和 scan 等耗时不固定的操作为false
+     */
+    public void onComplete(State admitted, long latencyNanos, boolean failure, boolean timed) {
+        boolean slow = timed && slowCallThreshold > 0
+                && latencyNanos > TimeUnit.MILLISECONDS.toNanos(slowCallThreshold);
+        if (admitted == State.HALF_OPEN) {
+            probesInFlight.decrementAndGet();
+            if (failure || slow) {
+                open(State.HALF_OPEN, "probe " + (failure ? "failed" : "took " + latencyNanos / 1000000 + "ms"));
+            } else if (probeSuccesses.incrementAndGet() >= halfOpenProbes) {
+                close();
+            }
+            return;
+        }
+        Bucket bucket = currentBucket();
+        bucket.calls.increment();
+        if (failure) {
+            bucket.failures.increment();
+        }
+        if (slow) {
+            bucket.slowCalls.increment();
+        }
+        if ((failure || slow) && state == State.CLOSED) {
+            checkThresholds();
+        }
+    }
+
+    /**
+     * 是否计为失败 连接失败、读写超时和连接池耗尽
+     */
+    static boolean isFailure(Throwable e) {
+        return e instanceof DataAccessResourceFailureException || e instanceof QueryTimeoutException;
+    }
+
+    private void checkThresholds() {
+        long now = System.currentTimeMillis();
+        long bucketMillis = Math.max(1, window / BUCKETS);
+        long oldest = now / bucketMillis - BUCKETS + 1;
+        long calls = 0;
+        long failures = 0;
+        long slowCalls = 0;
+        for (Bucket bucket : buckets) {
+            if (bucket.epoch.get() >= oldest) {
+                calls += bucket.calls.sum();
+                failures += bucket.failures.sum();
+                slowCalls += bucket.slowCalls.sum();
+            }
+        }
+        if (calls < minimumCalls) {
+            return;
+        }
+        if (failures >= calls * failureRateThreshold) {
+            open(State.CLOSED, "failure rate " + failures + "/" + calls);
+        } else if (slowCallThreshold > 0 && slowCalls >= calls * slowCallRateThreshold) {
+            open(State.CLOSED, "slow call rate " + slowCalls + "/" + calls);
+        }
+    }
+
+    private Bucket currentBucket() {
+        long epoch = System.currentTimeMillis() / Math.max(1, window / BUCKETS);
+        Bucket bucket = buckets[(int) (epoch % BUCKETS)];
+        long current = bucket.epoch.get();
+        // 进入新的时间段 清空上一轮的计数 并发清空时少计几次不影响判断
+        if (current != epoch && bucket.epoch.compareAndSet(current, epoch)) {
+            bucket.calls.reset();
+            bucket.failures.reset();
+            bucket.slowCalls.reset();
+        }
+        return bucket;
+    }
+
+    private synchronized void open(State from, String reason) {
+        if (state != from) {
+            return;
+        }
+        openedAt = System.currentTimeMillis();
+        state = State.OPEN;
+        opened.increment();
+        log.warn("redis circuit breaker opened for " + openDuration + "ms: " + reason);
+    }
+
+    private synchronized void halfOpen() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+            probesInFlight.set(0);
+            probeSuccesses.set(0);
+            state = State.HALF_OPEN;
+        }
+    }
+
+    private synchronized void close() {
+        if (state != State.HALF_OPEN) {
+            return;
+        }
+        for (Bucket bucket : buckets) {
+            bucket.epoch.set(-1);
+            bucket.calls.reset();
+            bucket.failures.reset();
+            bucket.slowCalls.reset();
+        }
+        state = State.CLOSED;
+        log.info("redis circuit breaker closed after " + halfOpenProbes + " successful probes");
+    }
+
+    private static final class Bucket {
+        private final AtomicLong epoch = new AtomicLong(-1);
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+    }
+}
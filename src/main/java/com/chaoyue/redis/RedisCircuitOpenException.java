@@ -0,0 +1,15 @@
+package com.chaoyue.redis;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * 熔断器打开时 DefaultRedisCacheManager 不访问 redis 直接抛出
+ */
+public class RedisCircuitOpenException extends DataAccessResourceFailureException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RedisCircuitOpenException(String msg) {
+        super(msg);
+    }
+}
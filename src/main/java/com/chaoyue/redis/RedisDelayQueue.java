@@ -0,0 +1,342 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 sorted set 的延迟队列 成员为任务，分数为到期时间(毫秒时间戳)
+ * 领取由一个 Lua 脚本完成：取出到期的成员并删除，同时返回剩余成员中最早的到期时间，多个节点的消费者不会领取到同一个任务
+ * 设置 visibilityTimeout 后领取的任务移入 name:processing 并记录截止时间，ack 后删除，超时未确认的重新到期
+ * 设置 handler 后启动 poller：一批领满时立即再领，否则按最早到期时间休眠(介于 minPollInterval 和 maxPollInterval 之间)，
+ * 本节点 schedule 了更早的任务时立即唤醒；ZRANGEBYSCORE 带 LIMIT 为 O(log N + M)，待处理任务再多也不会变慢
+ * 相同内容的任务只保留一份，需要重复调度时在任务内容中加入唯一 id
+ */
+@Slf4j
+public class RedisDelayQueue implements InitializingBean, DisposableBean {
+
+    private DefaultRedisCacheManager redisCacheManager;
+
+    private String name;
+
+    private DelayedTaskHandler handler;
+
+    private int batchSize = 100;
+
+    /**
+     * 领取后的处理时限 单位毫秒 <=0 时领取即删除
+     */
+    private long visibilityTimeout;
+
+    /**
+     * 单位毫秒
+     */
+    private long minPollInterval = 10;
+
+    /**
+     * 单位毫秒 其他节点 schedule 的任务最多延迟这么久被发现
+     */
+    private long maxPollInterval = 1000;
+
+    private int pollerThreads = 1;
+
+    private String processingKey;
+
+    private final Object monitor = new Object();
+
+    private volatile long nextWakeAt = Long.MAX_VALUE;
+
+    private final AtomicLong wakeups = new AtomicLong();
+
+    private volatile long nextReapAt;
+
+    private volatile boolean running;
+
+    private final List<Thread> pollers = new ArrayList<>();
+
+    public void setRedisCacheManager(DefaultRedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 不设置则不启动 poller 由调用方自行 claim
+     */
+    public void setHandler(DelayedTaskHandler handler) {
+        this.handler = handler;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param visibilityTimeout 单位毫秒
+     */
+    public void setVisibilityTimeout(long visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    /**
+     * @param minPollInterval 单位毫秒
+     */
+    public void setMinPollInterval(long minPollInterval) {
+        this.minPollInterval = minPollInterval;
+    }
+
+    /**
+     * @param maxPollInterval 单位毫秒
+     */
+    public void setMaxPollInterval(long maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    public void setPollerThreads(int pollerThreads) {
+        this.pollerThreads = pollerThreads;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(redisCacheManager, "redisCacheManager is required");
+        Assert.hasText(name, "name is required");
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        processingKey = name + ":processing";
+        if (handler == null) {
+            return;
+        }
+        running = true;
+        DefaultAsyncRedisCacheManager.NamedThreadFactory threadFactory =
+                new DefaultAsyncRedisCacheManager.NamedThreadFactory("redis-delay-queue-" + name + "-");
+        for (int i = 0; i < pollerThreads; i++) {
+            Thread poller = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            });
+            pollers.add(poller);
+            poller.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        for (Thread poller : pollers) {
+            poller.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        pollers.clear();
+    }
+
+    /**
+     * 延迟 delay 后到期
+     */
+    public void schedule(byte[] task, long delay, TimeUnit unit) throws Exception {
+        scheduleAt(task, System.currentTimeMillis() + unit.toMillis(delay));
+    }
+
+    /**
+     * @param dueAt 到期时间 毫秒时间戳
+     */
+    public void scheduleAt(byte[] task, long dueAt) throws Exception {
+        redisCacheManager.zAdd(name, task, dueAt);
+        wakeIfEarlier(dueAt);
+    }
+
+    /**
+     * 一次写入多个任务
+     *
+     * @param tasks 任务和到期时间(毫秒时间戳)
+     */
+    public void scheduleAll(Map<byte[], Long> tasks) throws Exception {
+        if (tasks == null || tasks.isEmpty()) {
+            return;
+        }
+        Map<byte[], Double> values = new LinkedHashMap<>(tasks.size());
+        long earliest = Long.MAX_VALUE;
+        for (Map.Entry<byte[], Long> entry : tasks.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().doubleValue());
+            earliest = Math.min(earliest, entry.getValue());
+        }
+        redisCacheManager.zAddAll(name, values);
+        wakeIfEarlier(earliest);
+    }
+
+    /**
+     * 取消未到期的任务
+     *
+     * @return false 表示任务不存在或已被领取
+     */
+    public boolean cancel(byte[] task) throws Exception {
+        return redisCacheManager.zRemove(name, task) > 0;
+    }
+
+    /**
+     * 领取最多 max 个到期的任务 一次网络往返
+     */
+    public Claim claim(int max) throws Exception {
+        long now = System.currentTimeMillis();
+        long deadline = visibilityTimeout > 0 ? now + visibilityTimeout : 0;
+        List<byte[]> result = redisCacheManager.eval(LuaScripts.DELAY_CLAIM, Arrays.asList(name, processingKey),
+                now, max, deadline);
+        if (CollectionUtils.isEmpty(result)) {
+            return new Claim(Collections.<byte[]>emptyList(), -1);
+        }
+        byte[] head = result.get(0);
+        long nextDueAt = head == null || head.length == 0
+                ? -1 : (long) Double.parseDouble(new String(head, StandardCharsets.US_ASCII));
+        return new Claim(result.subList(1, result.size()), nextDueAt);
+    }
+
+    /**
+     * 确认处理完成 只在设置了 visibilityTimeout 时需要
+     *
+     * @return 确认成功的数量
+     */
+    public long ack(List<byte[]> tasks) throws Exception {
+        if (CollectionUtils.isEmpty(tasks)) {
+            return 0;
+        }
+        return redisCacheManager.zRemove(processingKey, tasks.toArray(new byte[tasks.size()][]));
+    }
+
+    /**
+     * 超时未确认的任务重新到期 poller 每 visibilityTimeout/2 调用一次(介于 minPollInterval 和 maxPollInterval 之间)
+     *
+     * @return 重新到期的数量
+     */
+    public long reap() throws Exception {
+        if (visibilityTimeout <= 0) {
+            return 0;
+        }
+        Long requeued = redisCacheManager.eval(LuaScripts.DELAY_REAP, Arrays.asList(name, processingKey),
+                System.currentTimeMillis(), batchSize);
+        if (requeued != null && requeued > 0) {
+            log.warn("delay queue " + name + " redeliver " + requeued + " timed out tasks");
+        }
+        return requeued == null ? 0 : requeued;
+    }
+
+    /**
+     * 未领取的任务数 包括未到期的
+     */
+    public long size() throws Exception {
+        return redisCacheManager.zSize(name);
+    }
+
+    private void wakeIfEarlier(long dueAt) {
+        if (running && dueAt < nextWakeAt) {
+            wakeups.incrementAndGet();
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    private void poll() {
+        while (running) {
+            long sleep;
+            long seen = wakeups.get();
+            try {
+                long now = System.currentTimeMillis();
+                if (visibilityTimeout > 0 && now >= nextReapAt) {
+                    nextReapAt = now + Math.max(minPollInterval, Math.min(maxPollInterval, visibilityTimeout / 2));
+                    reap();
+                }
+                Claim claim = claim(batchSize);
+                if (!claim.getTasks().isEmpty()) {
+                    handle(claim.getTasks());
+                }
+                if (claim.getTasks().size() >= batchSize) {
+                    continue;
+                }
+                sleep = claim.getNextDueAt() < 0 ? maxPollInterval
+                        : Math.max(minPollInterval, Math.min(maxPollInterval,
+                        claim.getNextDueAt() - System.currentTimeMillis()));
+            } catch (Exception e) {
+                log.warn("fail to poll delay queue " + name + ": " + e.getMessage());
+                sleep = maxPollInterval;
+            }
+            // 多个节点同时到期时错开
+            sleep += ThreadLocalRandom.current().nextLong(minPollInterval + 1);
+            synchronized (monitor) {
+                if (!running) {
+                    return;
+                }
+                // 领取期间本节点 schedule 了新任务 不休眠
+                if (wakeups.get() != seen) {
+                    continue;
+                }
+                nextWakeAt = System.currentTimeMillis() + sleep;
+                try {
+                    monitor.wait(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    nextWakeAt = Long.MAX_VALUE;
+                }
+            }
+        }
+    }
+
+    private void handle(List<byte[]> tasks) throws Exception {
+        try {
+            handler.handle(tasks);
+        } catch (Exception e) {
+            log.error("error to handle " + tasks.size() + " delayed tasks of " + name
+                    + (visibilityTimeout > 0 ? ", will redeliver after " + visibilityTimeout + "ms" : ""), e);
+            return;
+        }
+        if (visibilityTimeout > 0) {
+            ack(tasks);
+        }
+    }
+
+    /**
+     * 一次领取的结果
+     */
+    public static final class Claim {
+        private final List<byte[]> tasks;
+        private final long nextDueAt;
+
+        private Claim(List<byte[]> tasks, long nextDueAt) {
+            this.tasks = tasks;
+            this.nextDueAt = nextDueAt;
+        }
+
+        public List<byte[]> getTasks() {
+            return tasks;
+        }
+
+        /**
+         * 剩余任务中最早的到期时间 毫秒时间戳，没有剩余任务时为 -1
+         */
+        public long getNextDueAt() {
+            return nextDueAt;
+        }
+    }
+}
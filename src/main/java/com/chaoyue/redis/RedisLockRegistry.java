@@ -0,0 +1,305 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 redis 的分布式锁
+ * 加锁为 SET NX PX，成功时同一个脚本中递增所有锁共用的 fenceKey，返回单调递增的 fencing token，
+ * 写入下游时带上 token，下游拒绝比已见过的更小的 token，锁因 GC 停顿等原因过期后旧持有者的写入不会生效
+ * 持有期间后台每 leaseTime/3 续租一次，续租失败(锁已过期被其他人拿到)或超过 leaseTime 没有一次续租成功
+ * (redis 不可用时锁可能已过期)时 Lease.isHeld 变为 false
+ * 解锁只删除自己持有的锁，并在 channel 上发布锁名；等待的线程订阅 channel 被唤醒后再尝试，不轮询 redis，
+ * 没有收到通知时最多等到锁的剩余租期或 maxWaitInterval 后重试
+ * 需要把本对象注册到 listener-container 订阅 channel，锁不可重入
+ */
+@Slf4j
+public class RedisLockRegistry implements MessageListener, InitializingBean, DisposableBean {
+
+    private DefaultRedisCacheManager redisCacheManager;
+
+    private String prefix = "lock:";
+
+    private String channel = "chaoyue:lock:release";
+
+    /**
+     * 所有锁共用的 fencing 计数 不能以 prefix 开头，否则会与同名的锁冲突
+     */
+    private String fenceKey = "lock_fence";
+
+    /**
+     * 租期 单位毫秒
+     */
+    private long leaseTime = 30000;
+
+    /**
+     * 等待时没有收到通知的最长间隔 单位毫秒
+     */
+    private long maxWaitInterval = 1000;
+
+    private final String ownerPrefix = UUID.randomUUID().toString() + ":";
+
+    private final AtomicLong ownerSequence = new AtomicLong();
+
+    /**
+     * 本节点正在等待的锁
+     */
+    private final ConcurrentMap<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService renewer;
+
+    public void setRedisCacheManager(DefaultRedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * 解锁通知的 channel 与 listener-container 中订阅的一致
+     */
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public void setFenceKey(String fenceKey) {
+        this.fenceKey = fenceKey;
+    }
+
+    /**
+     * @param leaseTime 单位毫秒
+     */
+    public void setLeaseTime(long leaseTime) {
+        this.leaseTime = leaseTime;
+    }
+
+    /**
+     * @param maxWaitInterval 单位毫秒
+     */
+    public void setMaxWaitInterval(long maxWaitInterval) {
+        this.maxWaitInterval = maxWaitInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(redisCacheManager, "redisCacheManager is required");
+        Assert.isTrue(leaseTime >= 3, "leaseTime is too short");
+        Assert.isTrue(!fenceKey.startsWith(prefix), "fenceKey must not start with prefix");
+        renewer = Executors.newSingleThreadScheduledExecutor(
+                new DefaultAsyncRedisCacheManager.NamedThreadFactory("redis-lock-renewer-"));
+    }
+
+    @Override
+    public void destroy() {
+        if (renewer != null) {
+            renewer.shutdownNow();
+        }
+    }
+
+    /**
+     * 尝试加锁 不等待
+     *
+     * @return 锁已被持有时返回null
+     */
+    public Lease tryLock(String name) throws Exception {
+        return tryLock(name, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尝试加锁 锁已被持有时最多等待 waitTime
+     *
+     * @return 超时返回null
+     */
+    public Lease tryLock(String name, long waitTime, TimeUnit unit) throws Exception {
+        Assert.hasText(name, "name is required");
+        String owner = ownerPrefix + ownerSequence.incrementAndGet();
+        long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
+        Waiters waiting = null;
+        try {
+            while (true) {
+                long seen = waiting == null ? 0 : waiting.releases;
+                long start = System.currentTimeMillis();
+                Long result = redisCacheManager.eval(LuaScripts.LOCK_ACQUIRE,
+                        Arrays.asList(prefix + name, fenceKey), owner, leaseTime);
+                if (result != null && result > 0) {
+                    return new Lease(name, owner, result, start);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                if (waiting == null) {
+                    // 先登记再重试一次 登记前发布的解锁通知不会错过
+                    waiting = join(name);
+                    continue;
+                }
+                long ttl = result == null ? 0 : -result;
+                long wait = Math.min(remaining, Math.min(maxWaitInterval, Math.max(1, ttl)));
+                synchronized (waiting) {
+                    if (waiting.releases == seen) {
+                        waiting.wait(wait);
+                    }
+                }
+            }
+        } finally {
+            if (waiting != null) {
+                leave(name, waiting);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Waiters waiting = waiters.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (waiting != null) {
+            synchronized (waiting) {
+                waiting.releases++;
+                waiting.notifyAll();
+            }
+        }
+    }
+
+    private Waiters join(String name) {
+        while (true) {
+            Waiters waiting = waiters.get(name);
+            if (waiting == null) {
+                Waiters created = new Waiters();
+                waiting = waiters.putIfAbsent(name, created);
+                if (waiting == null) {
+                    waiting = created;
+                }
+            }
+            synchronized (waiting) {
+                // leave 已把它移出 map
+                if (waiting.count >= 0) {
+                    waiting.count++;
+                    return waiting;
+                }
+            }
+        }
+    }
+
+    private void leave(String name, Waiters waiting) {
+        synchronized (waiting) {
+            if (--waiting.count == 0) {
+                waiting.count = -1;
+                waiters.remove(name, waiting);
+            }
+        }
+    }
+
+    private void renew(Lease lease) {
+        // 以发送前的时间计算租期 不会比 redis 中的过期时间晚
+        long start = System.currentTimeMillis();
+        try {
+            Long renewed = redisCacheManager.eval(LuaScripts.LOCK_RENEW, Collections.singletonList(prefix + lease.name),
+                    lease.owner, leaseTime);
+            if (renewed == null || renewed == 0) {
+                lease.lost();
+                log.warn("lock " + lease.name + " is lost, fencing token " + lease.token);
+                return;
+            }
+            lease.renewedAt = start;
+        } catch (Exception e) {
+            if (lease.isHeld()) {
+                log.warn("fail to renew lock " + lease.name + ": " + e.getMessage());
+            } else {
+                lease.lost();
+                log.warn("lock " + lease.name + " is lost, not renewed for " + leaseTime + "ms, fencing token "
+                        + lease.token + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Waiters {
+        /**
+         * 等待的线程数 -1 表示已移出
+         */
+        private int count;
+        private volatile long releases;
+    }
+
+    /**
+     * 持有的锁 用完后调用 unlock
+     */
+    public final class Lease {
+        private final String name;
+        private final String owner;
+        private final long token;
+        private final ScheduledFuture<?> renewal;
+        private volatile boolean held = true;
+
+        /**
+         * 最近一次加锁或续租成功的时间 单位毫秒
+         */
+        private volatile long renewedAt;
+
+        private Lease(String name, String owner, long token, long renewedAt) {
+            this.name = name;
+            this.owner = owner;
+            this.token = token;
+            this.renewedAt = renewedAt;
+            long interval = leaseTime / 3;
+            this.renewal = renewer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    renew(Lease.this);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 单调递增 后加锁的持有者总是拿到更大的 token
+         */
+        public long getToken() {
+            return token;
+        }
+
+        /**
+         * false 表示续租失败或超过 leaseTime 没有续租成功 锁可能已被其他人持有
+         */
+        public boolean isHeld() {
+            return held && System.currentTimeMillis() - renewedAt < leaseTime;
+        }
+
+        /**
+         * @return false 表示锁已过期 不再由自己持有
+         */
+        public boolean unlock() throws Exception {
+            renewal.cancel(false);
+            if (!held) {
+                return false;
+            }
+            held = false;
+            Long released = redisCacheManager.eval(LuaScripts.LOCK_RELEASE, Collections.singletonList(prefix + name),
+                    owner, channel, name);
+            return released != null && released == 1;
+        }
+
+        private void lost() {
+            held = false;
+            renewal.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.chaoyue.redis;
+
+import com.alibaba.fastjson.JSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 订阅收到的一条消息 保留原始字节，channel 和 body 在第一次读取时才解码
+ * 解码在 RedisMessageDispatcher 的 worker 线程中进行，不占用 listener-container 的线程
+ */
+public final class RedisMessage {
+
+    private final byte[] channelBytes;
+
+    private final byte[] body;
+
+    private final byte[] pattern;
+
+    private final long receivedNanos;
+
+    private String channel;
+
+    private String bodyString;
+
+    RedisMessage(byte[] channelBytes, byte[] body, byte[] pattern) {
+        this.channelBytes = channelBytes;
+        this.body = body;
+        this.pattern = pattern;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    public String getChannel() {
+        if (channel == null) {
+            channel = new String(channelBytes, StandardCharsets.UTF_8);
+        }
+        return channel;
+    }
+
+    /**
+     * 原始消息体 不要修改
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * 按 UTF-8 解码的消息体
+     */
+    public String getBodyAsString() {
+        if (bodyString == null && body != null) {
+            bodyString = new String(body, StandardCharsets.UTF_8);
+        }
+        return bodyString;
+    }
+
+    /**
+     * 按 json 解析消息体
+     */
+    public <T> T getBody(Class<T> type) {
+        return body == null ? null : JSON.parseObject(body, type);
+    }
+
+    /**
+     * 按 json 解析为 Map
+     */
+    public Map<String, Object> getBodyAsMap() {
+        return body == null ? null : JSON.parseObject(getBodyAsString());
+    }
+
+    /**
+     * 通过 PSUBSCRIBE 收到时为订阅的 pattern 否则为null
+     */
+    public String getPattern() {
+        return pattern == null || pattern.length == 0 ? null : new String(pattern, StandardCharsets.UTF_8);
+    }
+
+    byte[] getChannelBytes() {
+        return channelBytes;
+    }
+
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return getChannel() + ":" + getBodyAsString();
+    }
+}
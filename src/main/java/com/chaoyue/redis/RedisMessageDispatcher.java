@@ -0,0 +1,345 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 订阅消息的分发器 注册到 listener-container 后，container 线程只把消息放入队列，解码和处理都在 worker 线程中进行
+ * 消息按 channel 哈希到 workers 个 worker 之一，每个 worker 一个容量为 queueCapacity 的队列，同一个 channel 的消息保持顺序
+ * handlers 和 batchHandlers 的 key 为 channel 或 glob pattern，一条消息交给所有匹配的 handler
+ * 队列满时 BLOCK 阻塞 container 线程最多 offerTimeout 毫秒(<=0 一直等待)，超时后丢弃；DROP 直接丢弃
+ */
+@Slf4j
+public class RedisMessageDispatcher implements MessageListener, InitializingBean, DisposableBean {
+
+    private static final int MAX_CACHED_ROUTES = 1024;
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞 container 线程 消息在 redis 的输出缓冲区中堆积
+         */
+        BLOCK,
+        /**
+         * 丢弃新消息
+         */
+        DROP
+    }
+
+    private Map<String, RedisMessageHandler> handlers = Collections.emptyMap();
+
+    private Map<String, RedisBatchMessageHandler> batchHandlers = Collections.emptyMap();
+
+    private int workers = 4;
+
+    private int queueCapacity = 1024;
+
+    private int batchSize = 100;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * BLOCK 时最长等待 单位毫秒
+     */
+    private long offerTimeout;
+
+    private Worker[] workerArray;
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+
+    private final LongAdder received = new LongAdder();
+
+    private final LongAdder processed = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder unhandled = new LongAdder();
+
+    private final LatencyHistogram lag = new LatencyHistogram();
+
+    public void setHandlers(Map<String, RedisMessageHandler> handlers) {
+        this.handlers = handlers == null ? Collections.<String, RedisMessageHandler>emptyMap() : handlers;
+    }
+
+    public void setBatchHandlers(Map<String, RedisBatchMessageHandler> batchHandlers) {
+        this.batchHandlers = batchHandlers == null
+                ? Collections.<String, RedisBatchMessageHandler>emptyMap() : batchHandlers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * 每个 worker 的队列容量
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * worker 每次最多处理的消息数 也是 batchHandlers 每批的上限
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param offerTimeout 单位毫秒
+     */
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.isTrue(workers > 0, "workers must be positive");
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        running = true;
+        workerArray = new Worker[workers];
+        DefaultAsyncRedisCacheManager.NamedThreadFactory threadFactory =
+                new DefaultAsyncRedisCacheManager.NamedThreadFactory("redis-message-");
+        for (int i = 0; i < workers; i++) {
+            workerArray[i] = new Worker(queueCapacity);
+            workerArray[i].thread = threadFactory.newThread(workerArray[i]);
+            workerArray[i].thread.start();
+        }
+    }
+
+    /**
+     * 停止接收 等待队列中的消息处理完
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (workerArray == null) {
+            return;
+        }
+        for (Worker worker : workerArray) {
+            worker.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        received.increment();
+        if (!running) {
+            drop();
+            return;
+        }
+        byte[] channel = message.getChannel();
+        Worker worker = workerArray[(Arrays.hashCode(channel) & Integer.MAX_VALUE) % workerArray.length];
+        RedisMessage redisMessage = new RedisMessage(channel, message.getBody(), pattern);
+        boolean queued;
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            queued = worker.queue.offer(redisMessage);
+        } else {
+            try {
+                if (offerTimeout > 0) {
+                    queued = worker.queue.offer(redisMessage, offerTimeout, TimeUnit.MILLISECONDS);
+                } else {
+                    worker.queue.put(redisMessage);
+                    queued = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        }
+        if (!queued) {
+            drop();
+        }
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 没有匹配 handler 的消息数
+     */
+    public long getUnhandled() {
+        return unhandled.sum();
+    }
+
+    /**
+     * 所有 worker 队列中等待的消息数
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workerArray) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * 从收到到开始处理的等待时间 单位毫秒
+     *
+     * @param percentile 如 50、99
+     */
+    public double getLagMillis(double percentile) {
+        return lag.getPercentileMicros(percentile) / 1000.0;
+    }
+
+    private void drop() {
+        dropped.increment();
+        long count = dropped.sum();
+        if (count == 1 || count % 1000 == 0) {
+            log.warn("redis message consumers fall behind, dropped " + count + " messages so far");
+        }
+    }
+
+    /**
+     * channel 匹配的 handler 结果缓存 channel 数超过 MAX_CACHED_ROUTES 后不再缓存
+     */
+    private Route route(String channel) {
+        Route route = routes.get(channel);
+        if (route != null) {
+            return route;
+        }
+        List<RedisMessageHandler> singles = new ArrayList<>();
+        for (Map.Entry<String, RedisMessageHandler> entry : handlers.entrySet()) {
+            if (entry.getKey().equals(channel) || GlobPattern.matches(entry.getKey(), channel)) {
+                singles.add(entry.getValue());
+            }
+        }
+        List<RedisBatchMessageHandler> batches = new ArrayList<>();
+        for (Map.Entry<String, RedisBatchMessageHandler> entry : batchHandlers.entrySet()) {
+            if (entry.getKey().equals(channel) || GlobPattern.matches(entry.getKey(), channel)) {
+                batches.add(entry.getValue());
+            }
+        }
+        route = new Route(singles, batches);
+        if (routes.size() < MAX_CACHED_ROUTES) {
+            routes.putIfAbsent(channel, route);
+        }
+        return route;
+    }
+
+    private void dispatch(List<RedisMessage> messages) {
+        Map<RedisBatchMessageHandler, List<RedisMessage>> batches = null;
+        for (RedisMessage message : messages) {
+            lag.recordNanos(System.nanoTime() - message.getReceivedNanos());
+            Route route = route(message.getChannel());
+            if (route.singles.isEmpty() && route.batches.isEmpty()) {
+                unhandled.increment();
+                continue;
+            }
+            for (RedisMessageHandler handler : route.singles) {
+                try {
+                    handler.handle(message);
+                    processed.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("error to handle redis message " + message, e);
+                }
+            }
+            for (RedisBatchMessageHandler handler : route.batches) {
+                if (batches == null) {
+                    batches = new IdentityHashMap<>();
+                }
+                List<RedisMessage> batch = batches.get(handler);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(handler, batch);
+                }
+                batch.add(message);
+            }
+        }
+        if (batches == null) {
+            return;
+        }
+        for (Map.Entry<RedisBatchMessageHandler, List<RedisMessage>> entry : batches.entrySet()) {
+            try {
+                entry.getKey().handle(entry.getValue());
+                processed.add(entry.getValue().size());
+            } catch (Exception e) {
+                failed.add(entry.getValue().size());
+                log.error("error to handle " + entry.getValue().size() + " redis messages", e);
+            }
+        }
+    }
+
+    private static final class Route {
+        private final List<RedisMessageHandler> singles;
+        private final List<RedisBatchMessageHandler> batches;
+
+        private Route(List<RedisMessageHandler> singles, List<RedisBatchMessageHandler> batches) {
+            this.singles = singles;
+            this.batches = batches;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final ArrayBlockingQueue<RedisMessage> queue;
+        private Thread thread;
+
+        private Worker(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            List<RedisMessage> messages = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    RedisMessage first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    messages.add(first);
+                    queue.drainTo(messages, batchSize - 1);
+                    dispatch(messages);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("redis message worker error", e);
+                } finally {
+                    messages.clear();
+                }
+            }
+        }
+    }
+}
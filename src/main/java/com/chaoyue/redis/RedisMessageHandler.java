@@ -0,0 +1,13 @@
+package com.chaoyue.redis;
+
+/**
+ * RedisMessageDispatcher 逐条处理消息的回调
+ * 同一个 channel 的消息在同一个 worker 线程中按收到的顺序调用
+ */
+public interface RedisMessageHandler {
+
+    /**
+     * 处理一条消息 抛出的异常只记录日志，不影响后续消息
+     */
+    void handle(RedisMessage message) throws Exception;
+}
@@ -0,0 +1,389 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 默认的 redis 指标实现
+ * 按操作名聚合调用次数、错误次数、收发字节数和延迟直方图，同时读取 Jedis 连接池的借出等待时间和活跃/空闲连接数
+ * 注册为 RedisPoolManager 的 listener 时统计连接池饱和和调整大小的次数，设置 circuitBreaker 时报告熔断器的状态
+ * 设置 codecRedisSerializer 时报告压缩率和压缩、解压耗费的时间
+ * 指标注册为 JMX MBean(objectName 为空时不注册)，并转发给配置的其他 RedisMetricsSink
+ * 记录时除第一次出现的操作名外不分配对象
+ */
+@Slf4j
+public class RedisMetrics implements RedisMetricsSink, RedisMetricsMBean, RedisPoolListener, InitializingBean,
+        DisposableBean {
+
+    private final ConcurrentMap<String, CommandStats> commands = new ConcurrentHashMap<>();
+
+    private String objectName = "com.chaoyue.redis:type=RedisMetrics,name=default";
+
+    private RedisConnectionFactory connectionFactory;
+
+    private List<RedisMetricsSink> sinks = Collections.emptyList();
+
+    private HotKeyDetector hotKeyDetector;
+
+    private RedisCircuitBreaker circuitBreaker;
+
+    private CodecRedisSerializer codecRedisSerializer;
+
+    private ObjectName registeredName;
+
+    private final LongAdder poolSaturations = new LongAdder();
+
+    private final LongAdder poolResizes = new LongAdder();
+
+    /**
+     * JMX 名称 为空时不注册 MBean
+     */
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+
+    /**
+     * 读取连接池指标的连接工厂 只支持 DbBoundJedisConnectionFactory
+     */
+    public void setConnectionFactory(RedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * 同时接收指标的其他 sink
+     */
+    public void setSinks(List<RedisMetricsSink> sinks) {
+        this.sinks = sinks == null ? Collections.<RedisMetricsSink>emptyList() : sinks;
+    }
+
+    /**
+     * 通过 JMX 报告热点 key 的探测器
+     */
+    public void setHotKeyDetector(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    /**
+     * 通过 JMX 报告状态的熔断器
+     */
+    public void setCircuitBreaker(RedisCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * 通过 JMX 报告压缩统计的序列化器
+     */
+    public void setCodecRedisSerializer(CodecRedisSerializer codecRedisSerializer) {
+        this.codecRedisSerializer = codecRedisSerializer;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (objectName != null && !objectName.isEmpty()) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                log.warn("mbean " + objectName + " already registered, redis metrics not exposed via jmx");
+                return;
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (registeredName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public void recordCommand(String operation, long latencyNanos, boolean error) {
+        CommandStats stats = stats(operation);
+        stats.latency.recordNanos(latencyNanos);
+        if (error) {
+            stats.errors.increment();
+        }
+        for (int i = 0; i < sinks.size(); i++) {
+            sinks.get(i).recordCommand(operation, latencyNanos, error);
+        }
+    }
+
+    @Override
+    public void recordBytes(String operation, long requestBytes, long responseBytes) {
+        CommandStats stats = stats(operation);
+        stats.requestBytes.add(requestBytes);
+        stats.responseBytes.add(responseBytes);
+        for (int i = 0; i < sinks.size(); i++) {
+            sinks.get(i).recordBytes(operation, requestBytes, responseBytes);
+        }
+    }
+
+    private CommandStats stats(String operation) {
+        CommandStats stats = commands.get(operation);
+        if (stats == null) {
+            stats = commands.computeIfAbsent(operation, CommandStats::new);
+        }
+        return stats;
+    }
+
+    /**
+     * 获取操作的延迟直方图 没有记录过时返回null
+     */
+    public LatencyHistogram getLatency(String operation) {
+        CommandStats stats = commands.get(operation);
+        return stats == null ? null : stats.latency;
+    }
+
+    public long getRequestBytes(String operation) {
+        CommandStats stats = commands.get(operation);
+        return stats == null ? 0 : stats.requestBytes.sum();
+    }
+
+    public long getResponseBytes(String operation) {
+        CommandStats stats = commands.get(operation);
+        return stats == null ? 0 : stats.responseBytes.sum();
+    }
+
+    @Override
+    public String[] getOperations() {
+        List<String> operations = new ArrayList<>(commands.keySet());
+        Collections.sort(operations);
+        return operations.toArray(new String[operations.size()]);
+    }
+
+    @Override
+    public String[] getCommandSummary() {
+        List<CommandStats> all = new ArrayList<>(commands.values());
+        final Map<CommandStats, Long> p99 = new HashMap<>();
+        for (CommandStats stats : all) {
+            p99.put(stats, stats.latency.getPercentileMicros(99));
+        }
+        Collections.sort(all, new Comparator<CommandStats>() {
+            @Override
+            public int compare(CommandStats o1, CommandStats o2) {
+                return Long.compare(p99.get(o2), p99.get(o1));
+            }
+        });
+        String[] summary = new String[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            summary[i] = all.get(i).toString();
+        }
+        return summary;
+    }
+
+    @Override
+    public long getTotalCommands() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.latency.getCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalErrors() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.errors.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getCount(String operation) {
+        CommandStats stats = commands.get(operation);
+        return stats == null ? 0 : stats.latency.getCount();
+    }
+
+    @Override
+    public long getErrors(String operation) {
+        CommandStats stats = commands.get(operation);
+        return stats == null ? 0 : stats.errors.sum();
+    }
+
+    @Override
+    public double getLatencyMillis(String operation, double percentile) {
+        CommandStats stats = commands.get(operation);
+        return stats == null ? 0 : stats.latency.getPercentileMicros(percentile) / 1000.0;
+    }
+
+    @Override
+    public int getPoolNumActive() {
+        Pool<Jedis> pool = pool();
+        return pool == null ? -1 : pool.getNumActive();
+    }
+
+    @Override
+    public int getPoolNumIdle() {
+        Pool<Jedis> pool = pool();
+        return pool == null ? -1 : pool.getNumIdle();
+    }
+
+    @Override
+    public int getPoolNumWaiters() {
+        Pool<Jedis> pool = pool();
+        return pool == null ? -1 : pool.getNumWaiters();
+    }
+
+    @Override
+    public long getPoolMeanBorrowWaitMillis() {
+        Pool<Jedis> pool = pool();
+        return pool == null ? -1 : pool.getMeanBorrowWaitTimeMillis();
+    }
+
+    @Override
+    public long getPoolMaxBorrowWaitMillis() {
+        Pool<Jedis> pool = pool();
+        return pool == null ? -1 : pool.getMaxBorrowWaitTimeMillis();
+    }
+
+    @Override
+    public int getPoolMaxTotal() {
+        Pool<Jedis> pool = pool();
+        return pool == null ? -1 : ((DbBoundJedisConnectionFactory) connectionFactory).getInternalPool().getMaxTotal();
+    }
+
+    @Override
+    public long getPoolSaturations() {
+        return poolSaturations.sum();
+    }
+
+    @Override
+    public long getPoolResizes() {
+        return poolResizes.sum();
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        return circuitBreaker == null ? null : circuitBreaker.getState().name();
+    }
+
+    @Override
+    public long getCircuitBreakerRejected() {
+        return circuitBreaker == null ? 0 : circuitBreaker.getRejected();
+    }
+
+    @Override
+    public long getCircuitBreakerOpened() {
+        return circuitBreaker == null ? 0 : circuitBreaker.getOpened();
+    }
+
+    @Override
+    public void onPoolSaturated(RedisPoolManager.PoolState state) {
+        poolSaturations.increment();
+    }
+
+    @Override
+    public void onPoolResized(int oldMaxTotal, RedisPoolManager.PoolState state) {
+        poolResizes.increment();
+    }
+
+    @Override
+    public String[] getTopKeys() {
+        if (hotKeyDetector == null) {
+            return new String[0];
+        }
+        List<HotKeyDetector.HotKey> keys = hotKeyDetector.getTopKeys();
+        String[] topKeys = new String[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            topKeys[i] = keys.get(i).toString();
+        }
+        return topKeys;
+    }
+
+    @Override
+    public long getHotKeyLocalHits() {
+        return hotKeyDetector == null ? 0 : hotKeyDetector.getLocalHits();
+    }
+
+    @Override
+    public long getCompressedCount() {
+        return codecRedisSerializer == null ? 0 : codecRedisSerializer.getCompressor().getCompressedCount();
+    }
+
+    @Override
+    public long getCompressionSkipped() {
+        return codecRedisSerializer == null ? 0 : codecRedisSerializer.getCompressor().getSkippedCount();
+    }
+
+    @Override
+    public long getDecompressedCount() {
+        return codecRedisSerializer == null ? 0 : codecRedisSerializer.getCompressor().getDecompressedCount();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        return codecRedisSerializer == null ? 1.0 : codecRedisSerializer.getCompressor().getCompressionRatio();
+    }
+
+    @Override
+    public long getCompressMillis() {
+        return codecRedisSerializer == null ? 0
+                : TimeUnit.NANOSECONDS.toMillis(codecRedisSerializer.getCompressor().getCompressNanos());
+    }
+
+    @Override
+    public long getDecompressMillis() {
+        return codecRedisSerializer == null ? 0
+                : TimeUnit.NANOSECONDS.toMillis(codecRedisSerializer.getCompressor().getDecompressNanos());
+    }
+
+    @Override
+    public void reset() {
+        commands.clear();
+    }
+
+    private Pool<Jedis> pool() {
+        if (connectionFactory instanceof DbBoundJedisConnectionFactory) {
+            Pool<Jedis> pool = ((DbBoundJedisConnectionFactory) connectionFactory).getPool();
+            if (pool != null && !pool.isClosed()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单个操作的指标
+     */
+    private static final class CommandStats {
+        private final String operation;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+
+        private CommandStats(String operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s count=%d errors=%d p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms reqBytes=%d respBytes=%d",
+                    operation, latency.getCount(), errors.sum(), latency.getPercentileMicros(50) / 1000.0,
+                    latency.getPercentileMicros(99) / 1000.0, latency.getPercentileMicros(99.9) / 1000.0,
+                    latency.getMaxMicros() / 1000.0, requestBytes.sum(), responseBytes.sum());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.chaoyue.redis;
+
+/**
+ * RedisMetrics 的 JMX 接口
+ */
+public interface RedisMetricsMBean {
+
+    /**
+     * 已记录的操作名
+     */
+    String[] getOperations();
+
+    /**
+     * 每个操作一行的汇总 按 p99 从慢到快排列
+     */
+    String[] getCommandSummary();
+
+    long getTotalCommands();
+
+    long getTotalErrors();
+
+    long getCount(String operation);
+
+    long getErrors(String operation);
+
+    /**
+     * 百分位耗时 单位毫秒
+     *
+     * @param percentile 如 50、99、99.9
+     */
+    double getLatencyMillis(String operation, double percentile);
+
+    int getPoolNumActive();
+
+    int getPoolNumIdle();
+
+    int getPoolNumWaiters();
+
+    long getPoolMeanBorrowWaitMillis();
+
+    long getPoolMaxBorrowWaitMillis();
+
+    /**
+     * 连接池当前的 maxTotal 由 RedisPoolManager 调整
+     */
+    int getPoolMaxTotal();
+
+    /**
+     * RedisPoolManager 报告连接池饱和的周期数
+     */
+    long getPoolSaturations();
+
+    long getPoolResizes();
+
+    /**
+     * 熔断器状态 CLOSED、OPEN 或 HALF_OPEN 未设置 circuitBreaker 时为null
+     */
+    String getCircuitBreakerState();
+
+    /**
+     * 熔断器打开期间拒绝的调用次数
+     */
+    long getCircuitBreakerRejected();
+
+    long getCircuitBreakerOpened();
+
+    /**
+     * 读取次数最多的 key 及窗口内的估计读取次数 未设置 hotKeyDetector 时为空
+     */
+    String[] getTopKeys();
+
+    /**
+     * 热点 key 本地副本的命中次数
+     */
+    long getHotKeyLocalHits();
+
+    /**
+     * 压缩的次数 未设置 codecRedisSerializer 时为0
+     */
+    long getCompressedCount();
+
+    /**
+     * 超过阈值但压缩后没有变小 按原数据保存的次数
+     */
+    long getCompressionSkipped();
+
+    long getDecompressedCount();
+
+    /**
+     * 压缩率 压缩后大小/压缩前大小
+     */
+    double getCompressionRatio();
+
+    /**
+     * 压缩耗费的时间 单位毫秒
+     */
+    long getCompressMillis();
+
+    /**
+     * 解压耗费的时间 单位毫秒
+     */
+    long getDecompressMillis();
+
+    void reset();
+}
@@ -0,0 +1,27 @@
+package com.chaoyue.redis;
+
+/**
+ * redis 命令指标的接收者
+ * DefaultRedisCacheManager 每执行一次命令回调一次，实现类需要线程安全并且不能阻塞调用线程
+ * 默认实现 RedisMetrics 在本地聚合并通过 JMX 暴露，也可以实现该接口把指标转发到其他监控系统
+ */
+public interface RedisMetricsSink {
+
+    /**
+     * 记录一次命令执行
+     *
+     * @param operation    操作名 如 get、hGetAll、eval:incrByPexpire
+     * @param latencyNanos 耗时 单位纳秒 包含从连接池借出连接的时间
+     * @param error        是否发生异常
+     */
+    void recordCommand(String operation, long latencyNanos, boolean error);
+
+    /**
+     * 记录一次命令的数据量 只统计 key 和 value 的字节数，不包含协议开销
+     *
+     * @param operation     操作名
+     * @param requestBytes  发送的字节数
+     * @param responseBytes 收到的字节数
+     */
+    void recordBytes(String operation, long requestBytes, long responseBytes);
+}
@@ -1,35 +1,27 @@
 package com.chaoyue.redis;
 
 
-import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.connection.Message;
-import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.data.redis.serializer.RedisSerializer;
 
 import java.util.Map;
 
 /**
  * redis 订阅监听
- * 需要为每一个 channel 实现一个 MessageListener 并在 spring中配置 listener-container
+ * 在 RedisMessageDispatcher 的 handlers 中按 channel 注册，由 dispatcher 的 worker 线程调用
  */
 @Slf4j
-public class RedisMsgListener implements MessageListener {
-    @Autowired
-    private RedisSerializer<String> stringRedisSerializer;
-
+public class RedisMsgListener implements RedisMessageHandler {
 
     @Override
-    public void onMessage(Message message, byte[] pattern) {
-        String topic = stringRedisSerializer.deserialize(message.getChannel());
-        String body = stringRedisSerializer.deserialize(message.getBody());
-        log.info("order status change topic:" + topic + " body:" + body);
+    public void handle(RedisMessage message) {
+        if (log.isDebugEnabled()) {
+            log.debug("order status change topic:" + message.getChannel() + " body:" + message.getBodyAsString());
+        }
         try {
             // 一般消息发布以json格式 当然也可以使用其他方式
-            Map<String, Object> dataMap = JSON.parseObject(body);
+            Map<String, Object> dataMap = message.getBodyAsMap();
         } catch (Exception e) {
-            log.error("error to send message " + body, e);
+            log.error("error to send message " + message.getBodyAsString(), e);
         }
     }
 }
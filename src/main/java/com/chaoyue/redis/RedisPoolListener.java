@@ -0,0 +1,17 @@
+package com.chaoyue.redis;
+
+/**
+ * RedisPoolManager 的连接池事件回调 在调整线程中调用，实现类不能阻塞
+ */
+public interface RedisPoolListener {
+
+    /**
+     * 连接池已扩到 maxTotalLimit 仍有线程等待连接、借出等待超过阈值或连接池耗尽 每个调整周期最多回调一次
+     */
+    void onPoolSaturated(RedisPoolManager.PoolState state);
+
+    /**
+     * 连接池的 maxTotal 被调整
+     */
+    void onPoolResized(int oldMaxTotal, RedisPoolManager.PoolState state);
+}
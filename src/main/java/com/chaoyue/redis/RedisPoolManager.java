@@ -0,0 +1,371 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import redis.clients.jedis.Jedis;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DbBoundJedisConnectionFactory 连接池的管理
+ * 启动时预先建立 warmUp 个连接；关闭借出时的 PING(testOnBorrow)，改为由 commons-pool 的 evictor 每 validateInterval 毫秒
+ * 在后台检测空闲连接(testWhileIdle)，借出连接不再多一次网络往返
+ * 每 adjustInterval 毫秒根据借出等待时间、等待线程数和使用率调整 maxTotal(maxIdle 与之相同)：
+ * 有线程等待、连接池耗尽、平均等待超过 borrowWaitThreshold 微秒或使用率超过 growUtilization 时扩大 1/4，不超过 maxTotalLimit；
+ * 连续 shrinkAfter 个周期使用率低于 shrinkUtilization 时缩小 1/4，不小于 minTotal
+ * 已扩到 maxTotalLimit 仍然不够时通知 listeners
+ */
+@Slf4j
+public class RedisPoolManager implements InitializingBean, DisposableBean {
+
+    private DbBoundJedisConnectionFactory connectionFactory;
+
+    /**
+     * 启动时建立的连接数 <0 时取连接池的 minIdle
+     */
+    private int warmUp = -1;
+
+    /**
+     * 单位毫秒
+     */
+    private long validateInterval = 30000;
+
+    /**
+     * 单位毫秒
+     */
+    private long adjustInterval = 1000;
+
+    /**
+     * <=0 时取连接池配置的 maxTotal
+     */
+    private int minTotal;
+
+    /**
+     * <=0 时取 minTotal 的 4 倍
+     */
+    private int maxTotalLimit;
+
+    /**
+     * 单位微秒
+     */
+    private long borrowWaitThreshold = 1000;
+
+    private double growUtilization = 0.9;
+
+    private double shrinkUtilization = 0.5;
+
+    private int shrinkAfter = 60;
+
+    private List<RedisPoolListener> listeners = Collections.emptyList();
+
+    private ScheduledExecutorService adjuster;
+
+    private volatile int maxTotal;
+
+    private volatile PoolState lastState;
+
+    private long lastBorrows;
+
+    private long lastBorrowWaitNanos;
+
+    private long lastExhausted;
+
+    private int lowTicks;
+
+    private boolean saturated;
+
+    public void setConnectionFactory(DbBoundJedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public void setWarmUp(int warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @param validateInterval 单位毫秒
+     */
+    public void setValidateInterval(long validateInterval) {
+        this.validateInterval = validateInterval;
+    }
+
+    /**
+     * @param adjustInterval 单位毫秒 <=0 不调整大小
+     */
+    public void setAdjustInterval(long adjustInterval) {
+        this.adjustInterval = adjustInterval;
+    }
+
+    public void setMinTotal(int minTotal) {
+        this.minTotal = minTotal;
+    }
+
+    public void setMaxTotalLimit(int maxTotalLimit) {
+        this.maxTotalLimit = maxTotalLimit;
+    }
+
+    /**
+     * @param borrowWaitThreshold 单位微秒
+     */
+    public void setBorrowWaitThreshold(long borrowWaitThreshold) {
+        this.borrowWaitThreshold = borrowWaitThreshold;
+    }
+
+    public void setGrowUtilization(double growUtilization) {
+        this.growUtilization = growUtilization;
+    }
+
+    public void setShrinkUtilization(double shrinkUtilization) {
+        this.shrinkUtilization = shrinkUtilization;
+    }
+
+    public void setShrinkAfter(int shrinkAfter) {
+        this.shrinkAfter = shrinkAfter;
+    }
+
+    public void setListeners(List<RedisPoolListener> listeners) {
+        this.listeners = listeners == null ? Collections.<RedisPoolListener>emptyList() : listeners;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(connectionFactory, "connectionFactory is required");
+        GenericObjectPool<Jedis> pool = connectionFactory.getInternalPool();
+        Assert.notNull(pool, "connectionFactory must use pool");
+        if (minTotal <= 0) {
+            minTotal = pool.getMaxTotal();
+        }
+        if (maxTotalLimit <= 0) {
+            maxTotalLimit = minTotal * 4;
+        }
+        Assert.isTrue(minTotal <= maxTotalLimit, "minTotal must not be greater than maxTotalLimit");
+        maxTotal = Math.min(maxTotalLimit, Math.max(minTotal, pool.getMaxTotal()));
+        apply(pool);
+        warmUp(pool);
+        if (adjustInterval > 0) {
+            adjuster = Executors.newSingleThreadScheduledExecutor(
+                    new DefaultAsyncRedisCacheManager.NamedThreadFactory("redis-pool-manager-"));
+            adjuster.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        adjust();
+                    } catch (RuntimeException e) {
+                        log.warn("fail to adjust redis pool: " + e.getMessage());
+                    }
+                }
+            }, adjustInterval, adjustInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (adjuster != null) {
+            adjuster.shutdownNow();
+        }
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * 最近一个调整周期的状态 未开始调整时为null
+     */
+    public PoolState getLastState() {
+        return lastState;
+    }
+
+    /**
+     * 预先建立连接 第一个连接失败时停止，不影响启动
+     */
+    private void warmUp(GenericObjectPool<Jedis> pool) {
+        int count = Math.min(maxTotal, warmUp < 0 ? pool.getMinIdle() : warmUp);
+        long start = System.currentTimeMillis();
+        int created = 0;
+        for (; created < count; created++) {
+            try {
+                pool.addObject();
+            } catch (Exception e) {
+                log.warn("fail to warm up redis pool after " + created + " connections: " + e.getMessage());
+                return;
+            }
+        }
+        if (created > 0) {
+            log.info("redis pool warmed up " + created + " connections in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 哨兵切换主节点后 JedisSentinelPool 会换成新的连接池 每个周期重新设置一次
+     */
+    private void apply(GenericObjectPool<Jedis> pool) {
+        if (pool.getMaxTotal() != maxTotal) {
+            pool.setMaxTotal(maxTotal);
+        }
+        if (pool.getMaxIdle() != maxTotal) {
+            pool.setMaxIdle(maxTotal);
+        }
+        if (pool.getMinIdle() > maxTotal) {
+            pool.setMinIdle(maxTotal);
+        }
+        if (pool.getTestOnBorrow()) {
+            pool.setTestOnBorrow(false);
+        }
+        if (!pool.getTestWhileIdle()) {
+            pool.setTestWhileIdle(true);
+        }
+        if (pool.getTimeBetweenEvictionRunsMillis() != validateInterval) {
+            pool.setTimeBetweenEvictionRunsMillis(validateInterval);
+        }
+    }
+
+    private void adjust() {
+        GenericObjectPool<Jedis> pool = connectionFactory.getInternalPool();
+        if (pool == null || pool.isClosed()) {
+            return;
+        }
+        apply(pool);
+        long borrows = connectionFactory.getBorrows();
+        long waitNanos = connectionFactory.getBorrowWaitNanos();
+        long exhausted = connectionFactory.getExhausted();
+        long intervalBorrows = borrows - lastBorrows;
+        long meanWaitMicros = intervalBorrows == 0 ? 0 : (waitNanos - lastBorrowWaitNanos) / intervalBorrows / 1000;
+        PoolState state = new PoolState(maxTotal, pool.getNumActive(), pool.getNumIdle(), pool.getNumWaiters(),
+                intervalBorrows, meanWaitMicros, connectionFactory.takeMaxBorrowWaitNanos() / 1000,
+                exhausted - lastExhausted);
+        lastBorrows = borrows;
+        lastBorrowWaitNanos = waitNanos;
+        lastExhausted = exhausted;
+        lastState = state;
+
+        boolean pressure = state.numWaiters > 0 || state.exhausted > 0
+                || state.meanBorrowWaitMicros > borrowWaitThreshold
+                || state.numActive >= maxTotal * growUtilization;
+        if (pressure) {
+            lowTicks = 0;
+            if (maxTotal < maxTotalLimit) {
+                resize(pool, Math.min(maxTotalLimit, maxTotal + Math.max(1, maxTotal / 4)), state);
+                saturated = false;
+            } else {
+                if (!saturated) {
+                    log.warn("redis pool saturated at maxTotal " + maxTotal + ": " + state);
+                }
+                saturated = true;
+                for (RedisPoolListener listener : listeners) {
+                    listener.onPoolSaturated(state);
+                }
+            }
+            return;
+        }
+        saturated = false;
+        if (state.numActive < maxTotal * shrinkUtilization && maxTotal > minTotal) {
+            if (++lowTicks >= shrinkAfter) {
+                lowTicks = 0;
+                resize(pool, Math.max(minTotal, maxTotal - Math.max(1, maxTotal / 4)), state);
+            }
+        } else {
+            lowTicks = 0;
+        }
+    }
+
+    private void resize(GenericObjectPool<Jedis> pool, int newMaxTotal, PoolState state) {
+        int oldMaxTotal = maxTotal;
+        maxTotal = newMaxTotal;
+        apply(pool);
+        // 缩小时 maxIdle 随之降低，之后归还的连接超出部分由连接池关闭；
+        // 已经空闲的连接只关闭超出 newMaxTotal 的部分，其余的继续使用。每次借出前检查仍有多余的空闲连接，不会为此新建连接
+        int surplus = pool.getNumIdle() - newMaxTotal;
+        for (int i = 0; i < surplus && pool.getNumIdle() > newMaxTotal; i++) {
+            try {
+                pool.invalidateObject(pool.borrowObject());
+            } catch (Exception e) {
+                log.warn("fail to close surplus idle redis connection: " + e.getMessage());
+                break;
+            }
+        }
+        log.info("redis pool maxTotal " + oldMaxTotal + " -> " + newMaxTotal + ": " + state);
+        for (RedisPoolListener listener : listeners) {
+            listener.onPoolResized(oldMaxTotal, state);
+        }
+    }
+
+    /**
+     * 一个调整周期的连接池状态 maxTotal 为调整前的值
+     */
+    public static final class PoolState {
+        private final int maxTotal;
+        private final int numActive;
+        private final int numIdle;
+        private final int numWaiters;
+        private final long borrows;
+        private final long meanBorrowWaitMicros;
+        private final long maxBorrowWaitMicros;
+        private final long exhausted;
+
+        private PoolState(int maxTotal, int numActive, int numIdle, int numWaiters, long borrows,
+                          long meanBorrowWaitMicros, long maxBorrowWaitMicros, long exhausted) {
+            this.maxTotal = maxTotal;
+            this.numActive = numActive;
+            this.numIdle = numIdle;
+            this.numWaiters = numWaiters;
+            this.borrows = borrows;
+            this.meanBorrowWaitMicros = meanBorrowWaitMicros;
+            this.maxBorrowWaitMicros = maxBorrowWaitMicros;
+            this.exhausted = exhausted;
+        }
+
+        public int getMaxTotal() {
+            return maxTotal;
+        }
+
+        public int getNumActive() {
+            return numActive;
+        }
+
+        public int getNumIdle() {
+            return numIdle;
+        }
+
+        public int getNumWaiters() {
+            return numWaiters;
+        }
+
+        /**
+         * 周期内的借出次数
+         */
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getMeanBorrowWaitMicros() {
+            return meanBorrowWaitMicros;
+        }
+
+        public long getMaxBorrowWaitMicros() {
+            return maxBorrowWaitMicros;
+        }
+
+        /**
+         * 周期内因连接池耗尽借不到连接的次数
+         */
+        public long getExhausted() {
+            return exhausted;
+        }
+
+        @Override
+        public String toString() {
+            return "maxTotal=" + maxTotal + ", active=" + numActive + ", idle=" + numIdle + ", waiters=" + numWaiters
+                    + ", borrows=" + borrows + ", meanWait=" + meanBorrowWaitMicros + "us, maxWait="
+                    + maxBorrowWaitMicros + "us, exhausted=" + exhausted;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.chaoyue.redis;
+
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 redis 列表的队列 从尾部写入、头部取出
+ * 批量写入和批量取出都只需要一次网络往返，take 使用 BLPOP 阻塞等待，消费者不需要轮询
+ * 取出后即从 redis 删除，消费者崩溃时消息会丢失，需要确认和重新投递时使用 ReliableRedisQueue
+ */
+public class RedisQueue {
+
+    private DefaultRedisCacheManager redisCacheManager;
+
+    private String name;
+
+    public RedisQueue() {
+    }
+
+    public RedisQueue(DefaultRedisCacheManager redisCacheManager, String name) {
+        this.redisCacheManager = redisCacheManager;
+        this.name = name;
+    }
+
+    public void setRedisCacheManager(DefaultRedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    /**
+     * 队列的 key
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void push(byte[] value) throws Exception {
+        redisCacheManager.rightPush(name, value);
+    }
+
+    /**
+     * 一次写入多个元素
+     *
+     * @return 写入后队列的长度
+     */
+    public long pushAll(List<byte[]> values) throws Exception {
+        return redisCacheManager.rightPushAll(name, values);
+    }
+
+    /**
+     * 取出一个元素 不等待
+     *
+     * @return 队列为空时返回null
+     */
+    public byte[] poll() throws Exception {
+        return redisCacheManager.leftPop(name);
+    }
+
+    /**
+     * 取出最多 max 个元素 不等待
+     *
+     * @return 队列为空时返回空列表
+     */
+    public List<byte[]> poll(int max) throws Exception {
+        return redisCacheManager.leftPop(name, max);
+    }
+
+    /**
+     * 取出一个元素 队列为空时最多等待 timeout
+     *
+     * @param timeout 精度为秒 不足 1 秒按 1 秒等待，<=0 时不等待
+     * @return 超时返回null
+     */
+    public byte[] take(long timeout, TimeUnit unit) throws Exception {
+        if (timeout <= 0) {
+            return poll();
+        }
+        return redisCacheManager.blockingLeftPop(name, toSeconds(timeout, unit));
+    }
+
+    /**
+     * 取出最多 max 个元素 队列为空时最多等待 timeout
+     * 等到第一个元素后再不等待地取出其余元素，队列有数据时共两次网络往返
+     *
+     * @param timeout 精度为秒 不足 1 秒按 1 秒等待，<=0 时不等待
+     * @return 超时返回空列表
+     */
+    public List<byte[]> take(int max, long timeout, TimeUnit unit) throws Exception {
+        Assert.isTrue(max > 0, "max must be positive");
+        byte[] first = take(timeout, unit);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<byte[]> values = new ArrayList<>(max);
+        values.add(first);
+        if (max > 1) {
+            values.addAll(poll(max - 1));
+        }
+        return values;
+    }
+
+    public long size() throws Exception {
+        return redisCacheManager.listSize(name);
+    }
+
+    /**
+     * 阻塞命令的超时时间为整数秒 向上取整
+     */
+    static int toSeconds(long timeout, TimeUnit unit) {
+        long seconds = unit.toSeconds(timeout);
+        if (unit.toNanos(timeout) > TimeUnit.SECONDS.toNanos(seconds)) {
+            seconds++;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, seconds);
+    }
+}
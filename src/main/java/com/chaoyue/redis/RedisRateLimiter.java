@@ -0,0 +1,228 @@
+package com.chaoyue.redis;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于 redis 的分布式限流 每个 key 在 window 毫秒内最多允许 permits 次，判断和计数由一个 Lua 脚本原子完成，一次网络往返
+ * SLIDING_WINDOW 按当前窗口和上一个窗口的计数估算最近一个窗口内的请求数，不会在窗口交界处放过两倍的请求
+ * TOKEN_BUCKET 按 permits/window 的速率补充令牌，桶容量 burst 默认等于 permits
+ * 设置 leaseSize 后每次从 redis 预取最多 leaseSize 个许可放在本地，leaseTimeout 毫秒内本地的 tryAcquire 不访问 redis；
+ * 预取但未用完的许可过期后作废，实际通过的请求只会少于上限，leaseSize 应远小于 permits / 节点数
+ * 所有节点的时钟需要同步，当前时间由调用方传给脚本
+ */
+public class RedisRateLimiter implements InitializingBean {
+
+    /**
+     * 限流算法
+     */
+    public enum Algorithm {
+        SLIDING_WINDOW,
+        TOKEN_BUCKET
+    }
+
+    private DefaultRedisCacheManager redisCacheManager;
+
+    private String name = "rate:";
+
+    private Algorithm algorithm = Algorithm.SLIDING_WINDOW;
+
+    private long permits;
+
+    /**
+     * 单位毫秒
+     */
+    private long window = 1000;
+
+    /**
+     * 令牌桶容量 <=0 时等于 permits
+     */
+    private long burst;
+
+    /**
+     * 每次预取的许可数 <=0 不预取
+     */
+    private int leaseSize;
+
+    /**
+     * 预取的许可在本地的有效期 单位毫秒
+     */
+    private long leaseTimeout = 100;
+
+    /**
+     * 本地最多保留的 key 数 超过后清理过期的预取
+     */
+    private int maxLeases = 10000;
+
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final LongAdder allowed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder localAllowed = new LongAdder();
+
+    public void setRedisCacheManager(DefaultRedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    /**
+     * key 的前缀
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * 每个窗口允许的次数
+     */
+    public void setPermits(long permits) {
+        this.permits = permits;
+    }
+
+    /**
+     * @param window 单位毫秒
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public void setBurst(long burst) {
+        this.burst = burst;
+    }
+
+    public void setLeaseSize(int leaseSize) {
+        this.leaseSize = leaseSize;
+    }
+
+    /**
+     * @param leaseTimeout 单位毫秒
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public void setMaxLeases(int maxLeases) {
+        this.maxLeases = maxLeases;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(redisCacheManager, "redisCacheManager is required");
+        Assert.isTrue(permits > 0, "permits must be positive");
+        Assert.isTrue(window > 0, "window must be positive");
+    }
+
+    public boolean tryAcquire(String key) throws Exception {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * 获取 permits 个许可 不等待
+     *
+     * @return false 表示超过限制
+     */
+    public boolean tryAcquire(String key, int permits) throws Exception {
+        Assert.isTrue(permits > 0, "permits must be positive");
+        boolean acquired;
+        if (leaseSize > permits) {
+            acquired = tryAcquireLeased(key, permits);
+        } else {
+            acquired = acquire(key, permits, permits) > 0;
+        }
+        if (acquired) {
+            allowed.increment();
+        } else {
+            rejected.increment();
+        }
+        return acquired;
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * 由本地预取的许可直接通过的次数
+     */
+    public long getLocalAllowed() {
+        return localAllowed.sum();
+    }
+
+    /**
+     * 同一个 key 同时只有一个线程向 redis 预取 其他线程等待后使用新的预取
+     */
+    private boolean tryAcquireLeased(String key, int permits) throws Exception {
+        Lease lease = leases.get(key);
+        if (lease == null) {
+            if (leases.size() >= maxLeases) {
+                purgeLeases();
+            }
+            Lease created = new Lease();
+            lease = leases.putIfAbsent(key, created);
+            if (lease == null) {
+                lease = created;
+            }
+        }
+        synchronized (lease) {
+            long now = System.currentTimeMillis();
+            if (lease.remaining >= permits && now < lease.expireAt) {
+                lease.remaining -= permits;
+                localAllowed.increment();
+                return true;
+            }
+            long granted = acquire(key, leaseSize, permits);
+            lease.remaining = granted > 0 ? granted - permits : 0;
+            lease.expireAt = now + leaseTimeout;
+            return granted > 0;
+        }
+    }
+
+    private void purgeLeases() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Lease> iterator = leases.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().expireAt <= now) {
+                iterator.remove();
+            }
+        }
+        if (leases.size() >= maxLeases) {
+            leases.clear();
+        }
+    }
+
+    /**
+     * @return 获取到的许可数 不足 min 时为0
+     */
+    private long acquire(String key, long max, long min) throws Exception {
+        long now = System.currentTimeMillis();
+        Long granted;
+        if (algorithm == Algorithm.TOKEN_BUCKET) {
+            long capacity = burst > 0 ? burst : permits;
+            granted = redisCacheManager.eval(LuaScripts.TOKEN_BUCKET_ACQUIRE, Collections.singletonList(name + key),
+                    now, capacity, (double) permits / window, max, min);
+        } else {
+            granted = redisCacheManager.eval(LuaScripts.SLIDING_WINDOW_ACQUIRE, Collections.singletonList(name + key),
+                    now, window, permits, max, min);
+        }
+        return granted == null ? 0 : granted;
+    }
+
+    private static final class Lease {
+        private long remaining;
+        private long expireAt;
+    }
+}
@@ -0,0 +1,452 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 写缓冲 (write-behind)
+ * 写操作先放入有界的无锁队列，由后台线程在攒够 batchSize 条或距上次刷新超过 flushInterval 时，以管道方式批量写入 redis
+ * 同一批次内对同一个 key(hash 为同一个 field)的多次写入只保留最后一次，PUBLISH 不合并
+ * 队列满时调用线程最多等待 offerTimeout，仍然没有空间则抛出 IllegalStateException
+ * 写入是异步的：调用返回后数据不一定已经写入 redis，需要立即可见时调用 flush
+ * 批次写入后清除 SET、DEL 涉及的热点 key 本地副本
+ */
+@Slf4j
+public class RedisWriteBehindBuffer implements InitializingBean, DisposableBean, Closeable {
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private DefaultRedisCacheManager redisCacheManager;
+
+    /**
+     * 队列容量
+     */
+    private int capacity = 10000;
+
+    /**
+     * 每批最多写入的条数
+     */
+    private int batchSize = 500;
+
+    /**
+     * 最长刷新间隔 单位毫秒
+     */
+    private long flushInterval = 10;
+
+    /**
+     * 队列满时的最长等待时间 单位毫秒
+     */
+    private long offerTimeout = 1000;
+
+    private final ConcurrentLinkedQueue<WriteOp> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private final Object flushLock = new Object();
+
+    private volatile boolean closed;
+
+    private Thread flusher;
+
+    private final LongAdder enqueuedOps = new LongAdder();
+
+    private final LongAdder flushedOps = new LongAdder();
+
+    private final LongAdder coalescedOps = new LongAdder();
+
+    private final LongAdder failedOps = new LongAdder();
+
+    private final LongAdder flushedBatches = new LongAdder();
+
+    private final LongAdder rejectedOps = new LongAdder();
+
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    private volatile int lastBatchSize;
+
+    public void setRedisCacheManager(DefaultRedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param flushInterval 单位毫秒
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @param offerTimeout 单位毫秒
+     */
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(redisCacheManager, "redisCacheManager is required");
+        Assert.isTrue(capacity > 0 && batchSize > 0 && flushInterval > 0, "capacity, batchSize and flushInterval must be positive");
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        }, "redis-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 保存至缓存
+     *
+     * @param timeout 单位秒 如果<=0 则永不过期
+     */
+    public void set(String key, byte[] value, long timeout) {
+        if (value != null) {
+            offer(new WriteOp(WriteOp.SET, key, null, value, timeout));
+        }
+    }
+
+    /**
+     * 保存至缓存 object 序列化 序列化在调用线程中完成
+     *
+     * @param timeout 单位秒 如果<=0 则永不过期
+     */
+    public void set(String key, Serializable value, long timeout) {
+        if (value != null) {
+            set(key, redisCacheManager.getDefRedisSerializer().serialize(value), timeout);
+        }
+    }
+
+    /**
+     * 保存至缓存 String类型
+     *
+     * @param timeout 单位秒 如果<=0 则永不过期
+     */
+    public void set(String key, String value, long timeout) {
+        if (value != null) {
+            set(key, redisCacheManager.getStringSerializer().serialize(value), timeout);
+        }
+    }
+
+    /**
+     * hash 添加
+     */
+    public void hSet(String key, String fieldKey, Serializable value) {
+        if (value != null) {
+            offer(new WriteOp(WriteOp.HSET, key, fieldKey,
+                    redisCacheManager.getDefRedisSerializer().serialize(value), 0));
+        }
+    }
+
+    /**
+     * 删除
+     */
+    public void delete(String key) {
+        offer(new WriteOp(WriteOp.DEL, key, null, null, 0));
+    }
+
+    /**
+     * 发布消息 和之前的写操作在同一个管道中按顺序发送
+     */
+    public void publish(String channel, String msg) {
+        offer(new WriteOp(WriteOp.PUBLISH, channel, null, redisCacheManager.getStringSerializer().serialize(msg), 0));
+    }
+
+    private void offer(WriteOp op) {
+        if (closed) {
+            throw new IllegalStateException("write-behind buffer is closed");
+        }
+        long deadline = 0;
+        while (true) {
+            int size = queueSize.get();
+            if (size < capacity) {
+                if (queueSize.compareAndSet(size, size + 1)) {
+                    break;
+                }
+                continue;
+            }
+            // 队列已满 唤醒刷新线程并等待
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+            } else if (now - deadline >= 0) {
+                rejectedOps.increment();
+                throw new IllegalStateException("write-behind buffer is full, capacity " + capacity);
+            }
+            LockSupport.unpark(flusher);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        queue.offer(op);
+        enqueuedOps.increment();
+        if (queueSize.get() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private void runFlusher() {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        while (!closed) {
+            if (queueSize.get() < batchSize) {
+                LockSupport.parkNanos(this, intervalNanos);
+            }
+            try {
+                synchronized (flushLock) {
+                    flushBatch(batchSize);
+                }
+            } catch (Exception e) {
+                log.error("write-behind flush error", e);
+            }
+        }
+    }
+
+    /**
+     * 把调用之前放入的写操作全部写入 redis
+     * 最多写入调用时队列中的条数 之后放入的留给刷新线程，持续写入时也不会一直刷新下去
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            int remaining = queueSize.get();
+            while (remaining > 0) {
+                int drained = flushBatch(Math.min(batchSize, remaining));
+                if (drained == 0) {
+                    break;
+                }
+                remaining -= drained;
+            }
+        }
+    }
+
+    /**
+     * 取出最多 limit 条写操作 合并后以管道方式写入
+     *
+     * @return 取出的条数
+     */
+    private int flushBatch(int limit) {
+        Map<Object, WriteOp> batch = new LinkedHashMap<>();
+        int drained = 0;
+        WriteOp op;
+        while (drained < limit && (op = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            drained++;
+            Object coalesceKey = op.coalesceKey();
+            if (batch.remove(coalesceKey) != null) {
+                coalescedOps.increment();
+            }
+            batch.put(coalesceKey, op);
+        }
+        if (drained == 0) {
+            return 0;
+        }
+        final List<WriteOp> ops = new ArrayList<>(batch.values());
+        try {
+            redisCacheManager.executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (WriteOp writeOp : ops) {
+                        writeOp.execute(connection, redisCacheManager);
+                    }
+                    return null;
+                }
+            });
+            flushedOps.add(ops.size());
+        } catch (Exception e) {
+            failedOps.add(ops.size());
+            log.error("write-behind batch of " + ops.size() + " ops failed", e);
+        } finally {
+            // 写入后再清除 避免写入前的读取把旧值重新放入本地副本；失败时 redis 中的值不确定，同样清除
+            for (WriteOp writeOp : ops) {
+                writeOp.evictHotKey(redisCacheManager);
+            }
+        }
+        flushedBatches.increment();
+        lastBatchSize = ops.size();
+        long max;
+        while (ops.size() > (max = maxBatchSize.get()) && !maxBatchSize.compareAndSet(max, ops.size())) {
+            // retry
+        }
+        return drained;
+    }
+
+    /**
+     * 停止接收写操作 写入剩余数据后停止刷新线程
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    @Override
+    public void destroy() {
+        close();
+    }
+
+    /**
+     * 当前队列中等待写入的条数
+     */
+    public int getQueueDepth() {
+        return queueSize.get();
+    }
+
+    public long getEnqueuedOps() {
+        return enqueuedOps.sum();
+    }
+
+    /**
+     * 实际写入 redis 的条数 (合并之后)
+     */
+    public long getFlushedOps() {
+        return flushedOps.sum();
+    }
+
+    /**
+     * 被同批次后续写入覆盖而省去的条数
+     */
+    public long getCoalescedOps() {
+        return coalescedOps.sum();
+    }
+
+    public long getFailedOps() {
+        return failedOps.sum();
+    }
+
+    /**
+     * 队列满且等待超时被拒绝的条数
+     */
+    public long getRejectedOps() {
+        return rejectedOps.sum();
+    }
+
+    public long getFlushedBatches() {
+        return flushedBatches.sum();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = flushedBatches.sum();
+        return batches == 0 ? 0 : (double) (flushedOps.sum() + failedOps.sum()) / batches;
+    }
+
+    /**
+     * 一条写操作
+     */
+    private static final class WriteOp {
+        private static final int SET = 1;
+        private static final int HSET = 2;
+        private static final int DEL = 3;
+        private static final int PUBLISH = 4;
+
+        private final int type;
+        private final String key;
+        private final String field;
+        private final byte[] value;
+        private final long timeout;
+
+        /**
+         * execute 时编码的 key 供写入后清除热点 key 复用
+         */
+        private byte[] rawKey;
+
+        private WriteOp(int type, String key, String field, byte[] value, long timeout) {
+            Assert.notNull(key, "non null key required");
+            this.type = type;
+            this.key = key;
+            this.field = field;
+            this.value = value;
+            this.timeout = timeout;
+        }
+
+        /**
+         * 合并用的 key SET 和 DEL 同一个 key 互相覆盖，HSET 按 key+field 覆盖
+         * 每条消息都要送达订阅者 PUBLISH 以自身为 key 不与任何写操作合并
+         */
+        private Object coalesceKey() {
+            switch (type) {
+                case HSET:
+                    return "h\0" + key + "\0" + field;
+                case PUBLISH:
+                    return this;
+                default:
+                    return "k\0" + key;
+            }
+        }
+
+        private void execute(RedisConnection connection, DefaultRedisCacheManager manager) {
+            rawKey = manager.rawKey(key);
+            switch (type) {
+                case SET:
+                    if (timeout > 0) {
+                        connection.setEx(rawKey, timeout, value);
+                    } else {
+                        connection.set(rawKey, value);
+                    }
+                    break;
+                case HSET:
+                    connection.hSet(rawKey, manager.rawKey(field), value);
+                    break;
+                case DEL:
+                    connection.del(rawKey);
+                    break;
+                case PUBLISH:
+                    connection.publish(rawKey, value);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown write op " + type);
+            }
+        }
+
+        /**
+         * 热点 key 只缓存 get 的结果 只有 SET、DEL 需要清除
+         */
+        private void evictHotKey(DefaultRedisCacheManager manager) {
+            if ((type == SET || type == DEL) && rawKey != null) {
+                manager.evictHotKey(rawKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 需要确认的 redis 队列
+ * 领取时元素通过 RPOPLPUSH 原子地从队列移到处理中列表(name:processing)，并在 name:deadlines 中记录处理截止时间
+ * 处理完成后 ack 从处理中列表删除；超过 visibilityTimeout 未确认的元素由 reaper 放回队列重新投递，且优先于未投递的元素
+ * 每个元素写入时加上 16 字节的唯一 id，相同内容的元素也能分别确认
+ * 三个 key 需要在同一个 redis 节点，分片时使用 ShardedRedisCacheManager.getShard(name)
+ */
+@Slf4j
+public class ReliableRedisQueue implements InitializingBean, DisposableBean {
+
+    private static final int ID_LENGTH = 16;
+
+    private DefaultRedisCacheManager redisCacheManager;
+
+    private String name;
+
+    /**
+     * 领取后的处理时限 单位毫秒
+     */
+    private long visibilityTimeout = 30000;
+
+    /**
+     * reaper 的执行间隔 单位毫秒 <=0 不启动 reaper
+     */
+    private long reapInterval = 1000;
+
+    /**
+     * reaper 每次最多处理的元素数
+     */
+    private int reapBatch = 100;
+
+    private String processingKey;
+
+    private String deadlinesKey;
+
+    private ScheduledExecutorService reaper;
+
+    public void setRedisCacheManager(DefaultRedisCacheManager redisCacheManager) {
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param visibilityTimeout 单位毫秒
+     */
+    public void setVisibilityTimeout(long visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    /**
+     * @param reapInterval 单位毫秒
+     */
+    public void setReapInterval(long reapInterval) {
+        this.reapInterval = reapInterval;
+    }
+
+    public void setReapBatch(int reapBatch) {
+        this.reapBatch = reapBatch;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(redisCacheManager, "redisCacheManager is required");
+        Assert.hasText(name, "name is required");
+        processingKey = name + ":processing";
+        deadlinesKey = name + ":deadlines";
+        if (reapInterval > 0) {
+            reaper = Executors.newSingleThreadScheduledExecutor(
+                    new DefaultAsyncRedisCacheManager.NamedThreadFactory("redis-queue-reaper-"));
+            reaper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reap();
+                    } catch (Exception e) {
+                        log.warn("fail to reap queue " + name + ": " + e.getMessage());
+                    }
+                }
+            }, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+    }
+
+    public void push(byte[] payload) throws Exception {
+        redisCacheManager.leftPushAll(name, Collections.singletonList(wrap(payload)));
+    }
+
+    /**
+     * 一次写入多个元素 按列表顺序投递
+     *
+     * @return 写入后队列的长度
+     */
+    public long pushAll(List<byte[]> payloads) throws Exception {
+        List<byte[]> values = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            values.add(wrap(payload));
+        }
+        return redisCacheManager.leftPushAll(name, values);
+    }
+
+    /**
+     * 领取最多 max 个元素 不等待 一次网络往返
+     *
+     * @return 队列为空时返回空列表
+     */
+    public List<Delivery> poll(int max) throws Exception {
+        Assert.isTrue(max > 0, "max must be positive");
+        List<byte[]> values = redisCacheManager.eval(LuaScripts.QUEUE_CLAIM,
+                Arrays.asList(name, processingKey, deadlinesKey), max, deadline());
+        if (CollectionUtils.isEmpty(values)) {
+            return Collections.emptyList();
+        }
+        List<Delivery> deliveries = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            deliveries.add(new Delivery(value));
+        }
+        return deliveries;
+    }
+
+    /**
+     * 领取一个元素 队列为空时通过 BRPOPLPUSH 最多等待 timeout
+     *
+     * @param timeout 精度为秒 不足 1 秒按 1 秒等待，<=0 时不等待
+     * @return 超时返回null
+     */
+    public Delivery take(long timeout, TimeUnit unit) throws Exception {
+        if (timeout <= 0) {
+            List<Delivery> deliveries = poll(1);
+            return deliveries.isEmpty() ? null : deliveries.get(0);
+        }
+        byte[] value = redisCacheManager.blockingRightPopLeftPush(name, processingKey,
+                RedisQueue.toSeconds(timeout, unit));
+        if (value == null) {
+            return null;
+        }
+        // 这两步之间崩溃时 reaper 会为处理中列表里没有截止时间的元素补记
+        redisCacheManager.zAdd(deadlinesKey, value, deadline());
+        return new Delivery(value);
+    }
+
+    /**
+     * 领取最多 max 个元素 队列为空时最多等待 timeout
+     *
+     * @return 超时返回空列表
+     */
+    public List<Delivery> take(int max, long timeout, TimeUnit unit) throws Exception {
+        Delivery first = take(timeout, unit);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<Delivery> deliveries = new ArrayList<>(max);
+        deliveries.add(first);
+        if (max > 1) {
+            deliveries.addAll(poll(max - 1));
+        }
+        return deliveries;
+    }
+
+    /**
+     * 确认处理完成
+     *
+     * @return false 表示已超时被重新投递
+     */
+    public boolean ack(Delivery delivery) throws Exception {
+        return ack(Collections.singletonList(delivery)) == 1;
+    }
+
+    /**
+     * 批量确认 一次网络往返
+     *
+     * @return 确认成功的数量
+     */
+    public long ack(List<Delivery> deliveries) throws Exception {
+        if (CollectionUtils.isEmpty(deliveries)) {
+            return 0;
+        }
+        Object[] values = new Object[deliveries.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = deliveries.get(i).raw;
+        }
+        Long acked = redisCacheManager.eval(LuaScripts.QUEUE_ACK, Arrays.asList(processingKey, deadlinesKey), values);
+        return acked == null ? 0 : acked;
+    }
+
+    /**
+     * 处理时间较长时延长截止时间 从现在起再给 visibilityTimeout
+     */
+    public void extend(Delivery delivery) throws Exception {
+        redisCacheManager.zAdd(deadlinesKey, delivery.raw, deadline());
+    }
+
+    /**
+     * 把超时未确认的元素放回队列 reaper 定时调用，多个节点同时执行也不会重复投递
+     *
+     * @return 重新投递的数量
+     */
+    public long reap() throws Exception {
+        long now = System.currentTimeMillis();
+        Long requeued = redisCacheManager.eval(LuaScripts.QUEUE_REAP, Arrays.asList(name, processingKey, deadlinesKey),
+                now, reapBatch, now + visibilityTimeout);
+        if (requeued != null && requeued > 0) {
+            log.warn("queue " + name + " redeliver " + requeued + " timed out messages");
+        }
+        return requeued == null ? 0 : requeued;
+    }
+
+    public long size() throws Exception {
+        return redisCacheManager.listSize(name);
+    }
+
+    /**
+     * 已领取未确认的数量
+     */
+    public long processingSize() throws Exception {
+        return redisCacheManager.listSize(processingKey);
+    }
+
+    private long deadline() {
+        return System.currentTimeMillis() + visibilityTimeout;
+    }
+
+    private static byte[] wrap(byte[] payload) {
+        Assert.notNull(payload, "payload must not be null");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return ByteBuffer.allocate(ID_LENGTH + payload.length).putLong(random.nextLong()).putLong(random.nextLong())
+                .put(payload).array();
+    }
+
+    /**
+     * 一次领取 处理完成后调用 ack
+     */
+    public static final class Delivery {
+        private final byte[] raw;
+
+        private Delivery(byte[] raw) {
+            this.raw = raw;
+        }
+
+        public byte[] getPayload() {
+            return Arrays.copyOfRange(raw, ID_LENGTH, raw.length);
+        }
+
+        /**
+         * 写入时生成的唯一 id 重新投递时不变
+         */
+        public String getId() {
+            ByteBuffer buffer = ByteBuffer.wrap(raw, 0, ID_LENGTH);
+            return String.format("%016x%016x", buffer.getLong(), buffer.getLong());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 从节点的读路由 DefaultRedisCacheManager 设置后读操作发送到从节点，写操作仍然发送到主节点
+ * 每次选择未完成请求最少的从节点，相同时随机选择
+ * hedge 开启时请求超过从节点读耗时的 hedgePercentile 分位(不小于 hedgeMinDelay)仍未返回，向另一个从节点再发一次，取先返回的结果
+ * 从节点的复制是异步的，刚写入主节点的数据可能读不到
+ */
+@Slf4j
+public class ReplicaReadRouter implements InitializingBean, DisposableBean {
+
+    private static final long HEDGE_REFRESH_MILLIS = 1000;
+
+    private static final long HEDGE_MIN_SAMPLES = 100;
+
+    private List<RedisConnectionFactory> connectionFactories;
+
+    private boolean hedge;
+
+    /**
+     * 对冲请求的最小延迟 单位毫秒
+     */
+    private long hedgeMinDelay = 2;
+
+    private double hedgePercentile = 95;
+
+    /**
+     * 执行对冲请求的线程数 线程都忙时请求在调用线程执行且不再对冲
+     */
+    private int hedgeThreads = 8;
+
+    private List<Replica> replicas;
+
+    private ThreadPoolExecutor hedgeExecutor;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private volatile long hedgeDelayNanos;
+
+    private final AtomicLong nextRefresh = new AtomicLong();
+
+    private final LongAdder hedgedReads = new LongAdder();
+
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * 从节点的连接工厂 dbIndex 与主节点相同
+     */
+    public void setConnectionFactories(List<RedisConnectionFactory> connectionFactories) {
+        this.connectionFactories = connectionFactories;
+    }
+
+    public void setHedge(boolean hedge) {
+        this.hedge = hedge;
+    }
+
+    /**
+     * @param hedgeMinDelay 单位毫秒
+     */
+    public void setHedgeMinDelay(long hedgeMinDelay) {
+        this.hedgeMinDelay = hedgeMinDelay;
+    }
+
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public void setHedgeThreads(int hedgeThreads) {
+        this.hedgeThreads = hedgeThreads;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notEmpty(connectionFactories, "connectionFactories is required");
+        replicas = new ArrayList<>(connectionFactories.size());
+        for (int i = 0; i < connectionFactories.size(); i++) {
+            RedisTemplate<String, Serializable> template = new RedisTemplate<>();
+            template.setConnectionFactory(connectionFactories.get(i));
+            template.afterPropertiesSet();
+            replicas.add(new Replica(i, template));
+        }
+        hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelay);
+        if (hedge && replicas.size() > 1) {
+            hedgeExecutor = new ThreadPoolExecutor(hedgeThreads, hedgeThreads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DefaultAsyncRedisCacheManager.NamedThreadFactory(
+                    "redis-replica-read-"), new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 在从节点执行读操作
+     */
+    <T> T execute(RedisCallback<T> action) {
+        if (hedgeExecutor == null) {
+            return execute(choose(null), action);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        Replica first = choose(null);
+        submit(first, action, result, pending, false);
+        try {
+            return result.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            Replica second = choose(first);
+            pending.incrementAndGet();
+            hedgedReads.increment();
+            submit(second, action, result, pending, true);
+            return await(result);
+        } catch (Exception e) {
+            return rethrow(e);
+        }
+    }
+
+    /**
+     * 发出对冲请求的次数
+     */
+    public long getHedgedReads() {
+        return hedgedReads.sum();
+    }
+
+    /**
+     * 对冲请求先返回的次数
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * 当前的对冲延迟 单位微秒
+     */
+    public long getHedgeDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(hedgeDelayNanos);
+    }
+
+    /**
+     * 每个从节点未完成的请求数
+     */
+    public int[] getOutstanding() {
+        int[] outstanding = new int[replicas.size()];
+        for (int i = 0; i < outstanding.length; i++) {
+            outstanding[i] = replicas.get(i).outstanding.get();
+        }
+        return outstanding;
+    }
+
+    private <T> void submit(final Replica replica, final RedisCallback<T> action, final CompletableFuture<T> result,
+                            final AtomicInteger pending, final boolean hedged) {
+        hedgeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    if (result.complete(execute(replica, action)) && hedged) {
+                        hedgeWins.increment();
+                    }
+                } catch (RuntimeException e) {
+                    if (pending.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    } else {
+                        log.warn("replica " + replica.index + " read failed, waiting for hedged read: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private <T> T execute(Replica replica, RedisCallback<T> action) {
+        replica.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return replica.template.execute(action);
+        } finally {
+            replica.outstanding.decrementAndGet();
+            latency.recordNanos(System.nanoTime() - start);
+            refreshHedgeDelay();
+        }
+    }
+
+    /**
+     * 每秒按最近的耗时分布重新计算对冲延迟
+     */
+    private void refreshHedgeDelay() {
+        long now = System.currentTimeMillis();
+        long next = nextRefresh.get();
+        if (now < next || latency.getCount() < HEDGE_MIN_SAMPLES
+                || !nextRefresh.compareAndSet(next, now + HEDGE_REFRESH_MILLIS)) {
+            return;
+        }
+        long percentileNanos = TimeUnit.MICROSECONDS.toNanos(latency.getPercentileMicros(hedgePercentile));
+        hedgeDelayNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(hedgeMinDelay), percentileNanos);
+        latency.reset();
+    }
+
+    /**
+     * 未完成请求最少的从节点
+     */
+    private Replica choose(Replica exclude) {
+        int size = replicas.size();
+        int offset = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+        Replica best = null;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((offset + i) % size);
+            if (replica != exclude && (best == null || replica.outstanding.get() < best.outstanding.get())) {
+                best = replica;
+            }
+        }
+        return best == null ? exclude : best;
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (Exception e) {
+            return rethrow(e);
+        }
+    }
+
+    private static <T> T rethrow(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for replica read", e);
+        }
+        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    private static final class Replica {
+        private final int index;
+        private final RedisTemplate<String, Serializable> template;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private Replica(int index, RedisTemplate<String, Serializable> template) {
+            this.index = index;
+            this.template = template;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.chaoyue.redis;
+
+/**
+ * SCAN 系列命令的分批回调
+ * 每取到一批数据调用一次，回调执行期间占用一个redis连接
+ *
+ * @param <T> 每批数据的类型
+ */
+public interface ScanCallback<T> {
+
+    /**
+     * 处理一批数据
+     *
+     * @param batch 本批数据
+     * @return 是否继续遍历 返回false时停止
+     */
+    boolean doInScan(T batch);
+}
@@ -0,0 +1,599 @@
+package com.chaoyue.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Hashing;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端分片的缓存管理器 key 通过一致性哈希分布到多个 redis 节点
+ * 每个节点在哈希环上有 virtualNodes 个虚拟节点，虚拟节点的位置只由节点地址决定，增加一个节点只有约 1/(N+1) 的 key 需要迁移
+ * key 中含有 {tag} 时只对 tag 计算哈希(与 redis cluster 的 hash tag 规则一致)，相同 tag 的 key 一定在同一个节点
+ * delete、mGet、mSet 按节点拆分后并行发送，keys 和 scan 依次遍历所有节点
+ * publish 按 channel 路由，订阅方需要连接 getShard(channel) 所在的节点
+ */
+@Slf4j
+public class ShardedRedisCacheManager implements RedisCacheManager, InitializingBean, DisposableBean {
+
+    private List<String> nodes;
+
+    private String password;
+
+    private int timeout = 2000;
+
+    private JedisPoolConfig poolConfig;
+
+    private int dbIndex;
+
+    private int virtualNodes = 160;
+
+    /**
+     * 多节点并行执行批量操作的线程数
+     */
+    private int threads = 8;
+
+    private RedisSerializer<Object> defRedisSerializer;
+
+    private RedisMetricsSink metricsSink;
+
+    private final Map<String, DefaultRedisCacheManager> shards = new LinkedHashMap<>();
+
+    private final List<DbBoundJedisConnectionFactory> connectionFactories = new ArrayList<>();
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    private ExecutorService executor;
+
+    private RedisCache redisCache;
+
+    /**
+     * 节点地址 格式为 host:port
+     */
+    public void setNodes(List<String> nodes) {
+        this.nodes = nodes;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * @param timeout 单位毫秒
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * 每个节点的连接池都使用这份配置
+     */
+    public void setPoolConfig(JedisPoolConfig poolConfig) {
+        this.poolConfig = poolConfig;
+    }
+
+    public void setDbIndex(int dbIndex) {
+        this.dbIndex = dbIndex;
+    }
+
+    /**
+     * 每个节点的虚拟节点数 越大分布越均匀
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setDefRedisSerializer(RedisSerializer<Object> defRedisSerializer) {
+        this.defRedisSerializer = defRedisSerializer;
+    }
+
+    /**
+     * 所有节点共用的指标接收者
+     */
+    public void setMetricsSink(RedisMetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notEmpty(nodes, "nodes is required");
+        Assert.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+        for (String node : nodes) {
+            int colon = node.lastIndexOf(':');
+            Assert.isTrue(colon > 0, "node must be host:port but was " + node);
+            Assert.isTrue(!shards.containsKey(node), "duplicate node " + node);
+            DbBoundJedisConnectionFactory connectionFactory = poolConfig == null
+                    ? new DbBoundJedisConnectionFactory() : new DbBoundJedisConnectionFactory(poolConfig);
+            connectionFactory.setHostName(node.substring(0, colon));
+            connectionFactory.setPort(Integer.parseInt(node.substring(colon + 1)));
+            connectionFactory.setPassword(password);
+            connectionFactory.setTimeout(timeout);
+            connectionFactory.setUsePool(true);
+            connectionFactory.setDatabase(dbIndex);
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+
+            RedisTemplate<String, Serializable> redisTemplate = new RedisTemplate<>();
+            redisTemplate.setConnectionFactory(connectionFactory);
+            redisTemplate.afterPropertiesSet();
+
+            DefaultRedisCacheManager manager = new DefaultRedisCacheManager();
+            manager.setRedisTemplate(redisTemplate);
+            manager.setDbIndex(dbIndex);
+            manager.setMetricsSink(metricsSink);
+            if (defRedisSerializer != null) {
+                manager.setDefRedisSerializer(defRedisSerializer);
+            }
+            shards.put(node, manager);
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(Hashing.MURMUR_HASH.hash(node + "#" + i), node);
+            }
+        }
+        executor = Executors.newFixedThreadPool(threads, new DefaultAsyncRedisCacheManager.NamedThreadFactory(
+                "redis-shard-"));
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (DbBoundJedisConnectionFactory connectionFactory : connectionFactories) {
+            try {
+                connectionFactory.destroy();
+            } catch (Exception e) {
+                log.warn("fail to destroy redis connection factory " + connectionFactory.getHostName() + ":"
+                        + connectionFactory.getPort(), e);
+            }
+        }
+        connectionFactories.clear();
+        shards.clear();
+        ring.clear();
+    }
+
+    /**
+     * key 所在的节点地址
+     */
+    public String getNode(String key) {
+        SortedMap<Long, String> tail = ring.tailMap(Hashing.MURMUR_HASH.hash(hashTag(key)));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * key 所在节点的缓存管理器 用于 eval、executePipelined 等单节点操作
+     */
+    public DefaultRedisCacheManager getShard(String key) {
+        return shards.get(getNode(key));
+    }
+
+    /**
+     * 所有节点的缓存管理器 key 为节点地址
+     */
+    public Map<String, DefaultRedisCacheManager> getShards() {
+        return shards;
+    }
+
+    /**
+     * 在 keys 所在的节点执行 Lua 脚本 所有 key 必须在同一个节点，可以用 {tag} 保证
+     */
+    public <T> T eval(LuaScript script, List<String> keys, Object... args) throws Exception {
+        Assert.notEmpty(keys, "sharded eval requires at least one key");
+        String node = getNode(keys.get(0));
+        for (String key : keys) {
+            if (!node.equals(getNode(key))) {
+                throw new InvalidDataAccessApiUsageException("CROSSSLOT Keys in request don't hash to the same node: "
+                        + keys);
+            }
+        }
+        return shards.get(node).eval(script, keys, args);
+    }
+
+    /**
+     * 只取第一个 {} 中非空的部分
+     */
+    static String hashTag(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+
+    @Override
+    public void set(String key, byte[] value, long timeout) throws Exception {
+        getShard(key).set(key, value, timeout);
+    }
+
+    @Override
+    public void set(String key, byte[] value) throws Exception {
+        getShard(key).set(key, value);
+    }
+
+    @Override
+    public void set(String key, Serializable object, long timeout) throws Exception {
+        getShard(key).set(key, object, timeout);
+    }
+
+    @Override
+    public void set(String key, Serializable object) throws Exception {
+        getShard(key).set(key, object);
+    }
+
+    @Override
+    public void set(String key, String value, long timeout) throws Exception {
+        getShard(key).set(key, value, timeout);
+    }
+
+    @Override
+    public void set(String key, String value) throws Exception {
+        getShard(key).set(key, value);
+    }
+
+    @Override
+    public Object get(String key) throws Exception {
+        return getShard(key).get(key);
+    }
+
+    @Override
+    public String getString(String key) throws Exception {
+        return getShard(key).getString(key);
+    }
+
+    @Override
+    public <T> T get(String key, Class<T> t) throws Exception {
+        return getShard(key).get(key, t);
+    }
+
+    @Override
+    public long del(String key) throws Exception {
+        return getShard(key).del(key);
+    }
+
+    @Override
+    public List<Object> mGet(List<String> keys) throws Exception {
+        if (CollectionUtils.isEmpty(keys)) {
+            return new ArrayList<>();
+        }
+        final Object[] values = new Object[keys.size()];
+        final Map<String, List<Integer>> groups = groupIndexes(keys);
+        List<Callable<Object>> tasks = new ArrayList<>(groups.size());
+        for (final Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            final List<String> shardKeys = new ArrayList<>(group.getValue().size());
+            for (Integer index : group.getValue()) {
+                shardKeys.add(keys.get(index));
+            }
+            tasks.add(() -> {
+                List<Object> shardValues = shards.get(group.getKey()).mGet(shardKeys);
+                for (int i = 0; i < shardValues.size(); i++) {
+                    values[group.getValue().get(i)] = shardValues.get(i);
+                }
+                return null;
+            });
+        }
+        invokeAll(tasks);
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    @Override
+    public <T> List<T> mGet(List<String> keys, Class<T> t) throws Exception {
+        List<Object> values = mGet(keys);
+        List<T> result = new ArrayList<>(values.size());
+        for (Object value : values) {
+            result.add(DefaultRedisCacheManager.convertValue(value, t));
+        }
+        return result;
+    }
+
+    @Override
+    public void mSet(Map<String, ? extends Serializable> values, final long timeout) throws Exception {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Serializable>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends Serializable> entry : values.entrySet()) {
+            String node = getNode(entry.getKey());
+            Map<String, Serializable> group = groups.get(node);
+            if (group == null) {
+                group = new LinkedHashMap<>();
+                groups.put(node, group);
+            }
+            group.put(entry.getKey(), entry.getValue());
+        }
+        List<Callable<Object>> tasks = new ArrayList<>(groups.size());
+        for (final Map.Entry<String, Map<String, Serializable>> group : groups.entrySet()) {
+            tasks.add(() -> {
+                shards.get(group.getKey()).mSet(group.getValue(), timeout);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    @Override
+    public void delete(List<String> keys) throws Exception {
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        Map<String, List<Integer>> groups = groupIndexes(keys);
+        List<Callable<Object>> tasks = new ArrayList<>(groups.size());
+        for (final Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            final List<String> shardKeys = new ArrayList<>(group.getValue().size());
+            for (Integer index : group.getValue()) {
+                shardKeys.add(keys.get(index));
+            }
+            tasks.add(() -> {
+                shards.get(group.getKey()).delete(shardKeys);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    @Override
+    public Set<String> keys(String pattern) throws Exception {
+        Set<String> keys = new HashSet<>();
+        for (DefaultRedisCacheManager shard : shards.values()) {
+            keys.addAll(shard.keys(pattern));
+        }
+        return keys;
+    }
+
+    @Override
+    public void scan(String pattern, int count, final ScanCallback<List<String>> callback) throws Exception {
+        final boolean[] stopped = {false};
+        for (DefaultRedisCacheManager shard : shards.values()) {
+            shard.scan(pattern, count, new ScanCallback<List<String>>() {
+                @Override
+                public boolean doInScan(List<String> batch) {
+                    if (!callback.doInScan(batch)) {
+                        stopped[0] = true;
+                    }
+                    return !stopped[0];
+                }
+            });
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean hSet(String key, String fieldKey, Serializable value) throws Exception {
+        return getShard(key).hSet(key, fieldKey, value);
+    }
+
+    @Override
+    public <T extends Serializable> void hMSet(String key, Map<String, T> fieldMap) throws Exception {
+        getShard(key).hMSet(key, fieldMap);
+    }
+
+    @Override
+    public Object hGet(String key, String fieldKey) throws Exception {
+        return getShard(key).hGet(key, fieldKey);
+    }
+
+    @Override
+    public long hDel(String key, String... fieldKeys) throws Exception {
+        return getShard(key).hDel(key, fieldKeys);
+    }
+
+    @Override
+    public <T> Map<String, T> hGetAll(String key, Class<T> clazz) throws Exception {
+        return getShard(key).hGetAll(key, clazz);
+    }
+
+    @Override
+    public <T> Map<String, T> hMGet(String key, Class<T> clazz, String... fieldKeys) throws Exception {
+        return getShard(key).hMGet(key, clazz, fieldKeys);
+    }
+
+    @Override
+    public <T> void hScan(String key, int count, Class<T> clazz, ScanCallback<Map<String, T>> callback)
+            throws Exception {
+        getShard(key).hScan(key, count, clazz, callback);
+    }
+
+    @Override
+    public byte[] leftPop(String key) throws Exception {
+        return getShard(key).leftPop(key);
+    }
+
+    @Override
+    public boolean rightPush(String key, byte[] value) throws Exception {
+        return getShard(key).rightPush(key, value);
+    }
+
+    @Override
+    public boolean expire(String key, long timeout, TimeUnit unit) throws Exception {
+        return getShard(key).expire(key, timeout, unit);
+    }
+
+    @Override
+    public boolean expire(String key, long timeout) throws Exception {
+        return getShard(key).expire(key, timeout);
+    }
+
+    @Override
+    public long publish(String channel, String msg) throws Exception {
+        return getShard(channel).publish(channel, msg);
+    }
+
+    @Override
+    public long zSize(String key) throws Exception {
+        return getShard(key).zSize(key);
+    }
+
+    @Override
+    public long zCount(String key, double min, double max) throws Exception {
+        return getShard(key).zCount(key, min, max);
+    }
+
+    @Override
+    public Set<byte[]> zRangeByScore(String key, double min, double max, long offset, long count)
+            throws Exception {
+        return getShard(key).zRangeByScore(key, min, max, offset, count);
+    }
+
+    @Override
+    public long zRemove(String key, byte[]... value) throws Exception {
+        return getShard(key).zRemove(key, value);
+    }
+
+    @Override
+    public boolean zAdd(String key, byte[] value, double score) throws Exception {
+        return getShard(key).zAdd(key, value, score);
+    }
+
+    @Override
+    public byte[] getSet(String key, byte[] values, long time, TimeUnit timeUnit) throws Exception {
+        return getShard(key).getSet(key, values, time, timeUnit);
+    }
+
+    @Override
+    public byte[] getSet(String key, byte[] values, long time) throws Exception {
+        return getShard(key).getSet(key, values, time);
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, byte[] value, long timeout, TimeUnit unit) throws Exception {
+        return getShard(key).setIfAbsent(key, value, timeout, unit);
+    }
+
+    @Override
+    public boolean deleteIfEquals(String key, byte[] expected) throws Exception {
+        return getShard(key).deleteIfEquals(key, expected);
+    }
+
+    @Override
+    public Set<byte[]> zRevRangeByScore(String key, double min, double max) throws Exception {
+        return getShard(key).zRevRangeByScore(key, min, max);
+    }
+
+    @Override
+    public Set<byte[]> zRevRangeByScore(String key, double min, double max, long offset, long count)
+            throws Exception {
+        return getShard(key).zRevRangeByScore(key, min, max, offset, count);
+    }
+
+    @Override
+    public Set<byte[]> zRangeByScore(String key, double min, double max) throws Exception {
+        return getShard(key).zRangeByScore(key, min, max);
+    }
+
+    @Override
+    public long zRemoveRangeByScore(String key, double min, double max) throws Exception {
+        return getShard(key).zRemoveRangeByScore(key, min, max);
+    }
+
+    @Override
+    public long increment(String key, Long delta) throws Exception {
+        return getShard(key).increment(key, delta);
+    }
+
+    @Override
+    public long increment(String key, Long delta, long timeout, TimeUnit unit) throws Exception {
+        return getShard(key).increment(key, delta, timeout, unit);
+    }
+
+    @Override
+    public long listSize(String key) throws Exception {
+        return getShard(key).listSize(key);
+    }
+
+    @Override
+    public RedisSerializer<Object> getDefRedisSerializer() {
+        return shards.values().iterator().next().getDefRedisSerializer();
+    }
+
+    @Override
+    public RedisSerializer<String> getStringSerializer() {
+        return shards.values().iterator().next().getStringSerializer();
+    }
+
+    @Override
+    public long ttl(String key) throws Exception {
+        return getShard(key).ttl(key);
+    }
+
+    // singleton
+    public RedisCache getRedisCache() {
+        if (redisCache == null) {
+            redisCache = new RedisCache(this);
+        }
+        return redisCache;
+    }
+
+    /**
+     * 按节点分组 值为 key 在 keys 中的下标
+     */
+    private Map<String, List<Integer>> groupIndexes(List<String> keys) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String node = getNode(keys.get(i));
+            List<Integer> group = groups.get(node);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(node, group);
+            }
+            group.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * 第一个任务在当前线程执行 其余提交到线程池并行执行，全部完成后抛出第一个异常
+     */
+    private void invokeAll(List<Callable<Object>> tasks) throws Exception {
+        List<Future<Object>> futures = new ArrayList<>(tasks.size() - 1);
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(executor.submit(tasks.get(i)));
+        }
+        Exception error = null;
+        try {
+            tasks.get(0).call();
+        } catch (Exception e) {
+            error = e;
+        }
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
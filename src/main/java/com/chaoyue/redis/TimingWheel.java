@@ -0,0 +1,154 @@
+package com.chaoyue.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分层时间轮 用于过期时间的调度
+ * 每层 64 个槽，第 0 层每槽为一个 tick，第 n 层每槽为 64^n 个 tick，到达高层槽的时间点时把其中的条目降级到低层
+ * 添加和取消都是 O(1)，大量 key 设置过期时间时不需要为每个 key 创建定时任务
+ * 取消采用惰性方式：条目到期后由调用方检查 key 当前的过期时间是否仍然一致
+ * 非线程安全的部分由 this 锁保护，到期的条目在 advance 的返回值中交给调用方在锁外处理
+ */
+class TimingWheel {
+
+    private static final int WHEEL_BITS = 6;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final long tickMs;
+
+    private final long startMs;
+
+    private final int levels;
+
+    private final List<Timeout>[][] slots;
+
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * @param tickMs  每个 tick 的毫秒数
+     * @param levels  层数 可调度的最长时间为 tickMs * 64^levels，超出的条目在最高层循环直到进入范围
+     * @param startMs 起始时间
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMs, int levels, long startMs) {
+        this.tickMs = tickMs;
+        this.levels = levels;
+        this.startMs = startMs;
+        this.slots = (List<Timeout>[][]) new List<?>[levels][WHEEL_SIZE];
+    }
+
+    /**
+     * 添加一个到期时间
+     *
+     * @return false 表示已经到期 没有加入时间轮
+     */
+    synchronized boolean add(String key, long expireAt) {
+        long deadlineTick = toTick(expireAt);
+        if (deadlineTick <= currentTick) {
+            return false;
+        }
+        place(new Timeout(key, expireAt, deadlineTick));
+        size++;
+        return true;
+    }
+
+    /**
+     * 推进到 nowMs
+     *
+     * @return 到期的条目
+     */
+    synchronized List<Timeout> advance(long nowMs) {
+        long targetTick = (nowMs - startMs) / tickMs;
+        List<Timeout> expired = null;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade(1);
+            List<Timeout> slot = slots[0][(int) (currentTick & WHEEL_MASK)];
+            if (slot != null && !slot.isEmpty()) {
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.addAll(slot);
+                size -= slot.size();
+                slot.clear();
+            }
+        }
+        return expired;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 当前 tick 在 level-1 层转完一圈时，把 level 层当前槽中的条目降级
+     */
+    private void cascade(int level) {
+        if (level >= levels || (currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+            return;
+        }
+        // 先处理更高层，降级下来的条目可能落在本层当前槽
+        cascade(level + 1);
+        int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        List<Timeout> slot = slots[level][index];
+        if (slot == null || slot.isEmpty()) {
+            return;
+        }
+        List<Timeout> timeouts = new ArrayList<>(slot);
+        slot.clear();
+        for (Timeout timeout : timeouts) {
+            place(timeout);
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        int level;
+        long tick;
+        if (delta <= 0) {
+            // 降级时恰好到期 放入第 0 层当前槽，advance 随后就会处理
+            level = 0;
+            tick = currentTick;
+        } else {
+            level = 0;
+            while (level < levels - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+                level++;
+            }
+            tick = timeout.deadlineTick;
+            if (level == levels - 1 && delta >= (1L << (WHEEL_BITS * levels))) {
+                // 超出范围 放在最高层即将转到的最远槽 到时再重新放置
+                tick = currentTick + ((long) WHEEL_MASK << (WHEEL_BITS * level));
+            }
+        }
+        int index = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        List<Timeout> slot = slots[level][index];
+        if (slot == null) {
+            slot = new ArrayList<>();
+            slots[level][index] = slot;
+        }
+        slot.add(timeout);
+    }
+
+    private long toTick(long timeMs) {
+        // 向上取整 保证不会早于 expireAt 到期
+        return (timeMs - startMs + tickMs - 1) / tickMs;
+    }
+
+    static final class Timeout {
+        final String key;
+        final long expireAt;
+        private final long deadlineTick;
+
+        private Timeout(String key, long expireAt, long deadlineTick) {
+            this.key = key;
+            this.expireAt = expireAt;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.chaoyue.redis;
+
+/**
+ * 缓存 value 的编解码接口
+ * 实现类写出的数据必须以 ValueHeader 的头部开头 [MAGIC, getFormat()]，CodecRedisSerializer 按头部中的格式编号选择解码器
+ */
+public interface ValueCodec {
+
+    /**
+     * 格式编号 不同的实现必须不同
+     */
+    byte getFormat();
+
+    /**
+     * 编码 包含头部
+     *
+     * @param value 非null的对象
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     *
+     * @param bytes  包含头部的完整数据
+     * @param offset 头部之后的数据起始位置
+     */
+    Object decode(byte[] bytes, int offset);
+}
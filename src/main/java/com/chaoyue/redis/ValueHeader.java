@@ -0,0 +1,50 @@
+package com.chaoyue.redis;
+
+/**
+ * 缓存 value 的头部格式 [MAGIC, format]
+ * 读取时根据头部选择解码方式，不再依靠反序列化失败的异常来判断数据格式
+ * UTF-8 文本和 JDK 序列化(0xACED 开头)都不会以 MAGIC 开头，因此带头部的数据可以和它们共存
+ */
+public final class ValueHeader {
+
+    public static final byte MAGIC = (byte) 0xFE;
+
+    /**
+     * 头部长度
+     */
+    public static final int LENGTH = 2;
+
+    /**
+     * kryo 二进制格式
+     */
+    public static final byte FORMAT_KRYO = 1;
+
+    /**
+     * deflate 压缩 解压后的数据再按头部解码
+     */
+    public static final byte FORMAT_DEFLATE = 16;
+
+    private ValueHeader() {
+    }
+
+    /**
+     * 是否带有头部
+     */
+    public static boolean hasHeader(byte[] bytes) {
+        return bytes != null && bytes.length >= LENGTH && bytes[0] == MAGIC;
+    }
+
+    /**
+     * 读取格式编号 调用前需要先判断 hasHeader
+     */
+    public static byte format(byte[] bytes) {
+        return bytes[1];
+    }
+
+    /**
+     * 是否为 JDK 序列化的数据 (ObjectOutputStream 的 STREAM_MAGIC 0xACED)
+     */
+    public static boolean isJdkSerialized(byte[] bytes) {
+        return bytes != null && bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+}
@@ -0,0 +1,112 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.CodecRedisSerializer;
+import com.chaoyue.redis.KryoValueCodec;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CodecRedisSerializerTest {
+
+    private CodecRedisSerializer newSerializer() {
+        KryoValueCodec codec = new KryoValueCodec();
+        codec.setRegisteredClasses(Collections.<Class<?>>singletonList(Order.class));
+        CodecRedisSerializer serializer = new CodecRedisSerializer();
+        serializer.setCodec(codec);
+        return serializer;
+    }
+
+    @Test
+    public void roundTripTest() {
+        CodecRedisSerializer serializer = newSerializer();
+        Order order = new Order(1001L, "chaoyue");
+        order.items.put("apple", 3);
+
+        byte[] bytes = serializer.serialize(order);
+        Order result = (Order) serializer.deserialize(bytes);
+        Assert.assertEquals(order.id, result.id);
+        Assert.assertEquals(order.name, result.name);
+        Assert.assertEquals(order.items, result.items);
+        Assert.assertTrue(bytes.length < new JdkSerializationRedisSerializer().serialize(order).length);
+
+        ArrayList<String> list = new ArrayList<>();
+        list.add("chaoyue_string");
+        Assert.assertEquals(list, serializer.deserialize(serializer.serialize(list)));
+    }
+
+    @Test
+    public void legacyFormatTest() {
+        CodecRedisSerializer serializer = newSerializer();
+        byte[] jdkBytes = new JdkSerializationRedisSerializer().serialize("chaoyue_string_value1");
+        Assert.assertEquals("chaoyue_string_value1", serializer.deserialize(jdkBytes));
+
+        byte[] jsonBytes = "{\"id\":1}".getBytes();
+        Assert.assertSame(jsonBytes, serializer.deserialize(jsonBytes));
+        Assert.assertNull(serializer.deserialize(new byte[0]));
+    }
+
+    @Test
+    public void compressionTest() {
+        CodecRedisSerializer serializer = newSerializer();
+        serializer.setCompressThreshold(1024);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("chaoyue_string_value").append(i % 10);
+        }
+        String value = builder.toString();
+
+        byte[] bytes = serializer.serialize(value);
+        Assert.assertTrue(bytes.length < value.length() / 4);
+        Assert.assertEquals(value, serializer.deserialize(bytes));
+        Assert.assertEquals(1, serializer.getCompressor().getCompressedCount());
+        Assert.assertTrue(serializer.getCompressor().getCompressionRatio() < 0.25);
+
+        // 低于阈值不压缩
+        Assert.assertEquals("chaoyue", serializer.deserialize(serializer.serialize("chaoyue")));
+        Assert.assertEquals(1, serializer.getCompressor().getCompressedCount());
+    }
+
+    @Test
+    public void corruptedLengthTest() {
+        CodecRedisSerializer serializer = newSerializer();
+        serializer.setCompressThreshold(1024);
+        serializer.setMaxDecompressedLength(8192);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("chaoyue_string_value").append(i % 10);
+        }
+        // 原始长度 21000 超过 8192
+        byte[] tooLong = serializer.serialize(builder.toString());
+        byte[] negative = tooLong.clone();
+        negative[2] = (byte) 0x80;
+        for (byte[] bytes : new byte[][]{tooLong, negative}) {
+            try {
+                serializer.deserialize(bytes);
+                Assert.fail("invalid length should be rejected");
+            } catch (SerializationException e) {
+                Assert.assertTrue(e.getCause().getMessage().contains("invalid length"));
+            }
+        }
+        Assert.assertEquals(0, serializer.getCompressor().getDecompressedCount());
+    }
+
+    public static class Order implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long id;
+        private final String name;
+        private final Map<String, Integer> items = new HashMap<>();
+
+        public Order(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
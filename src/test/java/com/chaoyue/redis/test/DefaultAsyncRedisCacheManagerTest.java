@@ -0,0 +1,104 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DefaultAsyncRedisCacheManager;
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不连接 redis 同步操作由 BlockingManager 模拟
+ */
+public class DefaultAsyncRedisCacheManagerTest {
+
+    private DefaultAsyncRedisCacheManager asyncManager;
+
+    @After
+    public void tearDown() throws Exception {
+        if (asyncManager != null) {
+            asyncManager.destroy();
+        }
+    }
+
+    private DefaultAsyncRedisCacheManager asyncManager(BlockingManager manager, int threads, int queueCapacity) {
+        asyncManager = new DefaultAsyncRedisCacheManager();
+        asyncManager.setRedisCacheManager(manager);
+        asyncManager.setThreads(threads);
+        asyncManager.setQueueCapacity(queueCapacity);
+        asyncManager.afterPropertiesSet();
+        return asyncManager;
+    }
+
+    @Test
+    public void rejectTest() throws Exception {
+        BlockingManager manager = new BlockingManager();
+        DefaultAsyncRedisCacheManager asyncManager = asyncManager(manager, 1, 1);
+        CompletableFuture<Object> running = asyncManager.get("chaoyue_key1");
+        Assert.assertTrue(manager.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> queued = asyncManager.get("chaoyue_key2");
+
+        // 线程和队列都已占满 不阻塞调用线程，直接返回失败的 future
+        long start = System.currentTimeMillis();
+        CompletableFuture<Object> rejected = asyncManager.get("chaoyue_key3");
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertFalse(running.isDone());
+        Assert.assertFalse(queued.isDone());
+
+        manager.release.countDown();
+        Assert.assertEquals("chaoyue_key1", running.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("chaoyue_key2", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void exceptionTest() throws Exception {
+        BlockingManager manager = new BlockingManager();
+        DefaultAsyncRedisCacheManager asyncManager = asyncManager(manager, 1, 16);
+        CompletableFuture<String> future = asyncManager.getString("chaoyue_key");
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            // 同步操作抛出的受检异常原样传给 future
+            Assert.assertSame(manager.failure, e.getCause());
+        }
+        Assert.assertTrue(future.isCompletedExceptionally());
+    }
+
+    /**
+     * get 在 release 之前阻塞并返回 key，getString 总是失败
+     */
+    private static final class BlockingManager extends DefaultRedisCacheManager {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final IOException failure = new IOException("redis is down");
+
+        @Override
+        public Object get(String key) throws Exception {
+            started.countDown();
+            release.await();
+            return key;
+        }
+
+        @Override
+        public String getString(String key) throws Exception {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.EmbeddedRedisCacheManager;
+import com.chaoyue.redis.ScanCallback;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class EmbeddedRedisCacheManagerTest {
+
+    private EmbeddedRedisCacheManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new EmbeddedRedisCacheManager();
+        manager.setTickMs(5);
+        manager.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        manager.destroy();
+    }
+
+    @Test
+    public void stringTest() throws Exception {
+        manager.set("chaoyue_string", "chaoyue_string_value1");
+        Assert.assertEquals("chaoyue_string_value1", manager.getString("chaoyue_string"));
+        manager.set("chaoyue_object", new HashMap<>(Collections.singletonMap("a", 1)));
+        Assert.assertEquals(1, manager.get("chaoyue_object", Map.class).get("a"));
+
+        Assert.assertEquals(5, manager.increment("chaoyue_count", 5L));
+        Assert.assertEquals(3, manager.increment("chaoyue_count", -2L));
+
+        Assert.assertTrue(manager.setIfAbsent("chaoyue_lock", "token".getBytes(), 10, TimeUnit.SECONDS));
+        Assert.assertFalse(manager.setIfAbsent("chaoyue_lock", "other".getBytes(), 10, TimeUnit.SECONDS));
+        Assert.assertFalse(manager.deleteIfEquals("chaoyue_lock", "other".getBytes()));
+        Assert.assertTrue(manager.deleteIfEquals("chaoyue_lock", "token".getBytes()));
+
+        Assert.assertEquals(1, manager.del("chaoyue_string"));
+        Assert.assertNull(manager.getString("chaoyue_string"));
+    }
+
+    @Test
+    public void expireTest() throws Exception {
+        manager.set("chaoyue_expire", "v".getBytes(), 1);
+        Assert.assertEquals(1, manager.ttl("chaoyue_expire"));
+        manager.increment("chaoyue_persist", 1L);
+        Assert.assertEquals(-1, manager.ttl("chaoyue_persist"));
+        Assert.assertEquals(-2, manager.ttl("chaoyue_none"));
+
+        manager.expire("chaoyue_persist", 30, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+        Assert.assertNull(manager.get("chaoyue_persist"));
+        // 时间轮回收内存
+        Assert.assertEquals(1, manager.size());
+    }
+
+    @Test
+    public void hashAndListTest() throws Exception {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("f1", "v1");
+        fields.put("f2", "v2");
+        manager.hMSet("chaoyue_hash", fields);
+        Assert.assertTrue(manager.hSet("chaoyue_hash", "f3", "v3"));
+        Assert.assertEquals("v1", manager.hGet("chaoyue_hash", "f1"));
+        Assert.assertEquals(3, manager.hGetAll("chaoyue_hash", String.class).size());
+        Assert.assertEquals(Arrays.asList("f3", "f1"),
+                new ArrayList<>(manager.hMGet("chaoyue_hash", String.class, "f3", "none", "f1").keySet()));
+        final Map<String, String> scanned = new HashMap<>();
+        manager.hScan("chaoyue_hash", 2, String.class, new ScanCallback<Map<String, String>>() {
+            @Override
+            public boolean doInScan(Map<String, String> batch) {
+                Assert.assertTrue(batch.size() <= 2);
+                scanned.putAll(batch);
+                return true;
+            }
+        });
+        Assert.assertEquals(3, scanned.size());
+        Assert.assertEquals(3, manager.hDel("chaoyue_hash", "f1", "f2", "f3"));
+        Assert.assertTrue(manager.keys("chaoyue_*").isEmpty());
+
+        manager.rightPush("chaoyue_list", "a".getBytes());
+        manager.rightPush("chaoyue_list", "b".getBytes());
+        Assert.assertEquals(2, manager.listSize("chaoyue_list"));
+        Assert.assertArrayEquals("a".getBytes(), manager.leftPop("chaoyue_list"));
+
+        try {
+            manager.hGet("chaoyue_list", "f1");
+            Assert.fail("WRONGTYPE expected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getMessage().startsWith("WRONGTYPE"));
+        }
+    }
+
+    @Test
+    public void sortedSetTest() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            manager.zAdd("chaoyue_zset", ("m" + i).getBytes(), i);
+        }
+        Assert.assertFalse(manager.zAdd("chaoyue_zset", "m0".getBytes(), 0.5));
+        Assert.assertEquals(10, manager.zSize("chaoyue_zset"));
+        Assert.assertEquals(3, manager.zCount("chaoyue_zset", 2, 4));
+
+        Set<byte[]> range = manager.zRangeByScore("chaoyue_zset", 0, 9, 1, 2);
+        Iterator<byte[]> it = range.iterator();
+        Assert.assertArrayEquals("m1".getBytes(), it.next());
+        Assert.assertArrayEquals("m2".getBytes(), it.next());
+        Assert.assertArrayEquals("m9".getBytes(), manager.zRevRangeByScore("chaoyue_zset", 0, 9).iterator().next());
+
+        Assert.assertEquals(5, manager.zRemoveRangeByScore("chaoyue_zset", 5, 9));
+        Assert.assertEquals(2, manager.zRemove("chaoyue_zset", "m0".getBytes(), "m1".getBytes()));
+        Assert.assertEquals(Arrays.asList("chaoyue_zset"), Arrays.asList(manager.keys("chaoyue_z?et").toArray()));
+    }
+}
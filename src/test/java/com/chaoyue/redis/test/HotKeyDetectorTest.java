@@ -0,0 +1,88 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.HotKeyDetector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HotKeyDetectorTest {
+
+    @Test
+    public void detectTest() {
+        HotKeyDetector detector = new HotKeyDetector();
+        detector.setSampleRate(1);
+        detector.setTopK(8);
+        detector.setHotThreshold(500);
+        for (int round = 0; round < 1000; round++) {
+            detector.record("chaoyue_hot");
+            if (round % 2 == 0) {
+                detector.record("chaoyue_warm");
+            }
+            for (int i = 0; i < 20; i++) {
+                detector.record("chaoyue_cold_" + (round * 20 + i));
+            }
+        }
+        Assert.assertTrue(detector.isHot("chaoyue_hot"));
+        Assert.assertTrue(detector.isHot("chaoyue_warm"));
+        Assert.assertFalse(detector.isHot("chaoyue_cold_1"));
+
+        List<HotKeyDetector.HotKey> topKeys = detector.getTopKeys();
+        Assert.assertTrue(topKeys.size() <= 8);
+        Assert.assertEquals("chaoyue_hot", topKeys.get(0).getKey());
+        Assert.assertEquals("chaoyue_warm", topKeys.get(1).getKey());
+        // count-min sketch 只会高估
+        Assert.assertTrue(topKeys.get(0).getCount() >= 1000);
+    }
+
+    @Test
+    public void windowTest() throws InterruptedException {
+        HotKeyDetector detector = new HotKeyDetector();
+        detector.setSampleRate(1);
+        detector.setHotThreshold(100);
+        detector.setWindowMillis(200);
+        detector.setSlices(2);
+        for (int i = 0; i < 200; i++) {
+            detector.record("chaoyue_hot");
+        }
+        Assert.assertTrue(detector.isHot("chaoyue_hot"));
+        Thread.sleep(300);
+        // 窗口滑过后由其他 key 的读取触发轮转
+        detector.record("chaoyue_other");
+        Assert.assertFalse(detector.isHot("chaoyue_hot"));
+        Assert.assertEquals(0, detector.estimate("chaoyue_hot"));
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        final HotKeyDetector detector = new HotKeyDetector();
+        detector.setSampleRate(1);
+        detector.setTopK(4);
+        detector.setHotThreshold(4000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        detector.record("chaoyue_hot");
+                        detector.record("chaoyue_cold_" + offset + "_" + i);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(detector.isHot("chaoyue_hot"));
+        Assert.assertEquals(1, detector.getHotKeys().size());
+        List<HotKeyDetector.HotKey> topKeys = detector.getTopKeys();
+        Assert.assertTrue(topKeys.size() <= 4);
+        Assert.assertEquals("chaoyue_hot", topKeys.get(0).getKey());
+        Assert.assertTrue(topKeys.get(0).getCount() >= 8000);
+    }
+}
@@ -0,0 +1,20 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.KeyEncoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class KeyEncoderTest {
+
+    @Test
+    public void encodeTest() {
+        KeyEncoder encoder = new KeyEncoder("chaoyue:");
+        String[] keys = {"", "user:1024", "商品:详情:1024", "café", "emoji:😀:1", "lone:\ud83d:x", "\udc00"};
+        for (String key : keys) {
+            Assert.assertArrayEquals(key, ("chaoyue:" + key).getBytes(StandardCharsets.UTF_8), encoder.encode(key));
+            Assert.assertArrayEquals(key, key.getBytes(StandardCharsets.UTF_8), KeyEncoder.UTF8.encode(key));
+        }
+    }
+}
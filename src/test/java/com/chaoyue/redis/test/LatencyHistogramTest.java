@@ -0,0 +1,38 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentileTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMaxMicros());
+        // 相对误差不超过 1/16
+        Assert.assertEquals(500, histogram.getPercentileMicros(50), 500 / 16);
+        Assert.assertEquals(990, histogram.getPercentileMicros(99), 990 / 16);
+        Assert.assertEquals(999, histogram.getPercentileMicros(99.9), 999 / 16);
+        Assert.assertEquals(500.5, histogram.getMeanMicros(), 0.001);
+    }
+
+    @Test
+    public void largeValueTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(TimeUnit.DAYS.toNanos(30));
+        histogram.recordNanos(0);
+        Assert.assertEquals(2, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentileMicros(50));
+        Assert.assertTrue(histogram.getPercentileMicros(100) > 0);
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+    }
+}
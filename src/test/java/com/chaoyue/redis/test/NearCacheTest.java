@@ -0,0 +1,73 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.NearCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearCacheTest {
+
+    @Test
+    public void getAndInvalidateTest() {
+        NearCache nearCache = new NearCache();
+        nearCache.put("chaoyue_string", "chaoyue_string_value1");
+        Assert.assertEquals("chaoyue_string_value1", nearCache.get("chaoyue_string", String.class));
+        Assert.assertNull(nearCache.get("chaoyue_string", Long.class));
+
+        nearCache.invalidate("chaoyue_string");
+        Assert.assertNull(nearCache.get("chaoyue_string"));
+    }
+
+    @Test
+    public void ttlTest() throws InterruptedException {
+        NearCache nearCache = new NearCache();
+        nearCache.setTtl(50);
+        nearCache.put("chaoyue_string", "chaoyue_string_value1");
+        Thread.sleep(100);
+        Assert.assertNull(nearCache.get("chaoyue_string"));
+    }
+
+    @Test
+    public void readStampTest() {
+        NearCache nearCache = new NearCache();
+        long stamp = nearCache.readStamp();
+        // 读取期间写入并失效
+        nearCache.invalidate("chaoyue_string");
+        Assert.assertFalse(nearCache.put("chaoyue_string", "chaoyue_string_old", stamp));
+        Assert.assertNull(nearCache.get("chaoyue_string"));
+
+        Assert.assertTrue(nearCache.put("chaoyue_string", "chaoyue_string_new", nearCache.readStamp()));
+        Assert.assertEquals("chaoyue_string_new", nearCache.get("chaoyue_string"));
+
+        // 失效记录被淘汰后 更早开始的读取仍然不写入
+        stamp = nearCache.readStamp();
+        nearCache.invalidate("chaoyue_other");
+        for (int i = 0; i < 10000; i++) {
+            nearCache.invalidate("chaoyue_" + i);
+        }
+        Assert.assertFalse(nearCache.put("chaoyue_other", "chaoyue_other_old", stamp));
+    }
+
+    @Test
+    public void staleTest() throws InterruptedException {
+        NearCache nearCache = new NearCache();
+        nearCache.setTtl(50);
+        nearCache.setStaleTtl(10000);
+        nearCache.put("chaoyue_string", "chaoyue_string_value1");
+        Thread.sleep(100);
+        Assert.assertNull(nearCache.get("chaoyue_string"));
+        Assert.assertEquals("chaoyue_string_value1", nearCache.getStale("chaoyue_string", String.class));
+
+        nearCache.invalidate("chaoyue_string");
+        Assert.assertNull(nearCache.getStale("chaoyue_string", String.class));
+    }
+
+    @Test
+    public void maxSizeTest() {
+        NearCache nearCache = new NearCache();
+        nearCache.setMaxSize(160);
+        for (int i = 0; i < 10000; i++) {
+            nearCache.put("chaoyue_" + i, i);
+        }
+        Assert.assertTrue(nearCache.size() <= 160);
+    }
+}
@@ -0,0 +1,174 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.EmbeddedRedisCacheManager;
+import com.chaoyue.redis.RedisCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RedisCache.get(key, t, loader, seconds) 的本进程内合并加载
+ */
+public class RedisCacheLoadTest {
+
+    private static final int WAITERS = 4;
+
+    private EmbeddedRedisCacheManager manager;
+
+    private RedisCache redisCache;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        manager = new EmbeddedRedisCacheManager();
+        manager.afterPropertiesSet();
+        redisCache = manager.getRedisCache();
+        executor = Executors.newFixedThreadPool(WAITERS + 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        manager.destroy();
+    }
+
+    @Test
+    public void singleFlightTest() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RedisCache.Loader<String> loader = new RedisCache.Loader<String>() {
+            @Override
+            public String load(String key) throws Exception {
+                loads.incrementAndGet();
+                entered.countDown();
+                release.await();
+                return "chaoyue_value";
+            }
+        };
+        List<Future<String>> results = submit(loader, entered);
+        release.countDown();
+        for (Future<String> result : results) {
+            Assert.assertEquals("chaoyue_value", result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals("chaoyue_value", manager.get("chaoyue:chaoyue_load", String.class));
+    }
+
+    @Test
+    public void loaderExceptionTest() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IOException failure = new IOException("chaoyue_load_failed");
+        final RedisCache.Loader<String> loader = new RedisCache.Loader<String>() {
+            @Override
+            public String load(String key) throws Exception {
+                loads.incrementAndGet();
+                entered.countDown();
+                release.await();
+                throw failure;
+            }
+        };
+        List<Future<String>> results = submit(loader, entered);
+        release.countDown();
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                Assert.fail("loader exception should be propagated");
+            } catch (ExecutionException e) {
+                Assert.assertSame(failure, e.getCause());
+            }
+        }
+        Assert.assertEquals(1, loads.get());
+        Assert.assertNull(manager.get("chaoyue:chaoyue_load", String.class));
+    }
+
+    @Test
+    public void differentTypeTest() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // 以 byte[] 加载 json 文本，以 Item 读取时按 json 解析
+        Future<byte[]> raw = executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return redisCache.get("chaoyue_load", byte[].class, new RedisCache.Loader<byte[]>() {
+                    @Override
+                    public byte[] load(String key) throws Exception {
+                        entered.countDown();
+                        release.await();
+                        return "{\"name\":\"chaoyue_value\"}".getBytes(StandardCharsets.UTF_8);
+                    }
+                }, 60);
+            }
+        });
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Future<Item> item = executor.submit(new Callable<Item>() {
+            @Override
+            public Item call() throws Exception {
+                return redisCache.get("chaoyue_load", Item.class, new RedisCache.Loader<Item>() {
+                    @Override
+                    public Item load(String key) {
+                        throw new IllegalStateException("should read the value loaded as byte[]");
+                    }
+                }, 60);
+            }
+        });
+        Thread.sleep(200);
+        release.countDown();
+        Assert.assertNotNull(raw.get(5, TimeUnit.SECONDS));
+        // 加载结果不是 Item 不共享，自己从缓存读取
+        Assert.assertEquals("chaoyue_value", item.get(5, TimeUnit.SECONDS).getName());
+    }
+
+    /**
+     * 第一个线程进入 loader 后再提交其余线程 等待它们阻塞在同一次加载上
+     */
+    private List<Future<String>> submit(final RedisCache.Loader<String> loader, CountDownLatch entered)
+            throws InterruptedException {
+        Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return redisCache.get("chaoyue_load", String.class, loader, 60);
+            }
+        };
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(task));
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < WAITERS; i++) {
+            results.add(executor.submit(task));
+        }
+        Thread.sleep(200);
+        return results;
+    }
+
+    public static class Item implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.RedisCircuitBreaker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RedisCircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+    private RedisCircuitBreaker breaker() {
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker();
+        breaker.setMinimumCalls(10);
+        breaker.setFailureRateThreshold(0.5);
+        breaker.setSlowCallThreshold(1000);
+        breaker.setSlowCallRateThreshold(0.8);
+        breaker.setOpenDuration(50);
+        breaker.setHalfOpenProbes(2);
+        return breaker;
+    }
+
+    private void call(RedisCircuitBreaker breaker, long latencyNanos, boolean failure) {
+        RedisCircuitBreaker.State admitted = breaker.tryAcquire();
+        Assert.assertNotEquals(RedisCircuitBreaker.State.OPEN, admitted);
+        breaker.onComplete(admitted, latencyNanos, failure, true);
+    }
+
+    @Test
+    public void openOnFailureRateTest() {
+        RedisCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 6; i++) {
+            call(breaker, FAST, false);
+        }
+        for (int i = 0; i < 5; i++) {
+            call(breaker, FAST, true);
+        }
+        // 5/11 未达到 50%
+        Assert.assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, FAST, true);
+        Assert.assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(RedisCircuitBreaker.State.OPEN, breaker.tryAcquire());
+        Assert.assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    public void openOnSlowCallRateTest() {
+        RedisCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 10; i++) {
+            breaker.onComplete(breaker.tryAcquire(), SLOW, false, false);
+        }
+        // 不按耗时判断的调用
+        Assert.assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        for (int i = 0; i < 40; i++) {
+            call(breaker, SLOW, false);
+        }
+        Assert.assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenTest() throws InterruptedException {
+        RedisCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 10; i++) {
+            call(breaker, FAST, true);
+        }
+        Assert.assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+
+        // 试探失败重新打开
+        call(breaker, FAST, true);
+        Assert.assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+
+        RedisCircuitBreaker.State first = breaker.tryAcquire();
+        RedisCircuitBreaker.State second = breaker.tryAcquire();
+        Assert.assertEquals(RedisCircuitBreaker.State.HALF_OPEN, first);
+        Assert.assertEquals(RedisCircuitBreaker.State.HALF_OPEN, second);
+        // 超过 halfOpenProbes 的调用被拒绝
+        Assert.assertEquals(RedisCircuitBreaker.State.OPEN, breaker.tryAcquire());
+        breaker.onComplete(first, FAST, false, true);
+        Assert.assertEquals(RedisCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onComplete(second, FAST, false, true);
+        Assert.assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertEquals(2, breaker.getOpened());
+    }
+}
@@ -0,0 +1,122 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DelayedTaskHandler;
+import com.chaoyue.redis.RedisDelayQueue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在真实 redis 上执行延迟队列的 Lua 脚本 连接不上时跳过
+ */
+public class RedisDelayQueueScriptTest {
+
+    private static final String NAME = "chaoyue_script_delay";
+
+    private RedisServerSupport redis;
+
+    private RedisDelayQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        redis = RedisServerSupport.connect();
+        redis.delete(NAME, NAME + ":processing");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.destroy();
+        }
+        if (redis != null) {
+            redis.delete(NAME, NAME + ":processing");
+            redis.close();
+        }
+    }
+
+    private RedisDelayQueue queue(long visibilityTimeout, DelayedTaskHandler handler) {
+        queue = new RedisDelayQueue();
+        queue.setRedisCacheManager(redis.getRedisCacheManager());
+        queue.setName(NAME);
+        queue.setVisibilityTimeout(visibilityTimeout);
+        queue.setHandler(handler);
+        queue.setMinPollInterval(10);
+        queue.setMaxPollInterval(1000);
+        queue.afterPropertiesSet();
+        return queue;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void claimTest() throws Exception {
+        RedisDelayQueue queue = queue(0, null);
+        long now = System.currentTimeMillis();
+        queue.scheduleAt(bytes("task1"), now - 2000);
+        queue.scheduleAt(bytes("task2"), now - 1000);
+        queue.scheduleAt(bytes("task3"), now + 60000);
+
+        // 按到期时间领取 只返回到期的任务，第一个元素为剩余任务中最早的到期时间
+        RedisDelayQueue.Claim claim = queue.claim(10);
+        Assert.assertEquals(2, claim.getTasks().size());
+        Assert.assertArrayEquals(bytes("task1"), claim.getTasks().get(0));
+        Assert.assertArrayEquals(bytes("task2"), claim.getTasks().get(1));
+        Assert.assertEquals(now + 60000, claim.getNextDueAt());
+        Assert.assertEquals(1, queue.size());
+
+        Assert.assertTrue(queue.cancel(bytes("task3")));
+        claim = queue.claim(10);
+        Assert.assertTrue(claim.getTasks().isEmpty());
+        Assert.assertEquals(-1, claim.getNextDueAt());
+    }
+
+    @Test
+    public void reapTest() throws Exception {
+        RedisDelayQueue queue = queue(200, null);
+        queue.schedule(bytes("task1"), 0, TimeUnit.MILLISECONDS);
+        queue.schedule(bytes("task2"), 0, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(2, queue.claim(10).getTasks().size());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(1, queue.ack(Collections.singletonList(bytes("task1"))));
+
+        Assert.assertEquals(0, queue.reap());
+        Thread.sleep(300);
+        // 超时未确认的任务重新到期
+        Assert.assertEquals(1, queue.reap());
+        RedisDelayQueue.Claim claim = queue.claim(10);
+        Assert.assertEquals(1, claim.getTasks().size());
+        Assert.assertArrayEquals(bytes("task2"), claim.getTasks().get(0));
+    }
+
+    @Test
+    public void pollerTest() throws Exception {
+        final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(2);
+        RedisDelayQueue queue = queue(0, new DelayedTaskHandler() {
+            @Override
+            public void handle(List<byte[]> tasks) {
+                for (byte[] task : tasks) {
+                    handled.add(new String(task, StandardCharsets.UTF_8));
+                    done.countDown();
+                }
+            }
+        });
+        long start = System.currentTimeMillis();
+        queue.schedule(bytes("task2"), 300, TimeUnit.MILLISECONDS);
+        queue.schedule(bytes("task1"), 100, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 300);
+        Assert.assertEquals(Arrays.asList("task1", "task2"), handled);
+    }
+}
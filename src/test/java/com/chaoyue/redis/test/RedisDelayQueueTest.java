@@ -0,0 +1,97 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.LuaScripts;
+import com.chaoyue.redis.RedisDelayQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 不连接 redis 只验证领取结果的解析
+ */
+public class RedisDelayQueueTest {
+
+    private RedisDelayQueue queue(ReliableRedisQueueTest.StubManager manager, long visibilityTimeout) {
+        RedisDelayQueue queue = new RedisDelayQueue();
+        queue.setRedisCacheManager(manager);
+        queue.setName("chaoyue_delay");
+        queue.setVisibilityTimeout(visibilityTimeout);
+        queue.afterPropertiesSet();
+        return queue;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void claimTest() throws Exception {
+        ReliableRedisQueueTest.StubManager manager = new ReliableRedisQueueTest.StubManager();
+        RedisDelayQueue queue = queue(manager, 0);
+        // 第一个元素为剩余成员中最早的到期时间
+        manager.result = new ArrayList<>(Arrays.asList(bytes("1539820800000"), bytes("task1"), bytes("task2")));
+        long before = System.currentTimeMillis();
+        RedisDelayQueue.Claim claim = queue.claim(10);
+        Assert.assertSame(LuaScripts.DELAY_CLAIM, manager.script);
+        Assert.assertEquals(Arrays.asList("chaoyue_delay", "chaoyue_delay:processing"), manager.keys);
+        long now = (Long) manager.args[0];
+        Assert.assertTrue(now >= before && now <= System.currentTimeMillis());
+        Assert.assertEquals(10, manager.args[1]);
+        // 领取即删除
+        Assert.assertEquals(0L, manager.args[2]);
+        Assert.assertEquals(1539820800000L, claim.getNextDueAt());
+        Assert.assertEquals(2, claim.getTasks().size());
+        Assert.assertArrayEquals(bytes("task1"), claim.getTasks().get(0));
+        Assert.assertArrayEquals(bytes("task2"), claim.getTasks().get(1));
+
+        // 分数带小数
+        manager.result = new ArrayList<>(Collections.singletonList(bytes("1539820800000.5")));
+        claim = queue.claim(10);
+        Assert.assertEquals(1539820800000L, claim.getNextDueAt());
+        Assert.assertTrue(claim.getTasks().isEmpty());
+    }
+
+    @Test
+    public void emptyClaimTest() throws Exception {
+        ReliableRedisQueueTest.StubManager manager = new ReliableRedisQueueTest.StubManager();
+        RedisDelayQueue queue = queue(manager, 0);
+        // 没有剩余成员时为空串
+        manager.result = new ArrayList<>(Arrays.asList(new byte[0], bytes("task1")));
+        RedisDelayQueue.Claim claim = queue.claim(10);
+        Assert.assertEquals(-1, claim.getNextDueAt());
+        Assert.assertEquals(1, claim.getTasks().size());
+
+        manager.result = new ArrayList<byte[]>();
+        claim = queue.claim(10);
+        Assert.assertEquals(-1, claim.getNextDueAt());
+        Assert.assertTrue(claim.getTasks().isEmpty());
+
+        manager.result = null;
+        claim = queue.claim(10);
+        Assert.assertEquals(-1, claim.getNextDueAt());
+        Assert.assertTrue(claim.getTasks().isEmpty());
+    }
+
+    @Test
+    public void visibilityTest() throws Exception {
+        ReliableRedisQueueTest.StubManager manager = new ReliableRedisQueueTest.StubManager();
+        RedisDelayQueue queue = queue(manager, 5000);
+        manager.result = new ArrayList<>(Collections.singletonList(new byte[0]));
+        queue.claim(1);
+        long now = (Long) manager.args[0];
+        Assert.assertEquals(now + 5000, manager.args[2]);
+
+        manager.result = 2L;
+        Assert.assertEquals(2, queue.reap());
+        Assert.assertSame(LuaScripts.DELAY_REAP, manager.script);
+        Assert.assertEquals(100, manager.args[1]);
+
+        List<byte[]> none = Collections.emptyList();
+        Assert.assertEquals(0, queue.ack(none));
+    }
+}
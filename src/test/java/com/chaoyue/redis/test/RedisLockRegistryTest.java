@@ -0,0 +1,216 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import com.chaoyue.redis.LuaScript;
+import com.chaoyue.redis.LuaScripts;
+import com.chaoyue.redis.RedisLockRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不连接 redis 加锁、续租、解锁脚本由 LockManager 在内存中模拟，解锁通知由测试直接调用 onMessage
+ */
+public class RedisLockRegistryTest {
+
+    private static final String CHANNEL = "chaoyue:lock:release";
+
+    private RedisLockRegistry registry;
+
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.destroy();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private RedisLockRegistry registry(LockManager manager, long leaseTime, long maxWaitInterval) {
+        registry = new RedisLockRegistry();
+        registry.setRedisCacheManager(manager);
+        registry.setChannel(CHANNEL);
+        registry.setLeaseTime(leaseTime);
+        registry.setMaxWaitInterval(maxWaitInterval);
+        registry.afterPropertiesSet();
+        return registry;
+    }
+
+    private static void publish(RedisLockRegistry registry, String name) {
+        registry.onMessage(new DefaultMessage(CHANNEL.getBytes(StandardCharsets.UTF_8),
+                name.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    @Test
+    public void tryLockTest() throws Exception {
+        LockManager manager = new LockManager();
+        RedisLockRegistry registry = registry(manager, 60000, 1000);
+        RedisLockRegistry.Lease lease = registry.tryLock("chaoyue_lock");
+        Assert.assertNotNull(lease);
+        Assert.assertEquals(1, lease.getToken());
+        Assert.assertTrue(lease.isHeld());
+        // 不可重入
+        Assert.assertNull(registry.tryLock("chaoyue_lock"));
+
+        Assert.assertTrue(lease.unlock());
+        Assert.assertFalse(lease.isHeld());
+        Assert.assertFalse(lease.unlock());
+        // fencing token 单调递增
+        RedisLockRegistry.Lease next = registry.tryLock("chaoyue_lock");
+        Assert.assertEquals(2, next.getToken());
+        next.unlock();
+    }
+
+    @Test
+    public void notifyTest() throws Exception {
+        final LockManager manager = new LockManager();
+        // 剩余租期和 maxWaitInterval 都很长 只有收到通知才会在超时前拿到锁
+        final RedisLockRegistry registry = registry(manager, 60000, 60000);
+        RedisLockRegistry.Lease lease = registry.tryLock("chaoyue_lock");
+        executor = Executors.newSingleThreadExecutor();
+        Future<RedisLockRegistry.Lease> waiter = executor.submit(new Callable<RedisLockRegistry.Lease>() {
+            @Override
+            public RedisLockRegistry.Lease call() throws Exception {
+                return registry.tryLock("chaoyue_lock", 5, TimeUnit.SECONDS);
+            }
+        });
+        // 等待的线程先尝试一次 登记后再尝试一次
+        manager.awaitAcquires(3);
+        Assert.assertFalse(waiter.isDone());
+
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(lease.unlock());
+        publish(registry, "chaoyue_lock");
+        RedisLockRegistry.Lease acquired = waiter.get(1, TimeUnit.SECONDS);
+        Assert.assertNotNull(acquired);
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(2, acquired.getToken());
+        // 没有轮询 redis
+        Assert.assertEquals(4, manager.acquires);
+        acquired.unlock();
+    }
+
+    @Test
+    public void waitTimeoutTest() throws Exception {
+        LockManager manager = new LockManager();
+        RedisLockRegistry registry = registry(manager, 60000, 50);
+        RedisLockRegistry.Lease lease = registry.tryLock("chaoyue_lock");
+        long start = System.currentTimeMillis();
+        // 其他锁的通知不会唤醒
+        publish(registry, "chaoyue_other");
+        Assert.assertNull(registry.tryLock("chaoyue_lock", 200, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        // 没有通知时每 maxWaitInterval 重试一次
+        Assert.assertTrue(manager.acquires >= 4);
+        lease.unlock();
+    }
+
+    @Test
+    public void lostTest() throws Exception {
+        LockManager manager = new LockManager();
+        // 每 100ms 续租一次
+        RedisLockRegistry registry = registry(manager, 300, 1000);
+        RedisLockRegistry.Lease lease = registry.tryLock("chaoyue_lock");
+        Thread.sleep(400);
+        // 续租成功 超过 leaseTime 后仍然持有
+        Assert.assertTrue(lease.isHeld());
+        Assert.assertTrue(manager.renews >= 2);
+
+        // 锁过期后被其他人拿到 下一次续租失败
+        manager.steal("chaoyue_lock");
+        Thread.sleep(200);
+        Assert.assertFalse(lease.isHeld());
+        Assert.assertFalse(lease.unlock());
+    }
+
+    @Test
+    public void renewFailureTest() throws Exception {
+        LockManager manager = new LockManager();
+        RedisLockRegistry registry = registry(manager, 300, 1000);
+        RedisLockRegistry.Lease lease = registry.tryLock("chaoyue_lock");
+        long start = System.currentTimeMillis();
+        // redis 不可用 续租抛出异常
+        manager.failRenew = true;
+        Thread.sleep(150);
+        if (System.currentTimeMillis() - start < 300) {
+            Assert.assertTrue(lease.isHeld());
+        }
+        // 超过 leaseTime 没有一次续租成功
+        Thread.sleep(300);
+        Assert.assertFalse(lease.isHeld());
+    }
+
+    /**
+     * 按脚本的返回值约定在内存中维护锁 不处理过期时间
+     */
+    private static final class LockManager extends DefaultRedisCacheManager {
+
+        private final Map<String, String> owners = new HashMap<>();
+
+        private long fence;
+
+        private volatile int acquires;
+
+        private volatile int renews;
+
+        private volatile boolean failRenew;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T eval(LuaScript script, List<String> keys, Object... args) {
+            String key = keys.get(0);
+            String owner = (String) args[0];
+            if (script == LuaScripts.LOCK_ACQUIRE) {
+                acquires++;
+                notifyAll();
+                if (owners.containsKey(key)) {
+                    return (T) Long.valueOf(-(Long) args[1]);
+                }
+                owners.put(key, owner);
+                return (T) Long.valueOf(++fence);
+            }
+            if (script == LuaScripts.LOCK_RENEW) {
+                if (failRenew) {
+                    throw new IllegalStateException("redis is down");
+                }
+                renews++;
+                return (T) Long.valueOf(owner.equals(owners.get(key)) ? 1 : 0);
+            }
+            if (script == LuaScripts.LOCK_RELEASE) {
+                if (owner.equals(owners.get(key))) {
+                    owners.remove(key);
+                    return (T) Long.valueOf(1);
+                }
+                return (T) Long.valueOf(0);
+            }
+            throw new IllegalArgumentException("unexpected script " + script);
+        }
+
+        private synchronized void steal(String name) {
+            owners.put("lock:" + name, "other");
+        }
+
+        private synchronized void awaitAcquires(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (acquires < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                Assert.assertTrue("acquires " + acquires, remaining > 0);
+                wait(remaining);
+            }
+        }
+    }
+}
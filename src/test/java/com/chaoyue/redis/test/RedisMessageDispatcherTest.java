@@ -0,0 +1,101 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.RedisBatchMessageHandler;
+import com.chaoyue.redis.RedisMessage;
+import com.chaoyue.redis.RedisMessageDispatcher;
+import com.chaoyue.redis.RedisMessageHandler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RedisMessageDispatcherTest {
+
+    private static void publish(RedisMessageDispatcher dispatcher, String channel, String body) {
+        dispatcher.onMessage(new DefaultMessage(channel.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    @Test
+    public void orderTest() throws Exception {
+        final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        RedisMessageDispatcher dispatcher = new RedisMessageDispatcher();
+        dispatcher.setHandlers(Collections.<String, RedisMessageHandler>singletonMap("order:*", new RedisMessageHandler() {
+            @Override
+            public void handle(RedisMessage message) {
+                received.computeIfAbsent(message.getChannel(), k -> new ArrayList<>())
+                        .add(Integer.parseInt(message.getBodyAsString()));
+            }
+        }));
+        dispatcher.setBatchHandlers(Collections.<String, RedisBatchMessageHandler>singletonMap("stock",
+                new RedisBatchMessageHandler() {
+                    @Override
+                    public void handle(List<RedisMessage> messages) {
+                        batchSizes.add(messages.size());
+                    }
+                }));
+        dispatcher.setWorkers(4);
+        dispatcher.setBatchSize(50);
+        dispatcher.afterPropertiesSet();
+        for (int i = 0; i < 1000; i++) {
+            publish(dispatcher, "order:" + (i % 8), String.valueOf(i));
+            publish(dispatcher, "stock", "{}");
+            publish(dispatcher, "other", "x");
+        }
+        dispatcher.destroy();
+
+        Assert.assertEquals(8, received.size());
+        for (Map.Entry<String, List<Integer>> entry : received.entrySet()) {
+            List<Integer> values = entry.getValue();
+            Assert.assertEquals(125, values.size());
+            for (int i = 1; i < values.size(); i++) {
+                // 同一个 channel 按顺序处理
+                Assert.assertTrue(values.get(i - 1) < values.get(i));
+            }
+        }
+        int stock = 0;
+        for (Integer size : batchSizes) {
+            Assert.assertTrue(size <= 50);
+            stock += size;
+        }
+        Assert.assertEquals(1000, stock);
+        Assert.assertEquals(1000, dispatcher.getUnhandled());
+        Assert.assertEquals(2000, dispatcher.getProcessed());
+        Assert.assertEquals(0, dispatcher.getDropped());
+    }
+
+    @Test
+    public void dropTest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RedisMessageDispatcher dispatcher = new RedisMessageDispatcher();
+        dispatcher.setHandlers(Collections.<String, RedisMessageHandler>singletonMap("slow", new RedisMessageHandler() {
+            @Override
+            public void handle(RedisMessage message) throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+            }
+        }));
+        dispatcher.setWorkers(1);
+        dispatcher.setQueueCapacity(10);
+        dispatcher.setBatchSize(1);
+        dispatcher.setOverflowPolicy(RedisMessageDispatcher.OverflowPolicy.DROP);
+        dispatcher.afterPropertiesSet();
+        for (int i = 0; i < 100; i++) {
+            publish(dispatcher, "slow", String.valueOf(i));
+        }
+        // worker 最多取走 1 条 队列最多 10 条
+        Assert.assertTrue(dispatcher.getDropped() >= 89);
+        release.countDown();
+        dispatcher.destroy();
+        Assert.assertEquals(100, dispatcher.getProcessed() + dispatcher.getDropped());
+    }
+}
@@ -0,0 +1,84 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.RedisRateLimiter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 在真实 redis 上执行限流的 Lua 脚本 连接不上时跳过
+ */
+public class RedisRateLimiterScriptTest {
+
+    private static final String NAME = "chaoyue_script_rate:";
+
+    private RedisServerSupport redis;
+
+    @Before
+    public void setUp() throws Exception {
+        redis = RedisServerSupport.connect();
+        redis.delete(NAME + "window", NAME + "lease", NAME + "bucket");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (redis != null) {
+            redis.delete(NAME + "window", NAME + "lease", NAME + "bucket");
+            redis.close();
+        }
+    }
+
+    private RedisRateLimiter limiter(RedisRateLimiter.Algorithm algorithm, long permits, long window, int leaseSize) {
+        RedisRateLimiter limiter = new RedisRateLimiter();
+        limiter.setRedisCacheManager(redis.getRedisCacheManager());
+        limiter.setName(NAME);
+        limiter.setAlgorithm(algorithm);
+        limiter.setPermits(permits);
+        limiter.setWindow(window);
+        limiter.setLeaseSize(leaseSize);
+        limiter.setLeaseTimeout(60000);
+        limiter.afterPropertiesSet();
+        return limiter;
+    }
+
+    @Test
+    public void slidingWindowTest() throws Exception {
+        // 窗口足够长 跨过窗口交界时上一个窗口的计数几乎全部计入
+        RedisRateLimiter limiter = limiter(RedisRateLimiter.Algorithm.SLIDING_WINDOW, 10, 60000, 0);
+        Assert.assertTrue(limiter.tryAcquire("window", 4));
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(limiter.tryAcquire("window"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("window"));
+        Assert.assertEquals(7, limiter.getAllowed());
+        Assert.assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void leaseTest() throws Exception {
+        RedisRateLimiter limiter = limiter(RedisRateLimiter.Algorithm.SLIDING_WINDOW, 10, 60000, 4);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.tryAcquire("lease"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("lease"));
+        // 预取 4、4、2 个 其余 7 次使用本地许可
+        Assert.assertEquals(7, limiter.getLocalAllowed());
+        // 预取的许可已计入 redis 其他节点也拿不到
+        RedisRateLimiter other = limiter(RedisRateLimiter.Algorithm.SLIDING_WINDOW, 10, 60000, 0);
+        Assert.assertFalse(other.tryAcquire("lease"));
+    }
+
+    @Test
+    public void tokenBucketTest() throws Exception {
+        // 每秒补充 2 个令牌 补充得足够慢，取完令牌的过程中不会补充
+        RedisRateLimiter limiter = limiter(RedisRateLimiter.Algorithm.TOKEN_BUCKET, 2, 1000, 0);
+        limiter.setBurst(5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire("bucket"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("bucket"));
+        Thread.sleep(1100);
+        Assert.assertTrue(limiter.tryAcquire("bucket", 2));
+    }
+}
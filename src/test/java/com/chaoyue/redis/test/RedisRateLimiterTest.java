@@ -0,0 +1,138 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import com.chaoyue.redis.LuaScript;
+import com.chaoyue.redis.LuaScripts;
+import com.chaoyue.redis.RedisRateLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 不连接 redis 脚本由 BudgetManager 按剩余额度模拟，只验证本地预取许可的计数
+ */
+public class RedisRateLimiterTest {
+
+    private RedisRateLimiter limiter(BudgetManager manager, int leaseSize) {
+        RedisRateLimiter limiter = new RedisRateLimiter();
+        limiter.setRedisCacheManager(manager);
+        limiter.setName("chaoyue:rate:");
+        limiter.setPermits(100);
+        limiter.setWindow(1000);
+        limiter.setLeaseSize(leaseSize);
+        limiter.setLeaseTimeout(60000);
+        limiter.afterPropertiesSet();
+        return limiter;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void permitsRequiredTest() {
+        RedisRateLimiter limiter = new RedisRateLimiter();
+        limiter.setRedisCacheManager(new BudgetManager(0));
+        limiter.afterPropertiesSet();
+    }
+
+    @Test
+    public void leaseTest() throws Exception {
+        BudgetManager manager = new BudgetManager(25);
+        RedisRateLimiter limiter = limiter(manager, 10);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.tryAcquire("chaoyue_key"));
+        }
+        // 第一次预取 10 个 其余 9 次使用本地许可
+        Assert.assertEquals(1, manager.calls);
+        Assert.assertEquals(Collections.singletonList("chaoyue:rate:chaoyue_key"), manager.keys);
+        Assert.assertEquals(10L, manager.max);
+        Assert.assertEquals(1L, manager.min);
+        Assert.assertEquals(9, limiter.getLocalAllowed());
+
+        // 本地剩余 0 再预取 10 个，一次取 3 个
+        Assert.assertTrue(limiter.tryAcquire("chaoyue_key", 3));
+        Assert.assertEquals(2, manager.calls);
+        Assert.assertEquals(3L, manager.min);
+        Assert.assertTrue(limiter.tryAcquire("chaoyue_key", 7));
+        Assert.assertEquals(2, manager.calls);
+
+        // redis 只剩 5 个 本地剩余 0 个，预取到 5 个
+        Assert.assertTrue(limiter.tryAcquire("chaoyue_key", 2));
+        Assert.assertEquals(3, manager.calls);
+        Assert.assertEquals(0, manager.budget);
+        // 本地剩余 3 个 不够 4 个时访问 redis，失败后本地剩余清零
+        Assert.assertFalse(limiter.tryAcquire("chaoyue_key", 4));
+        Assert.assertEquals(4, manager.calls);
+        Assert.assertFalse(limiter.tryAcquire("chaoyue_key"));
+        Assert.assertEquals(5, manager.calls);
+
+        Assert.assertEquals(13, limiter.getAllowed());
+        Assert.assertEquals(2, limiter.getRejected());
+    }
+
+    @Test
+    public void noLeaseTest() throws Exception {
+        BudgetManager manager = new BudgetManager(2);
+        RedisRateLimiter limiter = limiter(manager, 0);
+        Assert.assertTrue(limiter.tryAcquire("chaoyue_key", 2));
+        // 不预取时最多和最少都是请求的数量
+        Assert.assertEquals(2L, manager.max);
+        Assert.assertEquals(2L, manager.min);
+        Assert.assertFalse(limiter.tryAcquire("chaoyue_key"));
+        Assert.assertEquals(2, manager.calls);
+        Assert.assertEquals(0, limiter.getLocalAllowed());
+    }
+
+    @Test
+    public void tokenBucketTest() throws Exception {
+        BudgetManager manager = new BudgetManager(10);
+        RedisRateLimiter limiter = limiter(manager, 0);
+        limiter.setAlgorithm(RedisRateLimiter.Algorithm.TOKEN_BUCKET);
+        limiter.setBurst(50);
+        Assert.assertTrue(limiter.tryAcquire("chaoyue_key"));
+        Assert.assertSame(LuaScripts.TOKEN_BUCKET_ACQUIRE, manager.script);
+        Assert.assertEquals(50L, manager.args[1]);
+        // 每毫秒补充的令牌数
+        Assert.assertEquals(0.1, (Double) manager.args[2], 1e-9);
+    }
+
+    /**
+     * 按剩余额度授予许可 与脚本的返回值约定一致：不足最少数量时返回0
+     */
+    private static final class BudgetManager extends DefaultRedisCacheManager {
+
+        private long budget;
+
+        private int calls;
+
+        private LuaScript script;
+
+        private List<String> keys;
+
+        private Object[] args;
+
+        private long max;
+
+        private long min;
+
+        private BudgetManager(long budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T eval(LuaScript script, List<String> keys, Object... args) {
+            calls++;
+            this.script = script;
+            this.keys = keys;
+            this.args = args;
+            max = (Long) args[3];
+            min = (Long) args[4];
+            long grant = Math.min(max, budget);
+            if (grant < min) {
+                grant = 0;
+            }
+            budget -= grant;
+            return (T) Long.valueOf(grant);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DbBoundJedisConnectionFactory;
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import org.junit.Assume;
+import org.springframework.data.redis.core.RedisTemplate;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 连接真实 redis 执行 Lua 脚本的测试使用
+ * 地址由 -Dredis.host、-Dredis.port、-Dredis.db 指定，默认 localhost:6379 的 15 号库，连接不上时跳过测试
+ */
+final class RedisServerSupport {
+
+    private final DbBoundJedisConnectionFactory connectionFactory;
+
+    private final DefaultRedisCacheManager redisCacheManager;
+
+    private RedisServerSupport(DbBoundJedisConnectionFactory connectionFactory,
+                               DefaultRedisCacheManager redisCacheManager) {
+        this.connectionFactory = connectionFactory;
+        this.redisCacheManager = redisCacheManager;
+    }
+
+    static RedisServerSupport connect() {
+        String host = System.getProperty("redis.host", "localhost");
+        int port = Integer.getInteger("redis.port", 6379);
+        int db = Integer.getInteger("redis.db", 15);
+        Jedis jedis = new Jedis(host, port, 1000);
+        try {
+            jedis.ping();
+        } catch (JedisConnectionException e) {
+            Assume.assumeNoException("redis not available at " + host + ":" + port, e);
+        } finally {
+            jedis.close();
+        }
+        DbBoundJedisConnectionFactory connectionFactory = new DbBoundJedisConnectionFactory(new JedisPoolConfig());
+        connectionFactory.setHostName(host);
+        connectionFactory.setPort(port);
+        connectionFactory.setDatabase(db);
+        connectionFactory.afterPropertiesSet();
+        RedisTemplate<String, Serializable> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.afterPropertiesSet();
+        DefaultRedisCacheManager redisCacheManager = new DefaultRedisCacheManager();
+        redisCacheManager.setRedisTemplate(redisTemplate);
+        redisCacheManager.setDbIndex(db);
+        return new RedisServerSupport(connectionFactory, redisCacheManager);
+    }
+
+    DefaultRedisCacheManager getRedisCacheManager() {
+        return redisCacheManager;
+    }
+
+    /**
+     * 测试前后清除用到的 key
+     */
+    void delete(String... keys) throws Exception {
+        redisCacheManager.delete(Arrays.asList(keys));
+    }
+
+    void close() {
+        connectionFactory.destroy();
+    }
+}
@@ -0,0 +1,170 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import com.chaoyue.redis.RedisWriteBehindBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不连接 redis 管道中的命令记录在 RecordingManager 中
+ */
+public class RedisWriteBehindBufferTest {
+
+    private RedisWriteBehindBuffer buffer(RecordingManager manager, int capacity, int batchSize, long flushInterval) {
+        RedisWriteBehindBuffer buffer = new RedisWriteBehindBuffer();
+        buffer.setRedisCacheManager(manager);
+        buffer.setCapacity(capacity);
+        buffer.setBatchSize(batchSize);
+        buffer.setFlushInterval(flushInterval);
+        buffer.setOfferTimeout(50);
+        buffer.afterPropertiesSet();
+        return buffer;
+    }
+
+    @Test
+    public void coalesceTest() {
+        RecordingManager manager = new RecordingManager();
+        RedisWriteBehindBuffer buffer = buffer(manager, 100, 100, 60000);
+        buffer.set("chaoyue_k1", "v1", 0);
+        buffer.set("chaoyue_k1", "v2", 0);
+        buffer.set("chaoyue_k2", "v1", 10);
+        buffer.delete("chaoyue_k2");
+        buffer.set("chaoyue_k1", "v3", 10);
+        // 相同的消息也要逐条发布
+        buffer.publish("chaoyue_channel", "m");
+        buffer.publish("chaoyue_channel", "m");
+        buffer.flush();
+
+        Assert.assertEquals(4, manager.commands.size());
+        Assert.assertTrue(manager.commands.contains("setEx chaoyue_k1"));
+        Assert.assertTrue(manager.commands.contains("del chaoyue_k2"));
+        Assert.assertEquals(Collections.nCopies(2, "publish chaoyue_channel"), manager.commands.subList(2, 4));
+        Assert.assertEquals(3, buffer.getCoalescedOps());
+        Assert.assertEquals(0, buffer.getQueueDepth());
+        buffer.close();
+    }
+
+    @Test
+    public void backpressureTest() throws InterruptedException {
+        RecordingManager manager = new RecordingManager();
+        manager.block = new CountDownLatch(1);
+        RedisWriteBehindBuffer buffer = buffer(manager, 2, 1, 60000);
+        buffer.set("chaoyue_k0", "v", 0);
+        // 刷新线程取走第一条后阻塞在管道中
+        Assert.assertTrue(manager.entered.await(5, TimeUnit.SECONDS));
+        buffer.set("chaoyue_k1", "v", 0);
+        buffer.set("chaoyue_k2", "v", 0);
+        try {
+            buffer.set("chaoyue_k3", "v", 0);
+            Assert.fail("buffer should be full");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, buffer.getRejectedOps());
+        }
+        manager.block.countDown();
+        buffer.close();
+        Assert.assertEquals(3, manager.commands.size());
+    }
+
+    @Test
+    public void closeTest() {
+        RecordingManager manager = new RecordingManager();
+        RedisWriteBehindBuffer buffer = buffer(manager, 100, 100, 60000);
+        for (int i = 0; i < 10; i++) {
+            buffer.set("chaoyue_k" + i, "v", 0);
+        }
+        buffer.close();
+        Assert.assertEquals(10, manager.commands.size());
+        try {
+            buffer.set("chaoyue_k", "v", 0);
+            Assert.fail("closed buffer should reject writes");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void flushUnderLoadTest() throws InterruptedException {
+        RecordingManager manager = new RecordingManager();
+        manager.delayMillis = 1;
+        final RedisWriteBehindBuffer buffer = buffer(manager, 5000, 10, 60000);
+        for (int i = 0; i < 100; i++) {
+            buffer.set("chaoyue_k" + i, "v", 0);
+        }
+        final long stopAt = System.currentTimeMillis() + 3000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                try {
+                    while (System.currentTimeMillis() < stopAt) {
+                        buffer.set("chaoyue_p" + i++, "v", 0);
+                    }
+                } catch (IllegalStateException e) {
+                    // 队列已满
+                }
+            }
+        });
+        producer.start();
+        long start = System.currentTimeMillis();
+        buffer.flush();
+        // 只写入调用前的写操作 不等生产者停止
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        producer.join();
+        buffer.close();
+    }
+
+    private static final class RecordingManager extends DefaultRedisCacheManager {
+
+        private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private volatile CountDownLatch block;
+
+        private volatile long delayMillis;
+
+        private RecordingManager() {
+            RedisTemplate<String, Serializable> redisTemplate = new RedisTemplate<>();
+            setRedisTemplate(redisTemplate);
+            setDefRedisSerializer(new JdkSerializationRedisSerializer());
+        }
+
+        @Override
+        public List<Object> executePipelined(RedisCallback<?> action) throws Exception {
+            entered.countDown();
+            if (block != null) {
+                block.await();
+            }
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{RedisConnection.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            // del 的参数为 byte[][]
+                            byte[] key = args[0] instanceof byte[][] ? ((byte[][]) args[0])[0] : (byte[]) args[0];
+                            commands.add(method.getName() + " " + new String(key, StandardCharsets.UTF_8));
+                            return null;
+                        }
+                    });
+            action.doInRedis(connection);
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.ReliableRedisQueue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 在真实 redis 上执行队列的 Lua 脚本 连接不上时跳过
+ */
+public class ReliableRedisQueueScriptTest {
+
+    private static final String NAME = "chaoyue_script_queue";
+
+    private RedisServerSupport redis;
+
+    private ReliableRedisQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        redis = RedisServerSupport.connect();
+        redis.delete(NAME, NAME + ":processing", NAME + ":deadlines");
+        queue = new ReliableRedisQueue();
+        queue.setRedisCacheManager(redis.getRedisCacheManager());
+        queue.setName(NAME);
+        queue.setVisibilityTimeout(200);
+        queue.setReapInterval(0);
+        queue.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.destroy();
+        }
+        if (redis != null) {
+            redis.delete(NAME, NAME + ":processing", NAME + ":deadlines");
+            redis.close();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void pollAckTest() throws Exception {
+        queue.pushAll(Arrays.asList(bytes("task1"), bytes("task2"), bytes("task3")));
+        List<ReliableRedisQueue.Delivery> deliveries = queue.poll(2);
+        // 先进先出
+        Assert.assertEquals(2, deliveries.size());
+        Assert.assertArrayEquals(bytes("task1"), deliveries.get(0).getPayload());
+        Assert.assertArrayEquals(bytes("task2"), deliveries.get(1).getPayload());
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(2, queue.processingSize());
+
+        Assert.assertEquals(2, queue.ack(deliveries));
+        Assert.assertEquals(0, queue.processingSize());
+        // 重复确认
+        Assert.assertEquals(0, queue.ack(deliveries));
+        Assert.assertEquals(0, queue.reap());
+    }
+
+    @Test
+    public void reapTest() throws Exception {
+        queue.push(bytes("task1"));
+        ReliableRedisQueue.Delivery delivery = queue.poll(1).get(0);
+        // 未超时不重新投递
+        Assert.assertEquals(0, queue.reap());
+        Thread.sleep(300);
+        Assert.assertEquals(1, queue.reap());
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(0, queue.processingSize());
+        // 已重新投递的元素确认失败
+        Assert.assertFalse(queue.ack(delivery));
+
+        ReliableRedisQueue.Delivery redelivery = queue.poll(1).get(0);
+        Assert.assertEquals(delivery.getId(), redelivery.getId());
+        Assert.assertTrue(queue.ack(redelivery));
+    }
+
+    @Test
+    public void extendTest() throws Exception {
+        queue.push(bytes("task1"));
+        ReliableRedisQueue.Delivery delivery = queue.poll(1).get(0);
+        Thread.sleep(150);
+        queue.extend(delivery);
+        Thread.sleep(150);
+        // 延长后还没有超时
+        Assert.assertEquals(0, queue.reap());
+        Assert.assertTrue(queue.ack(delivery));
+    }
+}
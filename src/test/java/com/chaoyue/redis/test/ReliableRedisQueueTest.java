@@ -0,0 +1,142 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.DefaultRedisCacheManager;
+import com.chaoyue.redis.LuaScript;
+import com.chaoyue.redis.LuaScripts;
+import com.chaoyue.redis.ReliableRedisQueue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 不连接 redis 脚本的调用由 StubManager 记录，只验证 Java 侧的封装和参数
+ */
+public class ReliableRedisQueueTest {
+
+    private StubManager manager;
+
+    private ReliableRedisQueue queue;
+
+    @Before
+    public void setUp() {
+        manager = new StubManager();
+        queue = new ReliableRedisQueue();
+        queue.setRedisCacheManager(manager);
+        queue.setName("chaoyue_queue");
+        queue.setVisibilityTimeout(30000);
+        queue.setReapInterval(0);
+        queue.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        queue.destroy();
+    }
+
+    @Test
+    public void wrapTest() throws Exception {
+        byte[] payload = "chaoyue_payload".getBytes(StandardCharsets.UTF_8);
+        queue.push(payload);
+        queue.push(payload);
+        Assert.assertEquals(2, manager.pushed.size());
+        // 每个元素前加 16 字节的 id 相同内容也不相同
+        Assert.assertEquals(16 + payload.length, manager.pushed.get(0).length);
+        Assert.assertFalse(Arrays.equals(manager.pushed.get(0), manager.pushed.get(1)));
+
+        manager.result = new ArrayList<>(manager.pushed);
+        long before = System.currentTimeMillis();
+        List<ReliableRedisQueue.Delivery> deliveries = queue.poll(10);
+        Assert.assertSame(LuaScripts.QUEUE_CLAIM, manager.script);
+        Assert.assertEquals(Arrays.asList("chaoyue_queue", "chaoyue_queue:processing", "chaoyue_queue:deadlines"),
+                manager.keys);
+        Assert.assertEquals(10, manager.args[0]);
+        long deadline = (Long) manager.args[1];
+        Assert.assertTrue(deadline >= before + 30000 && deadline <= System.currentTimeMillis() + 30000);
+
+        Assert.assertEquals(2, deliveries.size());
+        for (ReliableRedisQueue.Delivery delivery : deliveries) {
+            Assert.assertArrayEquals(payload, delivery.getPayload());
+            Assert.assertTrue(delivery.getId().matches("[0-9a-f]{32}"));
+        }
+        Assert.assertNotEquals(deliveries.get(0).getId(), deliveries.get(1).getId());
+    }
+
+    @Test
+    public void emptyPollTest() throws Exception {
+        manager.result = null;
+        Assert.assertTrue(queue.poll(10).isEmpty());
+        manager.result = new ArrayList<>();
+        Assert.assertTrue(queue.poll(10).isEmpty());
+    }
+
+    @Test
+    public void ackTest() throws Exception {
+        queue.pushAll(Arrays.asList("a".getBytes(StandardCharsets.UTF_8), "b".getBytes(StandardCharsets.UTF_8)));
+        manager.result = new ArrayList<>(manager.pushed);
+        List<ReliableRedisQueue.Delivery> deliveries = queue.poll(2);
+
+        // 确认时传回领取到的原始元素 包括 id
+        manager.result = 2L;
+        Assert.assertEquals(2, queue.ack(deliveries));
+        Assert.assertSame(LuaScripts.QUEUE_ACK, manager.script);
+        Assert.assertEquals(Arrays.asList("chaoyue_queue:processing", "chaoyue_queue:deadlines"), manager.keys);
+        Assert.assertEquals(2, manager.args.length);
+        Assert.assertArrayEquals(manager.pushed.get(0), (byte[]) manager.args[0]);
+        Assert.assertArrayEquals(manager.pushed.get(1), (byte[]) manager.args[1]);
+
+        // 已被重新投递
+        manager.result = 0L;
+        Assert.assertFalse(queue.ack(deliveries.get(0)));
+        manager.result = null;
+        Assert.assertEquals(0, queue.ack(deliveries));
+    }
+
+    @Test
+    public void reapTest() throws Exception {
+        manager.result = 3L;
+        long before = System.currentTimeMillis();
+        Assert.assertEquals(3, queue.reap());
+        Assert.assertSame(LuaScripts.QUEUE_REAP, manager.script);
+        long now = (Long) manager.args[0];
+        Assert.assertTrue(now >= before && now <= System.currentTimeMillis());
+        Assert.assertEquals(100, manager.args[1]);
+        // 补记的截止时间
+        Assert.assertEquals(now + 30000, manager.args[2]);
+        manager.result = null;
+        Assert.assertEquals(0, queue.reap());
+    }
+
+    static final class StubManager extends DefaultRedisCacheManager {
+
+        final List<byte[]> pushed = new ArrayList<>();
+
+        volatile Object result;
+
+        volatile LuaScript script;
+
+        volatile List<String> keys;
+
+        volatile Object[] args;
+
+        @Override
+        public long leftPushAll(String key, List<byte[]> values) {
+            pushed.addAll(values);
+            return pushed.size();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T eval(LuaScript script, List<String> keys, Object... args) {
+            this.script = script;
+            this.keys = keys;
+            this.args = args;
+            return (T) result;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.chaoyue.redis.test;
+
+import com.chaoyue.redis.ShardedRedisCacheManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShardedRedisCacheManagerTest {
+
+    private static ShardedRedisCacheManager manager(String... nodes) {
+        ShardedRedisCacheManager manager = new ShardedRedisCacheManager();
+        manager.setNodes(Arrays.asList(nodes));
+        manager.setThreads(1);
+        // 连接池在第一次使用时才建立连接
+        manager.afterPropertiesSet();
+        return manager;
+    }
+
+    @Test
+    public void addNodeTest() {
+        ShardedRedisCacheManager before = manager("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379", "10.0.0.4:6379");
+        ShardedRedisCacheManager after = manager("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379", "10.0.0.4:6379",
+                "10.0.0.5:6379");
+        try {
+            int keys = 20000;
+            int moved = 0;
+            Map<String, Integer> counts = new HashMap<>();
+            for (int i = 0; i < keys; i++) {
+                String key = "chaoyue_" + i;
+                String node = after.getNode(key);
+                counts.merge(node, 1, Integer::sum);
+                if (!before.getNode(key).equals(node)) {
+                    moved++;
+                    // 只会迁移到新节点
+                    Assert.assertEquals("10.0.0.5:6379", node);
+                }
+            }
+            // 理想值为 1/5
+            Assert.assertTrue("moved " + moved, moved > keys / 10 && moved < keys * 3 / 10);
+            for (Integer count : counts.values()) {
+                Assert.assertTrue("count " + count, count > keys / 10 && count < keys * 3 / 10);
+            }
+        } finally {
+            before.destroy();
+            after.destroy();
+        }
+    }
+
+    @Test
+    public void hashTagTest() {
+        ShardedRedisCacheManager manager = manager("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379");
+        try {
+            List<String> keys = Arrays.asList("{user:1}.profile", "{user:1}.orders", "cart:{user:1}", "user:1");
+            for (String key : keys) {
+                Assert.assertEquals(manager.getNode("user:1"), manager.getNode(key));
+            }
+        } finally {
+            manager.destroy();
+        }
+    }
+}